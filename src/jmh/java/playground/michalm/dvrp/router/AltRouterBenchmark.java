@@ -0,0 +1,137 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.common.util.DistanceUtils;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.speedy.LeastCostPathTree;
+import org.matsim.core.router.speedy.SpeedyGraph;
+import org.matsim.core.router.util.TravelTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link AltRouter} vs. {@link LeastCostPathTree} stopped at the destination (bounded Dijkstra) for long-distance
+ * pairs (i.e. beyond the sparse matrix neighbourhood). Each invocation runs {@link #PAIR_COUNT} queries. Setup checks
+ * that both return the same free-speed travel times. For the Berlin network, use {@code -p networkFile=<path>}.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+@State(Scope.Benchmark)
+public class AltRouterBenchmark {
+	static final int PAIR_COUNT = 256;
+
+	@Param({ "scenarios/mielec_2014_02/network.xml" })
+	public String networkFile;
+
+	@Param({ "1000" })
+	public double minBeelineDistance;
+
+	@Param({ "8", "16" })
+	public int landmarkCount;
+
+	@Param({ "12" })
+	public int numberOfThreads;
+
+	private LeastCostPathTree tree;
+	private AltRouter altRouter;
+	private int[] fromNodes;
+	private int[] toNodes;
+
+	@Setup
+	public void setup() {
+		Network network = NetworkUtils.readNetwork(networkFile);
+		TravelTime travelTime = new QSimFreeSpeedTravelTime(1);
+		var graph = new SpeedyGraph(network);
+		tree = new LeastCostPathTree(graph, travelTime, new TimeAsTravelDisutility(travelTime));
+		altRouter = new AltRouter(graph, Landmarks.create(network, graph, travelTime, landmarkCount, numberOfThreads));
+
+		Node[] nodes = network.getNodes().values().toArray(Node[]::new);
+		var random = new Random(1234);
+		fromNodes = new int[PAIR_COUNT];
+		toNodes = new int[PAIR_COUNT];
+		for (int i = 0; i < PAIR_COUNT; ) {
+			Node from = nodes[random.nextInt(nodes.length)];
+			Node to = nodes[random.nextInt(nodes.length)];
+			if (DistanceUtils.calculateDistance(from, to) > minBeelineDistance) {
+				fromNodes[i] = from.getId().index();
+				toNodes[i] = to.getId().index();
+				i++;
+			}
+		}
+
+		long altSettledNodes = 0;
+		for (int i = 0; i < PAIR_COUNT; i++) {
+			double expected = calcBoundedTreeTime(fromNodes[i], toNodes[i]);
+			double actual = altRouter.calcTravelTime(fromNodes[i], toNodes[i]);
+			if (Math.abs(expected - actual) > 1e-6 && !(Double.isInfinite(expected) && Double.isInfinite(actual))) {
+				throw new IllegalStateException("Different travel times: " + expected + " vs. " + actual);
+			}
+			altSettledNodes += altRouter.getSettledNodeCount();
+		}
+		System.out.println("Mean ALT search space: " + altSettledNodes / PAIR_COUNT + " nodes");
+	}
+
+	private double calcBoundedTreeTime(int fromNode, int toNode) {
+		tree.calculate(fromNode, 0, null, null,
+				(nodeIndex, arrivalTime, travelCost, distance, departureTime) -> nodeIndex == toNode);
+		return tree.getCost(toNode);
+	}
+
+	@Benchmark
+	public double boundedLeastCostPathTree() {
+		double sum = 0;
+		for (int i = 0; i < PAIR_COUNT; i++) {
+			sum += calcBoundedTreeTime(fromNodes[i], toNodes[i]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double altRouter() {
+		double sum = 0;
+		for (int i = 0; i < PAIR_COUNT; i++) {
+			sum += altRouter.calcTravelTime(fromNodes[i], toNodes[i]);
+		}
+		return sum;
+	}
+}
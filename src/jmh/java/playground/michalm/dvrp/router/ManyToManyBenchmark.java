@@ -0,0 +1,132 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.TravelTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Vehicle-request travel time matrices ({@code originCount x destinationCount}): {@link ManyToManyQuery} vs. one
+ * {@link DialLeastCostPathTree} per origin, stopped once all destinations are settled. Setup reports the
+ * preprocessing time and checks that both give the same travel times. For the Berlin network, use
+ * {@code -p networkFile=<path>}.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+@State(Scope.Benchmark)
+public class ManyToManyBenchmark {
+	@Param({ "scenarios/mielec_2014_02/network.xml" })
+	public String networkFile;
+
+	@Param({ "1000" })
+	public int originCount;
+
+	@Param({ "100" })
+	public int destinationCount;
+
+	private ManyToManyQuery query;
+	private DialLeastCostPathTree tree;
+	private int[] origins;
+	private int[] destinations;
+	private boolean[] isDestination;// by node index
+	private int uniqueDestinationCount;
+
+	@Setup
+	public void setup() {
+		Network network = NetworkUtils.readNetwork(networkFile);
+		TravelTime travelTime = new QSimFreeSpeedTravelTime(1);
+
+		long t0 = System.nanoTime();
+		var hierarchy = ContractionHierarchy.build(network, travelTime);
+		System.out.printf("Contraction: %.1f s, %d edges (%d links)%n", (System.nanoTime() - t0) / 1e9,
+				hierarchy.getEdgeCount(), network.getLinks().size());
+		query = new ManyToManyQuery(hierarchy);
+		tree = new DialLeastCostPathTree(new CompactGraph(network, NodeOrdering.hilbert(network)), travelTime,
+				new TimeAsTravelDisutility(travelTime));
+
+		Node[] nodes = network.getNodes().values().toArray(Node[]::new);
+		var random = new Random(1234);
+		origins = random.ints(originCount, 0, nodes.length).map(i -> nodes[i].getId().index()).toArray();
+		destinations = random.ints(destinationCount, 0, nodes.length).map(i -> nodes[i].getId().index()).toArray();
+		isDestination = new boolean[Id.getNumberOfIds(Node.class)];
+		for (int destination : destinations) {
+			if (!isDestination[destination]) {
+				isDestination[destination] = true;
+				uniqueDestinationCount++;
+			}
+		}
+
+		double[][] expected = oneToManyTrees();
+		double[][] actual = manyToManyQuery();
+		for (int i = 0; i < originCount; i++) {
+			for (int j = 0; j < destinationCount; j++) {
+				if (Math.abs(expected[i][j] - actual[i][j]) > 1e-6 && expected[i][j] != actual[i][j]) {
+					throw new IllegalStateException("Different travel times: " + expected[i][j] + " vs. "
+							+ actual[i][j]);
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public double[][] manyToManyQuery() {
+		return query.calcTravelTimes(origins, destinations);
+	}
+
+	@Benchmark
+	public double[][] oneToManyTrees() {
+		double[][] travelTimes = new double[originCount][destinationCount];
+		for (int i = 0; i < originCount; i++) {
+			int[] settledDestinationCount = { 0 };
+			tree.calculate(origins[i], 0,
+					(nodeIndex, arrivalTime, travelCost, distance, departureTime) -> isDestination[nodeIndex]
+							&& ++settledDestinationCount[0] == uniqueDestinationCount);
+			for (int j = 0; j < destinationCount; j++) {
+				travelTimes[i][j] = tree.getCost(destinations[j]);
+			}
+		}
+		return travelTimes;
+	}
+}
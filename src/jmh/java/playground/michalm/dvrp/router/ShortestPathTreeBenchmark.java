@@ -0,0 +1,129 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.speedy.LeastCostPathTree;
+import org.matsim.core.router.speedy.LeastCostPathTree.StopCriterion;
+import org.matsim.core.router.speedy.SpeedyGraph;
+import org.matsim.core.router.util.TravelTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of one-to-all free-speed trees (trees per second): {@link LeastCostPathTree} on {@link SpeedyGraph},
+ * {@link CompactLeastCostPathTree} (binary heap) and {@link DialLeastCostPathTree} (bucket queue), both on a
+ * {@link CompactGraph} with nodes in Id.index() or Hilbert-curve order ({@code nodeOrdering} is ignored by
+ * SpeedyGraph). Setup checks that all trees return the same costs. For the Mielec and Berlin networks, use
+ * {@code -p networkFile=<mielec>,<berlin>}.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+@State(Scope.Benchmark)
+public class ShortestPathTreeBenchmark {
+	static final int ORIGIN_COUNT = 16;
+
+	private static final StopCriterion NO_STOP = (nodeIndex, arrivalTime, travelCost, distance, departureTime) -> false;
+
+	@Param({ "scenarios/mielec_2014_02/network.xml" })
+	public String networkFile;
+
+	@Param({ "SpeedyGraph", "CompactGraph", "Dial" })
+	public String treeType;
+
+	@Param({ "Hilbert", "IdIndex" })
+	public String nodeOrdering;
+
+	private ShortestPathTree tree;
+	private int[] origins;
+
+	@Setup
+	public void setup() {
+		Network network = NetworkUtils.readNetwork(networkFile);
+		TravelTime travelTime = new QSimFreeSpeedTravelTime(1);
+		var travelDisutility = new TimeAsTravelDisutility(travelTime);
+		var reference = ShortestPathTree.of(
+				new LeastCostPathTree(new SpeedyGraph(network), travelTime, travelDisutility));
+		var graph = new CompactGraph(network, switch (nodeOrdering) {
+			case "Hilbert" -> NodeOrdering.hilbert(network);
+			case "IdIndex" -> NodeOrdering.byIdIndex(network);
+			default -> throw new IllegalArgumentException("Unknown node ordering: " + nodeOrdering);
+		});
+		tree = switch (treeType) {
+			case "SpeedyGraph" -> reference;
+			case "CompactGraph" -> new CompactLeastCostPathTree(graph, travelTime, travelDisutility);
+			case "Dial" -> new DialLeastCostPathTree(graph, travelTime, travelDisutility);
+			default -> throw new IllegalArgumentException("Unknown tree type: " + treeType);
+		};
+
+		Node[] nodes = network.getNodes().values().toArray(Node[]::new);
+		var random = new Random(1234);
+		origins = random.ints(ORIGIN_COUNT, 0, nodes.length).map(i -> nodes[i].getId().index()).toArray();
+
+		var referenceCosts = new double[nodes.length];
+		for (int origin : origins) {
+			reference.calculate(origin, 0, NO_STOP);
+			for (int i = 0; i < nodes.length; i++) {
+				referenceCosts[i] = reference.getCost(nodes[i].getId().index());
+			}
+			tree.calculate(origin, 0, NO_STOP);
+			for (int i = 0; i < nodes.length; i++) {
+				double cost = tree.getCost(nodes[i].getId().index());
+				if (cost != referenceCosts[i]) {
+					throw new IllegalStateException("Different costs: " + referenceCosts[i] + " vs. " + cost);
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ORIGIN_COUNT)
+	public double oneToAllTrees() {
+		double sum = 0;
+		for (int origin : origins) {
+			tree.calculate(origin, 0, NO_STOP);
+			sum += tree.getCost(origin);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.TravelTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import playground.michalm.dvrp.router.SpeculativePathService.ExecutorMode;
+import playground.michalm.dvrp.router.SpeculativePathService.PathFuture;
+
+/**
+ * {@link SpeculativePathService} with a platform thread pool vs. virtual threads (requires running the benchmark on
+ * Java 21+) for a given number of in-flight requests (departure times spread over one hour). Each shot:
+ * <ul>
+ * <li>{@code submit}: submission of all requests (submission latency),</li>
+ * <li>{@code cancel}: cancellation of all requests submitted in setup, until the workers are idle again (a request
+ * submitted after the cancellations is completed),</li>
+ * <li>{@code submitCancelHalfAndGet}: submission, cancellation of every other request and waiting for the remaining
+ * paths (throughput).</li>
+ * </ul>
+ * Divide the times by {@code inFlightRequests} to get per-request latencies. For the Berlin network, use
+ * {@code -p networkFile=<path>}.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+@State(Scope.Benchmark)
+public class SpeculativePathServiceBenchmark {
+	@Param({ "scenarios/mielec_2014_02/network.xml" })
+	public String networkFile;
+
+	@Param({ "PLATFORM_THREAD_POOL", "VIRTUAL_THREADS" })
+	public ExecutorMode executorMode;
+
+	@Param({ "1000", "10000", "100000" })
+	public int inFlightRequests;
+
+	@Param({ "12" })
+	public int numberOfThreads;
+
+	private CompactGraph graph;
+	private TravelTime travelTime;
+	private Link[] fromLinks;
+	private Link[] toLinks;
+	private double[] departureTimes;
+
+	private SpeculativePathService service;
+	private List<PathFuture> pathFutures;
+
+	@Setup
+	public void setup() {
+		Network network = NetworkUtils.readNetwork(networkFile);
+		graph = new CompactGraph(network, NodeOrdering.hilbert(network));
+		travelTime = new QSimFreeSpeedTravelTime(1);
+
+		Link[] links = network.getLinks().values().toArray(Link[]::new);
+		var random = new Random(1234);
+		fromLinks = new Link[inFlightRequests];
+		toLinks = new Link[inFlightRequests];
+		departureTimes = new double[inFlightRequests];
+		for (int i = 0; i < inFlightRequests; i++) {
+			fromLinks[i] = links[random.nextInt(links.length)];
+			toLinks[i] = links[random.nextInt(links.length)];
+			departureTimes[i] = random.nextInt(3600);
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void setupIteration() {
+		service = new SpeculativePathService(graph, travelTime, new TimeAsTravelDisutility(travelTime),
+				numberOfThreads, executorMode);
+		pathFutures = new ArrayList<>(inFlightRequests);
+	}
+
+	@State(Scope.Benchmark)
+	public static class SubmittedRequests {
+		@Setup(Level.Iteration)
+		public void setup(SpeculativePathServiceBenchmark benchmark) {
+			benchmark.submitAll();
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDownIteration() {
+		pathFutures.forEach(pathFuture -> pathFuture.cancel(true));
+		awaitIdleWorkers();
+		service.shutdown();
+	}
+
+	private void submitAll() {
+		for (int i = 0; i < inFlightRequests; i++) {
+			pathFutures.add(service.submit(fromLinks[i], toLinks[i], departureTimes[i]));
+		}
+	}
+
+	private void awaitIdleWorkers() {
+		if (executorMode == ExecutorMode.VIRTUAL_THREADS) {
+			// one thread per request: the last request may complete before the threads of the earlier ones finish
+			long submitted = service.getSubmittedRequestCount();
+			while (service.getFinishedRequestThreadCount() < submitted) {
+				Thread.onSpinWait();
+			}
+		} else {
+			// the pool processes the queue in order, so this request completes after all previously submitted
+			// requests have been processed or skipped by the workers
+			getTravelTime(service.submit(fromLinks[0], toLinks[0], Double.MAX_VALUE));
+		}
+	}
+
+	// Future.get(): the path is not computed by the benchmark thread
+	private double getTravelTime(PathFuture pathFuture) {
+		try {
+			return pathFuture.get().travelTime;
+		} catch (ExecutionException e) {
+			return 0;// no path
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Benchmark
+	public List<PathFuture> submit() {
+		submitAll();
+		return pathFutures;
+	}
+
+	@Benchmark
+	public List<PathFuture> cancel(SubmittedRequests submittedRequests) {
+		pathFutures.forEach(pathFuture -> pathFuture.cancel(true));
+		awaitIdleWorkers();
+		return pathFutures;
+	}
+
+	@Benchmark
+	public double submitCancelHalfAndGet() {
+		submitAll();
+		double sum = 0;
+		for (int i = 0; i < inFlightRequests; i++) {
+			if (i % 2 == 0) {
+				pathFutures.get(i).cancel(true);
+			}
+		}
+		for (int i = 1; i < inFlightRequests; i += 2) {
+			sum += getTravelTime(pathFutures.get(i));
+		}
+		return sum;
+	}
+}
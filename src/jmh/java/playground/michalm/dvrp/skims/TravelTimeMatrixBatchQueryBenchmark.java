@@ -0,0 +1,144 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.core.network.NetworkUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Batched one-to-many/many-to-one lookups in {@link HybridTravelTimeMatrix} vs. the pairwise loop. Each invocation
+ * runs {@link #BATCH_COUNT} batches of {@code batchSize} queries. For the Berlin network, use
+ * {@code -p networkFile=<path>}.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+@State(Scope.Benchmark)
+public class TravelTimeMatrixBatchQueryBenchmark {
+	static final int BATCH_COUNT = 64;
+
+	@Param({ "scenarios/mielec_2014_02/network.xml" })
+	public String networkFile;
+
+	@Param({ "200" })
+	public double cellSize;
+
+	@Param({ "1000" })
+	public double maxNeighborDistance;
+
+	@Param({ "16", "128", "1024" })
+	public int batchSize;
+
+	@Param({ "12" })
+	public int numberOfThreads;
+
+	private HybridTravelTimeMatrix matrix;
+	private int[] sources;// one per batch
+	private int[][] batches;// nodes queried from/to each source
+	private double[] out;
+
+	@Setup
+	public void setup() {
+		Network network = NetworkUtils.readNetwork(networkFile);
+		matrix = TravelTimeMatrixBuilder.buildHybridMatrix(network, cellSize, maxNeighborDistance,
+				new QSimFreeSpeedTravelTime(1), 0, numberOfThreads);
+
+		Node[] nodes = network.getNodes().values().toArray(Node[]::new);
+		var random = new Random(1234);
+		sources = new int[BATCH_COUNT];
+		batches = new int[BATCH_COUNT][batchSize];
+		for (int b = 0; b < BATCH_COUNT; b++) {
+			sources[b] = nodes[random.nextInt(nodes.length)].getId().index();
+			for (int i = 0; i < batchSize; i++) {
+				batches[b][i] = nodes[random.nextInt(nodes.length)].getId().index();
+			}
+		}
+		out = new double[batchSize];
+	}
+
+	@Benchmark
+	public double pairwiseOneToMany() {
+		double sum = 0;
+		for (int b = 0; b < BATCH_COUNT; b++) {
+			int from = sources[b];
+			int[] batch = batches[b];
+			for (int i = 0; i < batchSize; i++) {
+				out[i] = matrix.getTravelTime(from, batch[i]);
+			}
+			sum += out[batchSize - 1];
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double batchOneToMany() {
+		double sum = 0;
+		for (int b = 0; b < BATCH_COUNT; b++) {
+			matrix.getTravelTimes(sources[b], batches[b], out);
+			sum += out[batchSize - 1];
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double pairwiseManyToOne() {
+		double sum = 0;
+		for (int b = 0; b < BATCH_COUNT; b++) {
+			int to = sources[b];
+			int[] batch = batches[b];
+			for (int i = 0; i < batchSize; i++) {
+				out[i] = matrix.getTravelTime(batch[i], to);
+			}
+			sum += out[batchSize - 1];
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double batchManyToOne() {
+		double sum = 0;
+		for (int b = 0; b < BATCH_COUNT; b++) {
+			matrix.getTravelTimes(batches[b], sources[b], out);
+			sum += out[batchSize - 1];
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.contrib.zone.skims.DvrpTravelTimeMatrixParams;
+import org.matsim.contrib.zone.skims.FreeSpeedTravelTimeMatrix;
+import org.matsim.core.network.NetworkUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction time of {@link FreeSpeedTravelTimeMatrix} and of the playground {@link HybridTravelTimeMatrix}. The
+ * thread counts can be overridden with e.g. {@code -p numberOfThreads=1,2,3,4,6,8,12,16}.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+@State(Scope.Benchmark)
+public class TravelTimeMatrixConstructionBenchmark {
+	@Param({ "scenarios/mielec_2014_02/network.xml" })
+	public String networkFile;
+
+	@Param({ "200" })
+	public double cellSize;
+
+	@Param({ "1000" })
+	public double maxNeighborDistance;
+
+	@Param({ "1", "2", "4", "8" })
+	public int numberOfThreads;
+
+	private Network network;
+	private DvrpTravelTimeMatrixParams params;
+
+	@Setup
+	public void setup() {
+		network = NetworkUtils.readNetwork(networkFile);
+		params = new DvrpTravelTimeMatrixParams();
+		params.setCellSize(cellSize);
+		params.setMaxNeighborDistance(maxNeighborDistance);
+	}
+
+	@Benchmark
+	public FreeSpeedTravelTimeMatrix matsimFreeSpeedMatrix() {
+		return FreeSpeedTravelTimeMatrix.createFreeSpeedMatrix(network, params, numberOfThreads, 1);
+	}
+
+	@Benchmark
+	public HybridTravelTimeMatrix hybridMatrix() {
+		return TravelTimeMatrixBuilder.buildHybridMatrix(network, cellSize, maxNeighborDistance,
+				new QSimFreeSpeedTravelTime(1), 0, numberOfThreads);
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.contrib.zone.skims.DvrpTravelTimeMatrixParams;
+import org.matsim.contrib.zone.skims.FreeSpeedTravelTimeMatrix;
+import org.matsim.contrib.zone.skims.SparseMatrix;
+import org.matsim.contrib.zone.skims.TravelTimeMatrices;
+import org.matsim.core.network.NetworkUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Query latency of the MATSim matrices ({@link SparseMatrix}, {@link FreeSpeedTravelTimeMatrix}) and of the
+ * playground ones ({@link SparseTravelTimeMatrix}, {@link ZonalTravelTimeMatrix}, {@link HybridTravelTimeMatrix}).
+ * Each invocation runs {@link #QUERY_COUNT} queries over precomputed (from, to) pairs; the results are summed up and
+ * returned, so that the lookups cannot be eliminated.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+@State(Scope.Benchmark)
+public class TravelTimeMatrixQueryBenchmark {
+	static final int QUERY_COUNT = 1 << 16;
+	private static final int MAX_HOPS = 3;
+
+	@Param({ "scenarios/mielec_2014_02/network.xml" })
+	public String networkFile;
+
+	@Param({ "200" })
+	public double cellSize;
+
+	@Param({ "1000" })
+	public double maxNeighborDistance;
+
+	@Param({ "12" })
+	public int numberOfThreads;
+
+	// 0: times stored as ints; otherwise: quantized with the given resolution [s]
+	@Param({ "0", "1" })
+	public int quantizationResolution;
+
+	private SparseMatrix matsimSparseMatrix;
+	private FreeSpeedTravelTimeMatrix matsimMatrix;
+	private HybridTravelTimeMatrix matrix;
+
+	// queries: node indices (or nodes) of random pairs
+	private int[] hitFrom;
+	private int[] hitTo;
+	private int[] missFrom;
+	private int[] missTo;
+	private int[] randomFrom;
+	private int[] randomTo;
+	private Node[] randomFromNodes;
+	private Node[] randomToNodes;
+
+	@Setup
+	public void setup() {
+		Network network = NetworkUtils.readNetwork(networkFile);
+		var travelTime = new QSimFreeSpeedTravelTime(1);
+
+		var params = new DvrpTravelTimeMatrixParams();
+		params.setCellSize(cellSize);
+		params.setMaxNeighborDistance(maxNeighborDistance);
+		matsimSparseMatrix = TravelTimeMatrices.calculateTravelTimeSparseMatrix(network, maxNeighborDistance, 0,
+				travelTime, new TimeAsTravelDisutility(travelTime), numberOfThreads);
+		matsimMatrix = FreeSpeedTravelTimeMatrix.createFreeSpeedMatrix(network, params, numberOfThreads, 1);
+		matrix = TravelTimeMatrixBuilder.buildHybridMatrix(network, cellSize, maxNeighborDistance, travelTime, 0,
+				numberOfThreads, null,
+				quantizationResolution == 0 ? null : new TravelTimeQuantization(quantizationResolution));
+		System.out.println("Playground matrix memory [MB]: " + matrix.getMemoryBytes() / (1024. * 1024.));
+
+		Node[] nodes = network.getNodes().values().toArray(Node[]::new);
+		var random = new Random(1234);
+
+		randomFromNodes = new Node[QUERY_COUNT];
+		randomToNodes = new Node[QUERY_COUNT];
+		randomFrom = new int[QUERY_COUNT];
+		randomTo = new int[QUERY_COUNT];
+		for (int i = 0; i < QUERY_COUNT; i++) {
+			randomFromNodes[i] = nodes[random.nextInt(nodes.length)];
+			randomToNodes[i] = nodes[random.nextInt(nodes.length)];
+			randomFrom[i] = randomFromNodes[i].getId().index();
+			randomTo[i] = randomToNodes[i].getId().index();
+		}
+
+		// hits: nodes a few hops away are (almost always) within maxNeighborDistance
+		hitFrom = new int[QUERY_COUNT];
+		hitTo = new int[QUERY_COUNT];
+		for (int i = 0, attempts = 0; i < QUERY_COUNT; attempts++) {
+			checkAttempts(attempts, "hits");
+			Node from = nodes[random.nextInt(nodes.length)];
+			Node to = randomWalk(from, 1 + random.nextInt(MAX_HOPS), random);
+			if (from != to && isSparseHit(from.getId().index(), to.getId().index())) {
+				hitFrom[i] = from.getId().index();
+				hitTo[i] = to.getId().index();
+				i++;
+			}
+		}
+
+		missFrom = new int[QUERY_COUNT];
+		missTo = new int[QUERY_COUNT];
+		for (int i = 0, attempts = 0; i < QUERY_COUNT; attempts++) {
+			checkAttempts(attempts, "misses");
+			int from = nodes[random.nextInt(nodes.length)].getId().index();
+			int to = nodes[random.nextInt(nodes.length)].getId().index();
+			if (from != to && !isSparseHit(from, to)) {
+				missFrom[i] = from;
+				missTo[i] = to;
+				i++;
+			}
+		}
+	}
+
+	private boolean isSparseHit(int from, int to) {
+		return matsimSparseMatrix.get(from, to) >= 0 && matrix.getSparseMatrix().get(from, to) >= 0;
+	}
+
+	private static void checkAttempts(int attempts, String what) {
+		if (attempts > 1000 * QUERY_COUNT) {
+			throw new IllegalStateException("Cannot sample sparse matrix " + what + ". Check maxNeighborDistance");
+		}
+	}
+
+	private static Node randomWalk(Node node, int hops, Random random) {
+		for (int h = 0; h < hops; h++) {
+			List<Link> outLinks = new ArrayList<>(node.getOutLinks().values());
+			if (outLinks.isEmpty()) {
+				return node;
+			}
+			node = outLinks.get(random.nextInt(outLinks.size())).getToNode();
+		}
+		return node;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERY_COUNT)
+	public long matsimSparseHits() {
+		return sumMatsimSparse(hitFrom, hitTo);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERY_COUNT)
+	public long matsimSparseMisses() {
+		return sumMatsimSparse(missFrom, missTo);
+	}
+
+	private long sumMatsimSparse(int[] from, int[] to) {
+		long sum = 0;
+		for (int i = 0; i < QUERY_COUNT; i++) {
+			sum += matsimSparseMatrix.get(from[i], to[i]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERY_COUNT)
+	public long sparseHits() {
+		return sumSparse(hitFrom, hitTo);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERY_COUNT)
+	public long sparseMisses() {
+		return sumSparse(missFrom, missTo);
+	}
+
+	private long sumSparse(int[] from, int[] to) {
+		var sparseMatrix = matrix.getSparseMatrix();
+		long sum = 0;
+		for (int i = 0; i < QUERY_COUNT; i++) {
+			sum += sparseMatrix.get(from[i], to[i]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERY_COUNT)
+	public long zonal() {
+		var zonalMatrix = matrix.getZonalMatrix();
+		long sum = 0;
+		for (int i = 0; i < QUERY_COUNT; i++) {
+			sum += zonalMatrix.getTravelTime(zonalMatrix.getZone(randomFrom[i]), zonalMatrix.getZone(randomTo[i]));
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERY_COUNT)
+	public long matsimHybrid() {
+		long sum = 0;
+		for (int i = 0; i < QUERY_COUNT; i++) {
+			sum += matsimMatrix.getTravelTime(randomFromNodes[i], randomToNodes[i], 0);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERY_COUNT)
+	public long hybrid() {
+		long sum = 0;
+		for (int i = 0; i < QUERY_COUNT; i++) {
+			sum += matrix.getTravelTime(randomFrom[i], randomTo[i]);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.contrib.util.ExecutorServiceWithResource;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.speedy.LeastCostPathTree.StopCriterion;
+import org.matsim.core.utils.misc.OptionalTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import playground.michalm.dvrp.router.NodeOrdering;
+import playground.michalm.dvrp.skims.TravelTimeMatrixBuilder.Worker;
+import playground.michalm.util.WorkStealingExecutorWithResource;
+
+/**
+ * Scheduling of the per-node trees of the sparse matrix construction: one runnable per node submitted to
+ * {@link ExecutorServiceWithResource} ({@code chunkCellSize=0}, {@code HashMap} order) vs. grid-cell chunks
+ * processed by {@link WorkStealingExecutorWithResource}. For the Berlin network, use {@code -p networkFile=<path>}.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+@State(Scope.Benchmark)
+public class TreeSchedulingBenchmark {
+	@Param({ "scenarios/mielec_2014_02/network.xml" })
+	public String networkFile;
+
+	@Param({ "1000" })
+	public double maxNeighborDistance;
+
+	@Param({ "12" })
+	public int numberOfThreads;
+
+	@Param({ "false", "true" })
+	public boolean hilbertOrdering;
+
+	@Param({ "0", "500", "1000", "2000" })
+	public double chunkCellSize;
+
+	private Network network;
+	private NodeOrdering nodeOrdering;
+	private StopCriterion stopCriterion;
+	private List<Worker> workers;
+	private List<List<Node>> chunks;
+	private WorkStealingExecutorWithResource<Worker> workStealingExecutor;
+	private ExecutorServiceWithResource<Worker> executorService;
+
+	@Setup
+	public void setup() {
+		network = NetworkUtils.readNetwork(networkFile);
+		nodeOrdering = hilbertOrdering ? NodeOrdering.hilbert(network) : null;
+		stopCriterion = (nodeIndex, arrivalTime, travelCost, distance,
+				departureTime) -> distance >= maxNeighborDistance;
+		workers = TravelTimeMatrixBuilder.createWorkers(network, new QSimFreeSpeedTravelTime(1),
+				OptionalTime.defined(0), numberOfThreads, nodeOrdering);
+		if (chunkCellSize > 0) {
+			chunks = new SquareGrid(network.getNodes().values(), chunkCellSize).groupByCell(
+					List.copyOf(network.getNodes().values()));
+			workStealingExecutor = new WorkStealingExecutorWithResource<>(workers);
+		} else {
+			executorService = new ExecutorServiceWithResource<>(workers);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (workStealingExecutor != null) {
+			System.out.printf("%d chunks, %d stolen%n", chunks.size(), workStealingExecutor.getStolenChunkCount());
+			workStealingExecutor.shutdown();
+		} else {
+			executorService.shutdown();
+		}
+	}
+
+	@Benchmark
+	public int[][] sparseRows() {
+		int rowCount = nodeOrdering == null ? Id.getNumberOfIds(Node.class) : nodeOrdering.getNodeCount();
+		int[][] rows = new int[rowCount][];
+		if (chunkCellSize > 0) {
+			workStealingExecutor.processChunksAndWait(chunks,
+					(Worker worker, Node node) -> computeRow(worker, node, rows));
+		} else {
+			executorService.submitRunnablesAndWait(
+					network.getNodes().values().stream().map(node -> worker -> computeRow(worker, node, rows)));
+		}
+		return rows;
+	}
+
+	private void computeRow(Worker worker, Node node, int[][] rows) {
+		int fromIndex = node.getId().index();
+		int row = nodeOrdering == null ? fromIndex : nodeOrdering.getPosition(fromIndex);
+		rows[row] = TravelTimeMatrixBuilder.computeSparseRow(fromIndex, 0, maxNeighborDistance, stopCriterion, worker,
+				nodeOrdering);
+	}
+}
@@ -33,6 +33,8 @@ import org.matsim.core.router.util.TravelTime;
 
 import com.google.inject.name.Names;
 
+import playground.michalm.dvrp.skims.TimeSlicedTravelTimeMatrixModule;
+
 public class RunAudiAVFlowPaper {
 	public static void run(String configFile, double flowEfficiencyFactor, String inputEvents) {
 		Config config = ConfigUtils.loadConfig(configFile, new MultiModeTaxiConfigGroup(), new DvrpConfigGroup());
@@ -52,6 +54,9 @@ public class RunAudiAVFlowPaper {
 			}
 		});
 
+		// congested (hourly) travel time matrix instead of the free-speed one, refreshed after each iteration
+		controler.addOverridingModule(new TimeSlicedTravelTimeMatrixModule(initialTT, 3600, 30, 0.05));
+
 		controler.run();
 	}
 
@@ -31,7 +31,6 @@ import org.matsim.contrib.util.random.RandomUtils;
 import org.matsim.contrib.util.random.UniformRandom;
 import org.matsim.contrib.zone.Zone;
 import org.matsim.contrib.zone.util.RandomPointUtils;
-import org.matsim.core.network.NetworkUtils;
 
 public class DefaultActivityCreator implements ODDemandGenerator.ActivityCreator<Zone> {
 	protected final UniformRandom uniform = RandomUtils.getGlobalUniform();
@@ -40,28 +39,42 @@ public class DefaultActivityCreator implements ODDemandGenerator.ActivityCreator
 
 	protected final GeometryProvider geometryProvider;
 	protected final PointAcceptor pointAcceptor;
+	protected final LinkSnappingIndex linkSnappingIndex;
 
 	public DefaultActivityCreator(Scenario scenario) {
 		this(scenario, DEFAULT_GEOMETRY_PROVIDER, DEFAULT_POINT_ACCEPTOR);
 	}
 
 	public DefaultActivityCreator(Scenario scenario, GeometryProvider geometryProvider, PointAcceptor pointAcceptor) {
+		this(scenario, geometryProvider, pointAcceptor, new LinkSnappingIndex(scenario.getNetwork()));
+	}
+
+	// the index can be shared by several creators (and restricted to a mode-filtered subnetwork)
+	public DefaultActivityCreator(Scenario scenario, GeometryProvider geometryProvider, PointAcceptor pointAcceptor,
+			LinkSnappingIndex linkSnappingIndex) {
 		this.network = scenario.getNetwork();
 		this.pf = scenario.getPopulation().getFactory();
 		this.geometryProvider = geometryProvider;
 		this.pointAcceptor = pointAcceptor;
+		this.linkSnappingIndex = linkSnappingIndex;
 	}
 
 	@Override
 	public Activity createActivity(Zone zone, String actType) {
+		return createActivity(zone, actType, uniform);
+	}
+
+	// thread-safe if the geometry provider and point acceptor are (link snapping is)
+	@Override
+	public Activity createActivity(Zone zone, String actType, UniformRandom uniform) {
 		Geometry geometry = geometryProvider.getGeometry(zone, actType);
 		Point p;
 		do {
-			p = RandomPointUtils.getRandomPointInGeometry(geometry);
+			p = RandomPointUtils.getRandomPointInGeometry(uniform, geometry);
 		} while (!pointAcceptor.acceptPoint(zone, actType, p));
 
 		Coord coord = new Coord(p.getX(), p.getY());
-		Link link = NetworkUtils.getNearestLink(network, coord);
+		Link link = linkSnappingIndex.getNearestLink(coord);
 
 		Activity activity = pf.createActivityFromCoord(actType, coord);
 		activity.setLinkId(link.getId());
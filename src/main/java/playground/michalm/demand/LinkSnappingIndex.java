@@ -0,0 +1,236 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.demand;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Prebuilt replacement for {@link NetworkUtils#getNearestLink(Network, Coord)} for snapping many coordinates (e.g.
+ * generated activities): the nearest node is found in a uniform grid (instead of the network's quad tree) and then
+ * the nearest of its incident links is chosen in the same way as in {@code NetworkUtils.getNearestLink()} (same link
+ * order, same distance function), but without building a map of incident links for each query. Apart from the
+ * (measure zero) case of several nearest nodes at exactly the same distance, the result is the same.
+ * <p>
+ * If {@code modes} are given, only links allowing at least one of them (and their nodes) are considered, as in a
+ * network filtered with {@code TransportModeNetworkFilter}.
+ * <p>
+ * Immutable, so thread-safe.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class LinkSnappingIndex {
+	private static final int NODES_PER_CELL = 2;// on average
+
+	private final Node[] nodes;// sorted by cell
+	private final double[] nodeXs;
+	private final double[] nodeYs;
+	private final int[] cellStarts;// nodes of cell c: [cellStarts[c], cellStarts[c + 1])
+
+	private final int[] incidentLinkStarts;// incident links of nodes[n]: [incidentLinkStarts[n], ...[n + 1])
+	private final Link[] incidentLinks;
+	private final Coord[] incidentLinkFromCoords;
+	private final Coord[] incidentLinkToCoords;
+
+	private final double cellSize;
+	private final double minX;
+	private final double minY;
+	private final int cols;
+	private final int rows;
+
+	public LinkSnappingIndex(Network network) {
+		this(network, null);
+	}
+
+	public LinkSnappingIndex(Network network, @Nullable Set<String> modes) {
+		List<Node> nodeList = new ArrayList<>();
+		List<List<Link>> linksByNode = new ArrayList<>();
+		for (Node node : network.getNodes().values()) {
+			List<Link> links = new ArrayList<>();
+			for (Link link : NetworkUtils.getIncidentLinks(node).values()) {
+				if (modes == null || !Collections.disjoint(link.getAllowedModes(), modes)) {
+					links.add(link);
+				}
+			}
+			if (modes == null || !links.isEmpty()) {// a filtered network contains only nodes of the allowed links
+				nodeList.add(node);
+				linksByNode.add(links);
+			}
+		}
+		Preconditions.checkArgument(!nodeList.isEmpty(), "No nodes to snap to");
+
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (Node node : nodeList) {
+			Coord coord = node.getCoord();
+			minX = Math.min(minX, coord.getX());
+			minY = Math.min(minY, coord.getY());
+			maxX = Math.max(maxX, coord.getX());
+			maxY = Math.max(maxY, coord.getY());
+		}
+		double width = maxX - minX;
+		double height = maxY - minY;
+		// the second term bounds the number of cells for (nearly) collinear nodes
+		this.cellSize = Math.max(1, Math.max(Math.sqrt(width * height * NODES_PER_CELL / nodeList.size()),
+				Math.max(width, height) * NODES_PER_CELL / nodeList.size()));
+		this.minX = minX;
+		this.minY = minY;
+		cols = Math.max(1, (int)Math.ceil(width / cellSize));
+		rows = Math.max(1, (int)Math.ceil(height / cellSize));
+
+		// counting sort of nodes by cell (stable, so nodes within a cell keep the network order)
+		int nodeCount = nodeList.size();
+		int[] nodeCells = new int[nodeCount];
+		cellStarts = new int[rows * cols + 1];
+		for (int i = 0; i < nodeCount; i++) {
+			Coord coord = nodeList.get(i).getCoord();
+			nodeCells[i] = getRow(coord.getY()) * cols + getCol(coord.getX());
+			cellStarts[nodeCells[i] + 1]++;
+		}
+		for (int c = 0; c < rows * cols; c++) {
+			cellStarts[c + 1] += cellStarts[c];
+		}
+		int[] cellPositions = Arrays.copyOf(cellStarts, rows * cols);
+
+		nodes = new Node[nodeCount];
+		nodeXs = new double[nodeCount];
+		nodeYs = new double[nodeCount];
+		List<List<Link>> sortedLinksByNode = new ArrayList<>(Collections.nCopies(nodeCount, null));
+		for (int i = 0; i < nodeCount; i++) {
+			int n = cellPositions[nodeCells[i]]++;
+			Node node = nodeList.get(i);
+			nodes[n] = node;
+			nodeXs[n] = node.getCoord().getX();
+			nodeYs[n] = node.getCoord().getY();
+			sortedLinksByNode.set(n, linksByNode.get(i));
+		}
+
+		incidentLinkStarts = new int[nodeCount + 1];
+		List<Link> allIncidentLinks = new ArrayList<>();
+		for (int n = 0; n < nodeCount; n++) {
+			allIncidentLinks.addAll(sortedLinksByNode.get(n));
+			incidentLinkStarts[n + 1] = allIncidentLinks.size();
+		}
+		incidentLinks = allIncidentLinks.toArray(Link[]::new);
+		incidentLinkFromCoords = new Coord[incidentLinks.length];
+		incidentLinkToCoords = new Coord[incidentLinks.length];
+		for (int i = 0; i < incidentLinks.length; i++) {
+			incidentLinkFromCoords[i] = incidentLinks[i].getFromNode().getCoord();
+			incidentLinkToCoords[i] = incidentLinks[i].getToNode().getCoord();
+		}
+	}
+
+	private int getCol(double x) {
+		return Math.max(0, Math.min((int)((x - minX) / cellSize), cols - 1));
+	}
+
+	private int getRow(double y) {
+		return Math.max(0, Math.min((int)((y - minY) / cellSize), rows - 1));
+	}
+
+	/**
+	 * @return nearest link, or null if the nearest node has no (allowed) incident links
+	 */
+	public @Nullable Link getNearestLink(Coord coord) {
+		int node = findNearestNode(coord.getX(), coord.getY());
+		Link nearestLink = null;
+		double shortestDistance = Double.MAX_VALUE;
+		for (int i = incidentLinkStarts[node], end = incidentLinkStarts[node + 1]; i < end; i++) {
+			double distance = CoordUtils.distancePointLinesegment(incidentLinkFromCoords[i], incidentLinkToCoords[i],
+					coord);
+			if (distance < shortestDistance) {
+				shortestDistance = distance;
+				nearestLink = incidentLinks[i];
+			}
+		}
+		return nearestLink;
+	}
+
+	public Node getNearestNode(Coord coord) {
+		return nodes[findNearestNode(coord.getX(), coord.getY())];
+	}
+
+	// searches rings of cells around the cell of (x, y) until no unvisited cell can contain a nearer node
+	private int findNearestNode(double x, double y) {
+		int col = getCol(x);
+		int row = getRow(y);
+		int nearestNode = -1;
+		double shortestDistanceSquared = Double.POSITIVE_INFINITY;
+		for (int ring = 0; ; ring++) {
+			int minCol = col - ring;
+			int maxCol = col + ring;
+			int minRow = row - ring;
+			int maxRow = row + ring;
+			for (int r = Math.max(minRow, 0); r <= Math.min(maxRow, rows - 1); r++) {
+				boolean fullRow = r == minRow || r == maxRow;
+				int step = fullRow ? 1 : maxCol - minCol;// inner rows: only the first and the last column
+				for (int c = minCol; c <= maxCol; c += step) {
+					if (c < 0 || c >= cols) {
+						continue;
+					}
+					int cell = r * cols + c;
+					for (int n = cellStarts[cell], end = cellStarts[cell + 1]; n < end; n++) {
+						double dx = nodeXs[n] - x;
+						double dy = nodeYs[n] - y;
+						double distanceSquared = dx * dx + dy * dy;
+						if (distanceSquared < shortestDistanceSquared) {
+							shortestDistanceSquared = distanceSquared;
+							nearestNode = n;
+						}
+					}
+				}
+			}
+
+			// lower bound on the distance from (x, y) to the unvisited cells (only sides not reaching the grid border)
+			double margin = Double.POSITIVE_INFINITY;
+			if (minCol > 0) {
+				margin = Math.min(margin, x - (minX + minCol * cellSize));
+			}
+			if (maxCol < cols - 1) {
+				margin = Math.min(margin, minX + (maxCol + 1) * cellSize - x);
+			}
+			if (minRow > 0) {
+				margin = Math.min(margin, y - (minY + minRow * cellSize));
+			}
+			if (maxRow < rows - 1) {
+				margin = Math.min(margin, minY + (maxRow + 1) * cellSize - y);
+			}
+			if (margin == Double.POSITIVE_INFINITY || shortestDistanceSquared <= margin * margin) {
+				return nearestNode;// all cells visited or none of the unvisited ones can contain a nearer node
+			}
+		}
+	}
+}
@@ -19,6 +19,13 @@
 
 package playground.michalm.demand;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 
 import org.matsim.api.core.v01.Scenario;
@@ -47,10 +54,30 @@ public class ODDemandGenerator<L> {
 
 	public interface PersonCreator<L> {
 		Person createPerson(Plan plan, L fromLocation, L toLocation);
+
+		/**
+		 * Persons are always created sequentially, in the matrix order; random decisions should be drawn from
+		 * {@code uniform} (in the parallel mode, the random stream of the OD cell)
+		 */
+		default Person createPerson(Plan plan, L fromLocation, L toLocation, UniformRandom uniform) {
+			return createPerson(plan, fromLocation, toLocation);
+		}
 	}
 
 	public interface ActivityCreator<L> {
-		Activity createActivity(L location, String actType);
+		/**
+		 * Random decisions must be drawn only from {@code uniform}: the global random generator in the serial mode,
+		 * the random stream of the OD cell in the parallel mode (in which it is called concurrently, so it must be
+		 * thread-safe)
+		 */
+		Activity createActivity(L location, String actType, UniformRandom uniform);
+
+		default Activity createActivity(L location, String actType) {
+			return createActivity(location, actType, RandomUtils.getGlobalUniform());
+		}
+	}
+
+	private record CellPlans<L>(L fromLocation, L toLocation, UniformRandom uniform, List<Plan> plans) {
 	}
 
 	private final UniformRandom uniform = RandomUtils.getGlobalUniform();
@@ -61,51 +88,129 @@ public class ODDemandGenerator<L> {
 	private final Function<String, L> locationProvider;
 	private final boolean addEmptyRoute;
 
+	private final long randomSeed;
+	private final int threads;// 0: serial generation with the global random generator
+
 	public ODDemandGenerator(Scenario scenario, Function<String, L> locationProvider, boolean addEmptyRoute,
 			ActivityCreator<L> activityCreator, PersonCreator<L> personCreator) {
+		this(scenario, locationProvider, addEmptyRoute, activityCreator, personCreator, 0, 0);
+	}
+
+	/**
+	 * Parallel mode: each OD cell of each period is generated with its own random stream, seeded with a hash of
+	 * {@code randomSeed}, the period start time and the from/to location ids. Activities are created on
+	 * {@code threads} threads, while persons are created and added to the population sequentially, in the matrix
+	 * order. So the population depends only on {@code randomSeed}, not on the number of threads.
+	 */
+	public ODDemandGenerator(Scenario scenario, Function<String, L> locationProvider, boolean addEmptyRoute,
+			ActivityCreator<L> activityCreator, PersonCreator<L> personCreator, long randomSeed, int threads) {
 		this.scenario = scenario;
 		this.locationProvider = locationProvider;
 		this.addEmptyRoute = addEmptyRoute;
 		this.activityCreator = activityCreator;
 		this.personCreator = personCreator;
+		this.randomSeed = randomSeed;
+		this.threads = threads;
 	}
 
 	public void generateSinglePeriod(Matrix matrix, String fromActivityType, String toActivityType, String mode,
 			double startTime, double duration, double flowCoeff) {
-		PopulationFactory pf = scenario.getPopulation().getFactory();
-		Iterable<Entry> entryIter = MatrixUtils.createEntryIterable(matrix);
+		if (threads > 0) {
+			generateSinglePeriodInParallel(matrix, fromActivityType, toActivityType, mode, startTime, duration,
+					flowCoeff);
+			return;
+		}
 
-		for (Entry e : entryIter) {
+		for (Entry e : MatrixUtils.createEntryIterable(matrix)) {
 			L fromLocation = locationProvider.apply(e.getFromLocation());
 			L toLocation = locationProvider.apply(e.getToLocation());
 			int trips = (int)uniform.floorOrCeil(flowCoeff * e.getValue());
 
 			for (int k = 0; k < trips; k++) {
-				Plan plan = pf.createPlan();
+				Plan plan = createPlan(fromLocation, toLocation, fromActivityType, toActivityType, mode, startTime,
+						duration, uniform);
+				addPerson(plan, fromLocation, toLocation, uniform);
+			}
+		}
+	}
+
+	private void generateSinglePeriodInParallel(Matrix matrix, String fromActivityType, String toActivityType,
+			String mode, double startTime, double duration, double flowCoeff) {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<CellPlans<L>>> cellFutures = new ArrayList<>();
+		for (Entry e : MatrixUtils.createEntryIterable(matrix)) {
+			cellFutures.add(executor.submit(() -> {
+				L fromLocation = locationProvider.apply(e.getFromLocation());
+				L toLocation = locationProvider.apply(e.getToLocation());
+				var cellUniform = new UniformRandom(new Random(cellSeed(startTime, e)));
+				int trips = (int)cellUniform.floorOrCeil(flowCoeff * e.getValue());
+
+				List<Plan> plans = new ArrayList<>(trips);
+				for (int k = 0; k < trips; k++) {
+					plans.add(createPlan(fromLocation, toLocation, fromActivityType, toActivityType, mode, startTime,
+							duration, cellUniform));
+				}
+				return new CellPlans<>(fromLocation, toLocation, cellUniform, plans);
+			}));
+		}
+		executor.shutdown();
+
+		// merged while the remaining cells are being generated
+		for (Future<CellPlans<L>> cellFuture : cellFutures) {
+			try {
+				CellPlans<L> cellPlans = cellFuture.get();
+				for (Plan plan : cellPlans.plans) {
+					addPerson(plan, cellPlans.fromLocation, cellPlans.toLocation, cellPlans.uniform);
+				}
+			} catch (InterruptedException | ExecutionException e) {
+				executor.shutdownNow();
+				throw new RuntimeException(e);
+			}
+		}
+	}
 
-				// act0
-				Activity startAct = activityCreator.createActivity(fromLocation, fromActivityType);
-				startAct.setEndTime((int)uniform.nextDouble(startTime, startTime + duration));
+	private long cellSeed(double startTime, Entry e) {
+		long seed = mix(randomSeed + Double.doubleToLongBits(startTime));
+		seed = mix(seed + e.getFromLocation().hashCode());
+		return mix(seed + e.getToLocation().hashCode());
+	}
 
-				// act1
-				Activity endAct = activityCreator.createActivity(toLocation, toActivityType);
+	// SplitMix64 finalizer: similar inputs (e.g. consecutive zone ids) give unrelated seeds
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
 
-				// leg
-				Leg leg = pf.createLeg(mode);
-				if (addEmptyRoute) {
-					leg.setRoute(RouteUtils.createGenericRouteImpl(startAct.getLinkId(), endAct.getLinkId()));
-				}
-				leg.setDepartureTime(startAct.getEndTime().seconds());
+	private Plan createPlan(L fromLocation, L toLocation, String fromActivityType, String toActivityType, String mode,
+			double startTime, double duration, UniformRandom uniform) {
+		PopulationFactory pf = scenario.getPopulation().getFactory();
+		Plan plan = pf.createPlan();
 
-				plan.addActivity(startAct);
-				plan.addLeg(leg);
-				plan.addActivity(endAct);
+		// act0
+		Activity startAct = activityCreator.createActivity(fromLocation, fromActivityType, uniform);
+		startAct.setEndTime((int)uniform.nextDouble(startTime, startTime + duration));
 
-				Person person = personCreator.createPerson(plan, fromLocation, toLocation);
-				person.addPlan(plan);
-				scenario.getPopulation().addPerson(person);
-			}
+		// act1
+		Activity endAct = activityCreator.createActivity(toLocation, toActivityType, uniform);
+
+		// leg
+		Leg leg = pf.createLeg(mode);
+		if (addEmptyRoute) {
+			leg.setRoute(RouteUtils.createGenericRouteImpl(startAct.getLinkId(), endAct.getLinkId()));
 		}
+		leg.setDepartureTime(startAct.getEndTime().seconds());
+
+		plan.addActivity(startAct);
+		plan.addLeg(leg);
+		plan.addActivity(endAct);
+		return plan;
+	}
+
+	private void addPerson(Plan plan, L fromLocation, L toLocation, UniformRandom uniform) {
+		Person person = personCreator.createPerson(plan, fromLocation, toLocation, uniform);
+		person.addPlan(plan);
+		scenario.getPopulation().addPerson(person);
 	}
 
 	public void generateMultiplePeriods(Matrix matrix, String fromActivityType, String toActivityType, String mode,
@@ -40,14 +40,24 @@ public class PersonCreatorWithRandomTaxiMode extends DefaultPersonCreator {
 
 	@Override
 	public Person createPerson(Plan plan, Zone fromZone, Zone toZone) {
-		if (isTaxiCustomer(fromZone, toZone)) {
-			taxiCustomers.add(plan.getPerson());
-		}
+		return createPerson(plan, fromZone, toZone, uniform);
+	}
 
-		return super.createPerson(plan, fromZone, toZone);
+	@Override
+	public Person createPerson(Plan plan, Zone fromZone, Zone toZone, UniformRandom uniform) {
+		boolean taxiCustomer = isTaxiCustomer(fromZone, toZone, uniform);
+		Person person = super.createPerson(plan, fromZone, toZone);
+		if (taxiCustomer) {
+			taxiCustomers.add(person);// plan.getPerson() is not set yet
+		}
+		return person;
 	}
 
 	public boolean isTaxiCustomer(Zone fromZone, Zone toZone) {
+		return isTaxiCustomer(fromZone, toZone, uniform);
+	}
+
+	private boolean isTaxiCustomer(Zone fromZone, Zone toZone, UniformRandom uniform) {
 		if (taxiProbability == 0 || !isInternalZone(fromZone) || !isInternalZone(toZone)) {
 			return false;
 		}
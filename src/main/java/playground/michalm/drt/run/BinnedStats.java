@@ -0,0 +1,341 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.drt.run;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+import playground.michalm.drt.run.CombineZonalAndBeeLineTTs.Measure;
+import playground.michalm.drt.run.CombineZonalAndBeeLineTTs.Sampling;
+import playground.michalm.util.stats.QuantileSketch;
+
+/**
+ * Per-bin count/sum/sumSq/min/max of all measures, kept in flat primitive arrays (bin-major, so that all measures
+ * of a sample are updated within a few cache lines). In addition, if {@code sketched}, the
+ * {@link Measure#SKETCHED} measures have a quantile sketch per bin, created when the bin receives its first sample.
+ * <p>
+ * For confidence intervals, origins are treated as the sampling units (samples from one tree are strongly
+ * correlated), so per-origin sums are accumulated in scratch arrays and folded into cluster statistics in
+ * {@link #endOrigin()}. The standard error of the (ratio) mean is then estimated from the variation between origins.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+class BinnedStats {
+	private static final int MEASURE_COUNT = Measure.VALUES.length;
+
+	private final int binSize;
+	private final int binCount;
+	private final int sketchedCount;// 0 if not sketched
+
+	private final long[] count;
+	private final double[] sum;
+	private final double[] sumSq;
+	private final double[] min;
+	private final double[] max;
+	private final QuantileSketch[] sketches;
+
+	// per-origin (cluster) statistics: number of origins, sum of n_o^2, sum of S_o^2 and S_o*n_o
+	// (n_o - number of samples of origin o in a bin, S_o - their sum)
+	private final long[] originCount;
+	private final double[] originSampleCountSq;
+	private final double[] originSumSq;
+	private final double[] originSumTimesSampleCount;
+
+	// scratch for the current origin
+	private final int[] currOriginSampleCount;
+	private final double[] currOriginSum;
+	private final int[] currOriginBins;
+	private int currOriginBinCount;
+
+	BinnedStats(int binSize, double maxValue, boolean sketched) {
+		this.binSize = binSize;
+		binCount = (int)Math.ceil(maxValue / binSize) * 20;
+		sketchedCount = sketched ? Measure.SKETCHED.length : 0;
+
+		count = new long[binCount];
+		sum = new double[binCount * MEASURE_COUNT];
+		sumSq = new double[binCount * MEASURE_COUNT];
+		min = new double[binCount * MEASURE_COUNT];
+		max = new double[binCount * MEASURE_COUNT];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		sketches = new QuantileSketch[binCount * sketchedCount];
+
+		originCount = new long[binCount];
+		originSampleCountSq = new double[binCount];
+		originSumSq = new double[binCount * MEASURE_COUNT];
+		originSumTimesSampleCount = new double[binCount * MEASURE_COUNT];
+
+		currOriginSampleCount = new int[binCount];
+		currOriginSum = new double[binCount * MEASURE_COUNT];
+		currOriginBins = new int[binCount];
+	}
+
+	private QuantileSketch getOrCreateSketch(int idx) {
+		var sketch = sketches[idx];
+		if (sketch == null) {
+			sketch = sketches[idx] = CombineZonalAndBeeLineTTs.createSketch();
+		}
+		return sketch;
+	}
+
+	void addSample(double[] sample, double binValue) {
+		int binIdx = (int)Math.floor(binValue / binSize);
+		count[binIdx]++;
+		if (currOriginSampleCount[binIdx]++ == 0) {
+			currOriginBins[currOriginBinCount++] = binIdx;
+		}
+
+		int offset = binIdx * MEASURE_COUNT;
+		for (int m = 0; m < MEASURE_COUNT; m++) {
+			double value = sample[m];
+			int idx = offset + m;
+			sum[idx] += value;
+			currOriginSum[idx] += value;
+			sumSq[idx] += value * value;
+			if (value < min[idx]) {
+				min[idx] = value;
+			}
+			if (value > max[idx]) {
+				max[idx] = value;
+			}
+		}
+
+		int sketchOffset = binIdx * sketchedCount;
+		for (int s = 0; s < sketchedCount; s++) {
+			getOrCreateSketch(sketchOffset + s).add(sample[Measure.SKETCHED[s].ordinal()]);
+		}
+	}
+
+	void endOrigin() {
+		for (int i = 0; i < currOriginBinCount; i++) {
+			int bin = currOriginBins[i];
+			double n = currOriginSampleCount[bin];
+			originCount[bin]++;
+			originSampleCountSq[bin] += n * n;
+
+			int offset = bin * MEASURE_COUNT;
+			for (int m = 0; m < MEASURE_COUNT; m++) {
+				int idx = offset + m;
+				double s = currOriginSum[idx];
+				originSumSq[idx] += s * s;
+				originSumTimesSampleCount[idx] += s * n;
+				currOriginSum[idx] = 0;
+			}
+			currOriginSampleCount[bin] = 0;
+		}
+		currOriginBinCount = 0;
+	}
+
+	void combine(BinnedStats other) {
+		Preconditions.checkArgument(binSize == other.binSize);
+		Preconditions.checkArgument(binCount == other.binCount);
+		Preconditions.checkArgument(sketchedCount == other.sketchedCount);
+
+		for (int i = 0; i < binCount; i++) {
+			count[i] += other.count[i];
+			originCount[i] += other.originCount[i];
+			originSampleCountSq[i] += other.originSampleCountSq[i];
+		}
+		for (int i = 0; i < sum.length; i++) {
+			sum[i] += other.sum[i];
+			sumSq[i] += other.sumSq[i];
+			min[i] = Math.min(min[i], other.min[i]);
+			max[i] = Math.max(max[i], other.max[i]);
+			originSumSq[i] += other.originSumSq[i];
+			originSumTimesSampleCount[i] += other.originSumTimesSampleCount[i];
+		}
+		for (int i = 0; i < sketches.length; i++) {
+			if (other.sketches[i] != null) {
+				getOrCreateSketch(i).merge(other.sketches[i]);
+			}
+		}
+	}
+
+	void clear() {
+		Arrays.fill(count, 0);
+		Arrays.fill(sum, 0);
+		Arrays.fill(sumSq, 0);
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		for (QuantileSketch sketch : sketches) {
+			if (sketch != null) {
+				sketch.clear();
+			}
+		}
+		Arrays.fill(originCount, 0);
+		Arrays.fill(originSampleCountSq, 0);
+		Arrays.fill(originSumSq, 0);
+		Arrays.fill(originSumTimesSampleCount, 0);
+	}
+
+	// only non-empty bins are written
+	void writeTo(DataOutput out) throws IOException {
+		out.writeInt(binSize);
+		out.writeInt(binCount);
+		out.writeInt(sketchedCount);
+		out.writeInt((int)Arrays.stream(count).filter(c -> c > 0).count());
+		for (int bin = 0; bin < binCount; bin++) {
+			if (count[bin] == 0) {
+				continue;
+			}
+			out.writeInt(bin);
+			out.writeLong(count[bin]);
+			out.writeLong(originCount[bin]);
+			out.writeDouble(originSampleCountSq[bin]);
+
+			int offset = bin * MEASURE_COUNT;
+			for (int idx = offset; idx < offset + MEASURE_COUNT; idx++) {
+				out.writeDouble(sum[idx]);
+				out.writeDouble(sumSq[idx]);
+				out.writeDouble(min[idx]);
+				out.writeDouble(max[idx]);
+				out.writeDouble(originSumSq[idx]);
+				out.writeDouble(originSumTimesSampleCount[idx]);
+			}
+
+			int sketchOffset = bin * sketchedCount;
+			for (int idx = sketchOffset; idx < sketchOffset + sketchedCount; idx++) {
+				out.writeBoolean(sketches[idx] != null);
+				if (sketches[idx] != null) {
+					sketches[idx].writeTo(out);
+				}
+			}
+		}
+	}
+
+	void readFrom(DataInput in) throws IOException {
+		Preconditions.checkState(
+				in.readInt() == binSize && in.readInt() == binCount && in.readInt() == sketchedCount,
+				"Incompatible binning");
+		clear();
+		int nonEmptyBins = in.readInt();
+		for (int i = 0; i < nonEmptyBins; i++) {
+			int bin = in.readInt();
+			count[bin] = in.readLong();
+			originCount[bin] = in.readLong();
+			originSampleCountSq[bin] = in.readDouble();
+
+			int offset = bin * MEASURE_COUNT;
+			for (int idx = offset; idx < offset + MEASURE_COUNT; idx++) {
+				sum[idx] = in.readDouble();
+				sumSq[idx] = in.readDouble();
+				min[idx] = in.readDouble();
+				max[idx] = in.readDouble();
+				originSumSq[idx] = in.readDouble();
+				originSumTimesSampleCount[idx] = in.readDouble();
+			}
+
+			int sketchOffset = bin * sketchedCount;
+			for (int idx = sketchOffset; idx < sketchOffset + sketchedCount; idx++) {
+				sketches[idx] = in.readBoolean() ? QuantileSketch.readFrom(in) : null;
+			}
+		}
+	}
+
+	int countUnconvergedBins(Sampling sampling) {
+		int unconverged = 0;
+		for (int bin = 0; bin < binCount; bin++) {
+			if (originCount[bin] >= sampling.minOriginsPerBin()
+					&& (sampling.z() * standardError(bin, Measure.ZONAL_TT_ERROR) > sampling.tolerance()
+					|| sampling.z() * standardError(bin, Measure.HYBRID_TT_ERROR) > sampling.tolerance())) {
+				unconverged++;
+			}
+		}
+		return unconverged;
+	}
+
+	// standard error of the ratio estimator sum(S_o) / sum(n_o), with origins as clusters
+	double standardError(int bin, Measure measure) {
+		long m = originCount[bin];
+		if (m < 2) {
+			return Double.NaN;
+		}
+		int idx = bin * MEASURE_COUNT + measure.ordinal();
+		double mean = sum[idx] / count[bin];
+		double meanSampleCountPerOrigin = (double)count[bin] / m;
+		double sumSqResiduals = originSumSq[idx]
+				- 2 * mean * originSumTimesSampleCount[idx]
+				+ mean * mean * originSampleCountSq[bin];
+		return Math.sqrt(Math.max(0, sumSqResiduals) / (m * (m - 1.))) / meanSampleCountPerOrigin;
+	}
+
+	int getBinSize() {
+		return binSize;
+	}
+
+	int getBinCount() {
+		return binCount;
+	}
+
+	long count(int bin) {
+		return count[bin];
+	}
+
+	long totalCount() {
+		return Arrays.stream(count).sum();
+	}
+
+	double totalMean(Measure measure) {
+		double totalSum = 0;
+		for (int bin = 0; bin < binCount; bin++) {
+			totalSum += sum[bin * MEASURE_COUNT + measure.ordinal()];
+		}
+		return totalSum / totalCount();
+	}
+
+	double totalRootMeanSquare(Measure measure) {
+		double totalSumSq = 0;
+		for (int bin = 0; bin < binCount; bin++) {
+			totalSumSq += sumSq[bin * MEASURE_COUNT + measure.ordinal()];
+		}
+		return Math.sqrt(totalSumSq / totalCount());
+	}
+
+	double mean(int bin, Measure measure) {
+		return sum[bin * MEASURE_COUNT + measure.ordinal()] / count[bin];
+	}
+
+	double populationStandardDeviation(int bin, Measure measure) {
+		double mean = mean(bin, measure);
+		double meanSq = sumSq[bin * MEASURE_COUNT + measure.ordinal()] / count[bin];
+		return Math.sqrt(Math.max(0, meanSq - mean * mean));
+	}
+
+	double min(int bin, Measure measure) {
+		return min[bin * MEASURE_COUNT + measure.ordinal()];
+	}
+
+	double max(int bin, Measure measure) {
+		return max[bin * MEASURE_COUNT + measure.ordinal()];
+	}
+
+	double quantile(int bin, Measure measure, double q) {
+		int s = Arrays.asList(Measure.SKETCHED).indexOf(measure);
+		Preconditions.checkArgument(sketchedCount > 0 && s >= 0, "Measure %s is not sketched", measure);
+		var sketch = sketches[bin * sketchedCount + s];
+		return sketch == null ? Double.NaN : sketch.quantile(q);
+	}
+}
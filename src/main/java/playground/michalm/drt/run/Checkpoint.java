@@ -0,0 +1,171 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.drt.run;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+import com.google.common.base.Preconditions;
+
+import playground.michalm.drt.run.CombineZonalAndBeeLineTTs.AllStats;
+import playground.michalm.dvrp.skims.BeelineTravelTimeEstimator;
+
+/**
+ * Merged stats together with the origins they come from (and the beeline model used). Written to a gzipped binary
+ * file; a run resumed from the checkpoint skips the finished origins.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+class Checkpoint {
+	private static final int MAGIC = 0x435a4254;
+	private static final int VERSION = 2;
+
+	private final String key;// identifies the run configuration
+	private final AllStats[] allStats;
+	private final EstimatorStats[] estimatorStats;
+	private final List<Id<Node>> finishedOrigins = new ArrayList<>();
+	private @Nullable BeelineTravelTimeEstimator beelineEstimator;
+
+	/**
+	 * Cheap fingerprint of the network (node and link counts, sum of node id hashes, total link length) to be
+	 * included in the key, so that a checkpoint is not resumed on a modified network with the same number of nodes.
+	 */
+	static String networkFingerprint(Network network) {
+		long nodeIdHashSum = 0;
+		for (Id<Node> nodeId : network.getNodes().keySet()) {
+			nodeIdHashSum += nodeId.toString().hashCode();
+		}
+		double totalLinkLength = 0;
+		for (Link link : network.getLinks().values()) {
+			totalLinkLength += link.getLength();
+		}
+		return "nodes=" + network.getNodes().size() + ";links=" + network.getLinks().size() + ";nodeIdHashSum="
+				+ nodeIdHashSum + ";totalLinkLength=" + totalLinkLength;
+	}
+
+	Checkpoint(String key, AllStats[] allStats, EstimatorStats[] estimatorStats) {
+		this.key = key;
+		this.allStats = allStats;
+		this.estimatorStats = estimatorStats;
+	}
+
+	void write(Path file) {
+		Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try (var out = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmpFile))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(key);
+			out.writeDouble(beelineEstimator.getIntercept());
+			out.writeDouble(beelineEstimator.getBeelineSpeed());
+
+			out.writeInt(finishedOrigins.size());
+			for (Id<Node> nodeId : finishedOrigins) {
+				out.writeUTF(nodeId.toString());
+			}
+			for (AllStats stats : allStats) {
+				stats.writeTo(out);
+			}
+			for (EstimatorStats stats : estimatorStats) {
+				stats.writeTo(out);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		try {
+			// so that a crash while writing does not destroy the previous checkpoint
+			Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		System.out.printf("Checkpoint written: %d origins processed%n", finishedOrigins.size());
+	}
+
+	AllStats[] getAllStats() {
+		return allStats;
+	}
+
+	EstimatorStats[] getEstimatorStats() {
+		return estimatorStats;
+	}
+
+	List<Id<Node>> getFinishedOrigins() {
+		return finishedOrigins;
+	}
+
+	@Nullable
+	BeelineTravelTimeEstimator getBeelineEstimator() {
+		return beelineEstimator;
+	}
+
+	void setBeelineEstimator(BeelineTravelTimeEstimator beelineEstimator) {
+		this.beelineEstimator = beelineEstimator;
+	}
+
+	boolean readIfExists(Path file) {
+		if (!Files.exists(file)) {
+			return false;
+		}
+
+		try (var in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+			Preconditions.checkState(in.readInt() == MAGIC && in.readInt() == VERSION,
+					"Not a checkpoint file: %s", file);
+			String fileKey = in.readUTF();
+			Preconditions.checkState(key.equals(fileKey),
+					"Checkpoint %s was created for a different configuration: %s (current: %s)", file, fileKey,
+					key);
+			beelineEstimator = new BeelineTravelTimeEstimator(in.readDouble(), in.readDouble());
+
+			int finishedCount = in.readInt();
+			for (int i = 0; i < finishedCount; i++) {
+				finishedOrigins.add(Id.createNodeId(in.readUTF()));
+			}
+			for (AllStats stats : allStats) {
+				stats.readFrom(in);
+			}
+			for (EstimatorStats stats : estimatorStats) {
+				stats.readFrom(in);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return true;
+	}
+}
@@ -20,30 +20,59 @@
 
 package playground.michalm.drt.run;
 
+import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toList;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.function.ToDoubleFunction;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.network.Node;
 import org.matsim.contrib.common.util.DistanceUtils;
-import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
 import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
-import org.matsim.contrib.util.ExecutorServiceWithResource;
-import org.matsim.contrib.zone.skims.FreeSpeedTravelTimeMatrix;
-import org.matsim.contrib.zone.skims.TravelTimeMatrix;
 import org.matsim.contrib.zone.skims.DvrpTravelTimeMatrixParams;
 import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.router.speedy.LeastCostPathTree;
-import org.matsim.core.router.speedy.SpeedyGraph;
+import org.matsim.core.router.speedy.LeastCostPathTree.StopCriterion;
 import org.matsim.core.utils.misc.Counter;
 import org.matsim.core.utils.misc.OptionalTime;
 
-import com.google.common.base.Preconditions;
-import com.google.common.math.StatsAccumulator;
+
+import playground.michalm.dvrp.router.NodeOrdering;
+import playground.michalm.dvrp.router.SettledNodes;
+import playground.michalm.dvrp.router.ShortestPathTree;
+import playground.michalm.dvrp.skims.BeelineTravelTimeEstimator;
+import playground.michalm.dvrp.skims.HybridTravelTimeMatrix;
+import playground.michalm.dvrp.skims.SquareGrid;
+import playground.michalm.dvrp.skims.TravelTimeEstimator;
+import playground.michalm.dvrp.skims.TravelTimeMatrixBuilder;
+import playground.michalm.util.MemoryUtils;
+import playground.michalm.util.WorkStealingExecutorWithResource;
+import playground.michalm.util.stats.QuantileSketch;
 
 /**
  * @author Michal Maciejewski (michalm)
@@ -54,64 +83,321 @@ public class CombineZonalAndBeeLineTTs {
 		//String networkFile = "d:/matsim-intelliJ/matsim-maas/scenarios/mielec_2014_02/network.xml";
 		var network = NetworkUtils.readNetwork(networkFile);
 
-		var matrixParams = new DvrpTravelTimeMatrixParams();
-		matrixParams.setCellSize(100);
-		matrixParams.setMaxNeighborDistance(1000);
+		// sweep: all combinations are evaluated against the same set of trees
+		double[] cellSizes = { 100 };
+		double[] maxNeighborDistances = { 1000 };
 
 		int numberOfThreads = 12;// Runtime.getRuntime().availableProcessors();
 
-		var dvrpTTMatrix = FreeSpeedTravelTimeMatrix.createFreeSpeedMatrix(network, matrixParams, numberOfThreads, 1);
+		// Hilbert-curve node renumbering of the trees' graph and of the sparse matrices (off: Id.index() order)
+		boolean hilbertNodeOrdering = false;
+		NodeOrdering nodeOrdering = hilbertNodeOrdering ? NodeOrdering.hilbert(network) : null;
+
+		// sampling disabled: all nodes are used as origins
+		// sampling enabled: stops once all bins with >= 30 origins have their 95% CI of mean errors within +/- 5 s
+		var sampling = new Sampling(false, 5, 1.96, 30, numberOfThreads * 256, 1234);
+
+		// if the file exists (e.g. after a crash), the run is resumed from it; it is deleted once the run completes
+		Path checkpointFile = Paths.get("combineZonalAndBeeLineTTs_checkpoint.bin.gz");
+		long checkpointIntervalNanos = TimeUnit.MINUTES.toNanos(10);
+
+		List<MatrixCandidate> candidates = new ArrayList<>();
+		for (double cellSize : cellSizes) {
+			for (double maxNeighborDistance : maxNeighborDistances) {
+				var matrixParams = new DvrpTravelTimeMatrixParams();
+				matrixParams.setCellSize(cellSize);
+				matrixParams.setMaxNeighborDistance(maxNeighborDistance);
+				candidates.add(buildCandidate(network, matrixParams, numberOfThreads, nodeOrdering));
+			}
+		}
+
+		double samplingCellSize = Arrays.stream(cellSizes).min().orElseThrow();
+		var grid = new SquareGrid(network.getNodes().values(), samplingCellSize);
+		List<Node> origins = stratifiedOriginOrder(network.getNodes().values(), grid, sampling.seed);
+
+		int estimatorCount = 3 * candidates.size() + 1;
+		String checkpointKey = "network=" + networkFile + ";" + Checkpoint.networkFingerprint(network) + ";cellSizes="
+				+ Arrays.toString(cellSizes) + ";maxNeighborDistances=" + Arrays.toString(maxNeighborDistances)
+				+ ";seed=" + sampling.seed;
+		var checkpoint = new Checkpoint(checkpointKey, createAllStats(candidates.size()),
+				createEstimatorStats(estimatorCount));
+		if (checkpoint.readIfExists(checkpointFile)) {
+			var finishedOrigins = new HashSet<>(checkpoint.getFinishedOrigins());
+			origins = origins.stream().filter(node -> !finishedOrigins.contains(node.getId())).collect(toList());
+			System.out.printf("Resumed from checkpoint: %d origins already processed%n", finishedOrigins.size());
+		}
+
+		Counter counter = new Counter("DVRP free-speed trees: node ", " / " + origins.size());
+
+		var treeFactory = TravelTimeMatrixBuilder.createTreeFactory(network, new QSimFreeSpeedTravelTime(1),
+				OptionalTime.defined(0), nodeOrdering);
+		// one accumulator per tree: a worker holds its tree exclusively while processing a node, so no locking needed
+		List<Worker> workers = IntStream.range(0, numberOfThreads)
+				.mapToObj(i -> new Worker(treeFactory.get(), new SettledNodes(), createAllStats(candidates.size()),
+						createEstimatorStats(estimatorCount), new BeelineTravelTimeEstimator.Fitter()))
+				.collect(toList());
+		// origins of a batch are grouped by (coarse) grid cells to keep consecutive trees of a worker close together
+		var executor = new WorkStealingExecutorWithResource<>(workers);
+		var chunkGrid = new SquareGrid(network.getNodes().values(), CHUNK_CELL_SIZE);
+
+		Node[] nodesByIndex = new Node[Id.getNumberOfIds(Node.class)];
+		network.getNodes().values().forEach(node -> nodesByIndex[node.getId().index()] = node);
+
+		// the beeline model is fitted on a (stratified) subset of origins before the main pass
+		if (checkpoint.getBeelineEstimator() == null) {
+			var fitOrigins = origins.subList(0, Math.min(BEELINE_FIT_ORIGIN_COUNT, origins.size()));
+			executor.processChunksAndWait(chunkGrid.groupByCell(fitOrigins),
+					(Worker worker, Node node) -> fitBeelineModel(node, worker, nodesByIndex));
+			var beelineFitter = new BeelineTravelTimeEstimator.Fitter();
+			workers.forEach(worker -> beelineFitter.merge(worker.beelineFitter));
+			checkpoint.setBeelineEstimator(beelineFitter.fit());
+		}
+		var beelineEstimator = checkpoint.getBeelineEstimator();
+		System.out.printf("Beeline model: intercept = %f s, beeline speed = %f m/s%n",
+				beelineEstimator.getIntercept(), beelineEstimator.getBeelineSpeed());
+
+		List<NamedEstimator> estimators = new ArrayList<>();
+		for (MatrixCandidate candidate : candidates) {
+			estimators.add(new NamedEstimator("zonal_" + candidate.name(), candidate.matrix.getZonalMatrix()));
+			estimators.add(new NamedEstimator("sparse_" + candidate.name(), candidate.matrix.getSparseMatrix()));
+			estimators.add(new NamedEstimator("hybrid_" + candidate.name(), candidate.matrix));
+		}
+		estimators.add(new NamedEstimator("beeline", beelineEstimator));
+
+		var context = new Context(nodesByIndex, 0, counter, candidates, estimators);
+
+		AllStats[] combinedAllStats = checkpoint.getAllStats();
+		EstimatorStats[] combinedEstimatorStats = checkpoint.getEstimatorStats();
+
+		// the checkpoint is serialised and written in the background while the workers process the next batch;
+		// the main thread waits for the write to complete only before modifying the combined stats again
+		var checkpointExecutor = Executors.newSingleThreadExecutor();
+		Future<?> pendingCheckpoint = CompletableFuture.completedFuture(null);
+		long lastCheckpointTime = System.nanoTime();
+
+		for (int batchStart = 0; batchStart < origins.size(); batchStart += sampling.batchSize) {
+			var batch = origins.subList(batchStart, Math.min(batchStart + sampling.batchSize, origins.size()));
+			executor.processChunksAndWait(chunkGrid.groupByCell(batch),
+					(Worker worker, Node node) -> computeDistancesForAllOutgoingNodes(node, worker, context));
+
+			waitFor(pendingCheckpoint);
+			batch.forEach(node -> checkpoint.getFinishedOrigins().add(node.getId()));
+			for (Worker worker : workers) {
+				for (int c = 0; c < candidates.size(); c++) {
+					combinedAllStats[c].combine(worker.allStats[c]);
+					worker.allStats[c].clear();
+				}
+				for (int e = 0; e < estimatorCount; e++) {
+					combinedEstimatorStats[e].combine(worker.estimatorStats[e]);
+					worker.estimatorStats[e].clear();
+				}
+			}
+
+			if (sampling.enabled) {
+				int unconvergedBins = Arrays.stream(combinedAllStats)
+						.mapToInt(allStats -> allStats.countUnconvergedBins(sampling))
+						.sum();
+				System.out.printf("Origins: %d / %d, bins with CI half-width > %.1f s: %d%n",
+						batchStart + batch.size(), origins.size(), sampling.tolerance, unconvergedBins);
+				if (unconvergedBins == 0) {
+					break;
+				}
+			}
+
+			if (System.nanoTime() - lastCheckpointTime >= checkpointIntervalNanos) {
+				pendingCheckpoint = checkpointExecutor.submit(() -> checkpoint.write(checkpointFile));
+				lastCheckpointTime = System.nanoTime();
+			}
+		}
+		executor.shutdown();
+		System.out.printf("Chunks stolen by idle workers: %d%n", executor.getStolenChunkCount());
+		waitFor(pendingCheckpoint);
+		checkpointExecutor.shutdown();
+
+		for (int c = 0; c < candidates.size(); c++) {
+			saveToCsv(candidates.get(c).filePrefix(), combinedAllStats[c], sampling);
+		}
+		saveSummaryToCsv("matrixCandidates_summary.csv", candidates, combinedAllStats);
+
+		double[] latencies = measureLatencies(estimators, network.getNodes().values().toArray(new Node[0]));
+		saveEstimatorSummaryToCsv("estimators_summary.csv", estimators, combinedEstimatorStats, latencies);
+
+		try {
+			Files.deleteIfExists(checkpointFile);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void waitFor(Future<?> future) {
+		try {
+			future.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static MatrixCandidate buildCandidate(Network network, DvrpTravelTimeMatrixParams matrixParams,
+			int numberOfThreads, @Nullable NodeOrdering nodeOrdering) {
+		long heapBefore = MemoryUtils.usedHeapAfterGc();
+		long t0 = System.nanoTime();
+		var matrix = TravelTimeMatrixBuilder.buildHybridMatrix(network, matrixParams.getCellSize(),
+				matrixParams.getMaxNeighborDistance(), new QSimFreeSpeedTravelTime(1), 0, numberOfThreads,
+				nodeOrdering, null);
+		long buildTimeNanos = System.nanoTime() - t0;
+		long retainedHeap = MemoryUtils.usedHeapAfterGc() - heapBefore;
+		return new MatrixCandidate(matrixParams, matrix, buildTimeNanos / 1e9, retainedHeap);
+	}
+
+	private static AllStats[] createAllStats(int count) {
+		return Stream.generate(AllStats::new).limit(count).toArray(AllStats[]::new);
+	}
+
+	private static EstimatorStats[] createEstimatorStats(int count) {
+		return Stream.generate(EstimatorStats::new).limit(count).toArray(EstimatorStats[]::new);
+	}
 
-		Counter counter = new Counter("DVRP free-speed trees: node ", " / " + network.getNodes().size());
+	// random node pairs, so most pairs are outside the sparse neighbourhood (i.e. sparse lookups are mostly misses)
+	private static double[] measureLatencies(List<NamedEstimator> estimators, Node[] nodes) {
+		var random = new Random(5678);
+		int queryCount = 1_000_000;
+		Node[] fromNodes = new Node[queryCount];
+		Node[] toNodes = new Node[queryCount];
+		for (int i = 0; i < queryCount; i++) {
+			fromNodes[i] = nodes[random.nextInt(nodes.length)];
+			toNodes[i] = nodes[random.nextInt(nodes.length)];
+		}
 
-		SpeedyGraph graph = new SpeedyGraph(network);
-		var executorService = new ExecutorServiceWithResource<>(IntStream.range(0, numberOfThreads)
-				.mapToObj(i -> new LeastCostPathTree(graph, new QSimFreeSpeedTravelTime(1),
-						new TimeAsTravelDisutility(new QSimFreeSpeedTravelTime(1))))
-				.collect(toList()));
+		double[] latencies = new double[estimators.size()];
+		double checksum = 0;
+		for (int e = 0; e < estimators.size(); e++) {
+			var estimator = estimators.get(e).estimator;
+			long elapsedNanos = 0;
+			for (int round = 0; round < 10; round++) {
+				long t0 = System.nanoTime();
+				for (int i = 0; i < queryCount; i++) {
+					double time = estimator.getTravelTime(fromNodes[i], toNodes[i]);
+					if (!Double.isNaN(time)) {
+						checksum += time;
+					}
+				}
+				if (round >= 5) {// first 5 rounds for warm-up
+					elapsedNanos += System.nanoTime() - t0;
+				}
+			}
+			latencies[e] = elapsedNanos / (5. * queryCount);
+		}
+		// consume the results so that the JIT cannot drop the lookups
+		System.out.println("Latency measurement checksum: " + checksum);
+		return latencies;
+	}
 
-		AllStats combinedAllStats = new AllStats();
-		var context = new Context(network, 0, counter, dvrpTTMatrix, combinedAllStats);
+	private static void saveEstimatorSummaryToCsv(String filename, List<NamedEstimator> estimators,
+			EstimatorStats[] estimatorStats, double[] latencies) {
+		try (var pw = new PrintWriter(filename)) {
+			pw.println("estimator,memory_MB,latency_ns,count,coverage,error_mean,error_rmse,absError_mean,"
+					+ "absError_p50,absError_p90,absError_p95,absError_p99");
+			for (int e = 0; e < estimators.size(); e++) {
+				var stats = estimatorStats[e];
+				pw.printf("%s,%f,%f,%d,%f,%f,%f,%f", estimators.get(e).name,
+						estimators.get(e).estimator.getMemoryBytes() / (1024. * 1024), latencies[e], stats.getCount(),
+						stats.coverage(), stats.meanError(), stats.rootMeanSquareError(), stats.meanAbsError());
+				for (double q : QUANTILES) {
+					pw.printf(",%f", stats.absErrorQuantile(q));
+				}
+				pw.println();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
 
-		executorService.submitRunnablesAndWait(network.getNodes()
-				.values()
-				.stream()
-				.map(node -> (lpcTree -> computeDistancesForAllOutgoingNodes(node, lpcTree, context))));
-		executorService.shutdown();
+	private static void saveToCsv(String prefix, AllStats allStats, Sampling sampling) {
+		saveToCsv(prefix, "mean", allStats, BinnedStats::mean);
+		saveToCsv(prefix, "std", allStats, BinnedStats::populationStandardDeviation);
+		saveToCsv(prefix, "min", allStats, BinnedStats::min);
+		saveToCsv(prefix, "max", allStats, BinnedStats::max);
+		saveToCsv(prefix, "ciLower", allStats, (binnedStats, bin, measure) -> binnedStats.mean(bin, measure)
+				- sampling.z * binnedStats.standardError(bin, measure));
+		saveToCsv(prefix, "ciUpper", allStats, (binnedStats, bin, measure) -> binnedStats.mean(bin, measure)
+				+ sampling.z * binnedStats.standardError(bin, measure));
+
+		// only the network TT binning is sketched (see AllStats)
+		for (double q : QUANTILES) {
+			saveToCsv(prefix + "statsByNetworkTT_p" + Math.round(q * 100) + ".csv", allStats.statsByNetworkTT,
+					Measure.SKETCHED, (binnedStats, bin, measure) -> binnedStats.quantile(bin, measure, q));
+		}
+	}
 
-		String prefix = matrixParams.getCellSize() + "_" + matrixParams.getMaxNeighborDistance() + "_";
+	private static void saveSummaryToCsv(String filename, List<MatrixCandidate> candidates, AllStats[] allStats) {
+		try (var pw = new PrintWriter(filename)) {
+			pw.println("cellSize,maxNeighborDistance,buildTime_s,retainedHeap_MB,count,"
+					+ "zonalTTError_mean,zonalTTError_rmse,hybridTTError_mean,hybridTTError_rmse");
+			for (int c = 0; c < candidates.size(); c++) {
+				var candidate = candidates.get(c);
+				// each sample falls into exactly one network TT bin
+				var stats = allStats[c].statsByNetworkTT;
+				pw.printf("%f,%f,%f,%f,%d,%f,%f,%f,%f%n", candidate.params.getCellSize(),
+						candidate.params.getMaxNeighborDistance(), candidate.buildTimeSeconds,
+						candidate.retainedHeapBytes / (1024. * 1024), stats.totalCount(),
+						stats.totalMean(Measure.ZONAL_TT_ERROR), stats.totalRootMeanSquare(Measure.ZONAL_TT_ERROR),
+						stats.totalMean(Measure.HYBRID_TT_ERROR), stats.totalRootMeanSquare(Measure.HYBRID_TT_ERROR));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
 
-		saveToCsv(prefix + "statsByNetworkTT_mean.csv", combinedAllStats.statsByNetworkTT, StatsAccumulator::mean);
-		saveToCsv(prefix + "statsByBeelineDistance_mean.csv", combinedAllStats.statsByBeelineDistance,
-				StatsAccumulator::mean);
-		saveToCsv(prefix + "statsByNetworkDistance_mean.csv", combinedAllStats.statsByNetworkDistance,
-				StatsAccumulator::mean);
-		saveToCsv(prefix + "statsByZonalTT_mean.csv", combinedAllStats.statsByZonalTT, StatsAccumulator::mean);
+	/**
+	 * Proportionally stratified order of origins: each grid cell's nodes are shuffled and spread evenly over the whole
+	 * order, so that any prefix samples every cell in proportion to its number of nodes.
+	 */
+	static List<Node> stratifiedOriginOrder(Collection<? extends Node> nodes, SquareGrid grid, long seed) {
+		var random = new Random(seed);
+		Map<Integer, List<Node>> nodesByCell = nodes.stream()
+				.map(Node.class::cast)
+				.collect(groupingBy(grid::getCellIndex, TreeMap::new, toList()));
+
+		record OrderedNode(double key, Node node) {
+		}
+		var orderedNodes = new ArrayList<OrderedNode>(nodes.size());
+		for (List<Node> cellNodes : nodesByCell.values()) {
+			Collections.shuffle(cellNodes, random);
+			for (int i = 0; i < cellNodes.size(); i++) {
+				orderedNodes.add(new OrderedNode((i + random.nextDouble()) / cellNodes.size(), cellNodes.get(i)));
+			}
+		}
+		orderedNodes.sort(Comparator.comparingDouble(OrderedNode::key));
+		return orderedNodes.stream().map(OrderedNode::node).collect(toList());
+	}
 
-		saveToCsv(prefix + "statsByNetworkTT_std.csv", combinedAllStats.statsByNetworkTT,
-				StatsAccumulator::populationStandardDeviation);
-		saveToCsv(prefix + "statsByBeelineDistance_std.csv", combinedAllStats.statsByBeelineDistance,
-				StatsAccumulator::populationStandardDeviation);
-		saveToCsv(prefix + "statsByNetworkDistance_std.csv", combinedAllStats.statsByNetworkDistance,
-				StatsAccumulator::populationStandardDeviation);
-		saveToCsv(prefix + "statsByZonalTT_std.csv", combinedAllStats.statsByZonalTT,
-				StatsAccumulator::populationStandardDeviation);
+	private static void saveToCsv(String prefix, String suffix, AllStats allStats, BinStatistic statistic) {
+		Measure[] measures = Measure.VALUES;
+		saveToCsv(prefix + "statsByNetworkTT_" + suffix + ".csv", allStats.statsByNetworkTT, measures, statistic);
+		saveToCsv(prefix + "statsByBeelineDistance_" + suffix + ".csv", allStats.statsByBeelineDistance, measures,
+				statistic);
+		saveToCsv(prefix + "statsByNetworkDistance_" + suffix + ".csv", allStats.statsByNetworkDistance, measures,
+				statistic);
+		saveToCsv(prefix + "statsByZonalTT_" + suffix + ".csv", allStats.statsByZonalTT, measures, statistic);
 	}
 
-	private static void saveToCsv(String filename, BinnedAccumulatedStats binnedStats,
-			ToDoubleFunction<StatsAccumulator> function) {
+	private static void saveToCsv(String filename, BinnedStats binnedStats, Measure[] measures,
+			BinStatistic statistic) {
 		try (var pw = new PrintWriter(filename)) {
-			pw.printf("bin,count,networkTT,beelineDistance,networkDistance,zonalTT,hybridTT%n");
-			for (int i = 0; i < binnedStats.networkTT.length; i++) {
-				int binValue = i * binnedStats.binSize;
-				long count = binnedStats.networkTT[i].count();
+			pw.print("bin,count");
+			for (Measure measure : measures) {
+				pw.print("," + measure.columnName);
+			}
+			pw.println();
+
+			for (int bin = 0; bin < binnedStats.getBinCount(); bin++) {
+				long count = binnedStats.count(bin);
 				if (count > 0) {
-					pw.printf("%d,%d,%f,%f,%f,%f,%f%n", binValue, count,
-							function.applyAsDouble(binnedStats.networkTT[i]),
-							function.applyAsDouble(binnedStats.beelineDistance[i]),
-							function.applyAsDouble(binnedStats.networkDistance[i]),
-							function.applyAsDouble(binnedStats.zonalTT[i]),
-							function.applyAsDouble(binnedStats.hybridTT[i]));
+					pw.printf("%d,%d", bin * binnedStats.getBinSize(), count);
+					for (Measure measure : measures) {
+						pw.printf(",%f", statistic.get(binnedStats, bin, measure));
+					}
+					pw.println();
 				}
 			}
 		} catch (IOException e) {
@@ -119,11 +405,64 @@ public class CombineZonalAndBeeLineTTs {
 		}
 	}
 
-	record Context(Network network, double departureTime, Counter counter, TravelTimeMatrix travelTimeMatrix,
-				   AllStats allStatsAccumulator) {
+	record Context(Node[] nodesByIndex, double departureTime, Counter counter, List<MatrixCandidate> candidates,
+				   List<NamedEstimator> estimators) {
+	}
+
+	record MatrixCandidate(DvrpTravelTimeMatrixParams params, HybridTravelTimeMatrix matrix,
+						   double buildTimeSeconds, long retainedHeapBytes) {
+		String name() {
+			return params.getCellSize() + "_" + params.getMaxNeighborDistance();
+		}
+
+		String filePrefix() {
+			return name() + "_";
+		}
+	}
+
+	record NamedEstimator(String name, TravelTimeEstimator estimator) {
+	}
+
+	// allStats[i] - stats of the i-th matrix candidate, estimatorStats[i] - stats of the i-th estimator
+	record Worker(ShortestPathTree tree, SettledNodes settledNodes, AllStats[] allStats,
+				  EstimatorStats[] estimatorStats, BeelineTravelTimeEstimator.Fitter beelineFitter) {
+	}
+
+	/**
+	 * @param enabled          if false, all origins are processed
+	 * @param tolerance        max half-width of the confidence intervals of the mean errors [s]
+	 * @param z                z-score of the confidence level (1.96 for 95%)
+	 * @param minOriginsPerBin bins with fewer origins are ignored when checking the convergence
+	 * @param batchSize        number of origins processed between convergence checks
+	 * @param seed             seed used for shuffling origins within grid cells
+	 */
+	record Sampling(boolean enabled, double tolerance, double z, int minOriginsPerBin, int batchSize, long seed) {
 	}
 
-	record Sample(double networkTT, double networkDistance, double zonalTT, double beelineDistance, double hybridTT) {
+	enum Measure {
+		NETWORK_TT("networkTT", true),
+		BEELINE_DISTANCE("beelineDistance", false),
+		NETWORK_DISTANCE("networkDistance", false),
+		ZONAL_TT("zonalTT", true),
+		HYBRID_TT("hybridTT", true),
+		// errors relative to networkTT
+		ZONAL_TT_ERROR("zonalTTError", true),
+		HYBRID_TT_ERROR("hybridTTError", true);
+
+		static final Measure[] VALUES = values();
+		static final Measure[] SKETCHED = Arrays.stream(VALUES).filter(m -> m.sketched).toArray(Measure[]::new);
+
+		private final String columnName;
+		private final boolean sketched;
+
+		Measure(String columnName, boolean sketched) {
+			this.columnName = columnName;
+			this.sketched = sketched;
+		}
+	}
+
+	interface BinStatistic {
+		double get(BinnedStats binnedStats, int bin, Measure measure);
 	}
 
 	private static final double MAX_DISTANCE = 7_500;
@@ -131,113 +470,141 @@ public class CombineZonalAndBeeLineTTs {
 	private static final int DISTANCE_BIN = 50 * 2;
 	private static final int TIME_BIN = 3 * 2;
 
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.95, 0.99 };
+	// 1% relative error for |values| between 1 (s or m) and 100_000; |values| < 1 are treated as 0
+	private static final double SKETCH_RELATIVE_ACCURACY = 0.01;
+	private static final double SKETCH_MIN_VALUE = 1;
+	private static final double SKETCH_MAX_VALUE = 100_000;
+
+	static QuantileSketch createSketch() {
+		return new QuantileSketch(SKETCH_RELATIVE_ACCURACY, SKETCH_MIN_VALUE, SKETCH_MAX_VALUE);
+	}
+
+	private static final int BEELINE_FIT_ORIGIN_COUNT = 1000;
+	private static final double CHUNK_CELL_SIZE = 2000;// [m]
+
+	private static final StopCriterion STOP_CRITERION = (nodeIndex, arrivalTime, travelCost, distance,
+			departureTime) -> distance >= MAX_DISTANCE || travelCost >= MAX_TIME;
+
 	static class AllStats {
 		// time: 10 hours, 30 s bins
 		// distance: 200 km, 100 m bins
-		private final BinnedAccumulatedStats statsByNetworkTT = new BinnedAccumulatedStats(TIME_BIN, MAX_TIME);
-		private final BinnedAccumulatedStats statsByBeelineDistance = new BinnedAccumulatedStats(DISTANCE_BIN,
-				MAX_DISTANCE);
-		private final BinnedAccumulatedStats statsByNetworkDistance = new BinnedAccumulatedStats(DISTANCE_BIN,
-				MAX_DISTANCE);
-		private final BinnedAccumulatedStats statsByZonalTT = new BinnedAccumulatedStats(TIME_BIN, MAX_TIME);
-
-		private void addSample(Sample sample) {
-			statsByNetworkTT.addSample(sample, sample.networkTT);
-			statsByBeelineDistance.addSample(sample, sample.beelineDistance);
-			statsByNetworkDistance.addSample(sample, sample.networkDistance);
-			statsByZonalTT.addSample(sample, sample.zonalTT);
-		}
-
-		//accumulated from different threads
-		private synchronized void accumulate(AllStats other) {
+		// quantiles are reported only by network TT: the DRT max wait/travel time constraints are functions of the
+		// direct (network) TT, so this is the binning in which the error tails matter. A sketched binning costs ~4x
+		// more per sample than an unsketched one, so sketching all four would more than double the stats overhead.
+		private final BinnedStats statsByNetworkTT = new BinnedStats(TIME_BIN, MAX_TIME, true);
+		private final BinnedStats statsByBeelineDistance = new BinnedStats(DISTANCE_BIN, MAX_DISTANCE, false);
+		private final BinnedStats statsByNetworkDistance = new BinnedStats(DISTANCE_BIN, MAX_DISTANCE, false);
+		private final BinnedStats statsByZonalTT = new BinnedStats(TIME_BIN, MAX_TIME, false);
+
+		// reused by the owning worker to avoid allocating a sample object per node pair
+		private final double[] sample = new double[Measure.VALUES.length];
+
+		private void addSample(double networkTT, double beelineDistance, double networkDistance, double zonalTT,
+				double hybridTT) {
+			sample[Measure.NETWORK_TT.ordinal()] = networkTT;
+			sample[Measure.BEELINE_DISTANCE.ordinal()] = beelineDistance;
+			sample[Measure.NETWORK_DISTANCE.ordinal()] = networkDistance;
+			sample[Measure.ZONAL_TT.ordinal()] = zonalTT;
+			sample[Measure.HYBRID_TT.ordinal()] = hybridTT;
+			sample[Measure.ZONAL_TT_ERROR.ordinal()] = zonalTT - networkTT;
+			sample[Measure.HYBRID_TT_ERROR.ordinal()] = hybridTT - networkTT;
+
+			statsByNetworkTT.addSample(sample, networkTT);
+			statsByBeelineDistance.addSample(sample, beelineDistance);
+			statsByNetworkDistance.addSample(sample, networkDistance);
+			statsByZonalTT.addSample(sample, zonalTT);
+		}
+
+		private void endOrigin() {
+			statsByNetworkTT.endOrigin();
+			statsByBeelineDistance.endOrigin();
+			statsByNetworkDistance.endOrigin();
+			statsByZonalTT.endOrigin();
+		}
+
+		private void combine(AllStats other) {
 			statsByNetworkTT.combine(other.statsByNetworkTT);
 			statsByBeelineDistance.combine(other.statsByBeelineDistance);
 			statsByNetworkDistance.combine(other.statsByNetworkDistance);
 			statsByZonalTT.combine(other.statsByZonalTT);
 		}
-	}
-
-	static class BinnedAccumulatedStats {
-		private final int binSize;
-
-		private final StatsAccumulator[] networkTT;
-		private final StatsAccumulator[] networkDistance;
-		private final StatsAccumulator[] zonalTT;
-		private final StatsAccumulator[] beelineDistance;
-		private final StatsAccumulator[] hybridTT;
 
-		BinnedAccumulatedStats(int binSize, double maxValue) {
-			this.binSize = binSize;
-			int binCount = (int)Math.ceil(maxValue / binSize) * 20;
-
-			networkTT = new StatsAccumulator[binCount];
-			networkDistance = new StatsAccumulator[binCount];
-			zonalTT = new StatsAccumulator[binCount];
-			beelineDistance = new StatsAccumulator[binCount];
-			hybridTT = new StatsAccumulator[binCount];
-
-			for (int i = 0; i < binCount; i++) {
-				networkTT[i] = new StatsAccumulator();
-				networkDistance[i] = new StatsAccumulator();
-				zonalTT[i] = new StatsAccumulator();
-				beelineDistance[i] = new StatsAccumulator();
-				hybridTT[i] = new StatsAccumulator();
-			}
+		private void clear() {
+			statsByNetworkTT.clear();
+			statsByBeelineDistance.clear();
+			statsByNetworkDistance.clear();
+			statsByZonalTT.clear();
 		}
 
-		void addSample(Sample sample, double binValue) {
-			int binIdx = (int)Math.floor(binValue / binSize);
+		void writeTo(DataOutput out) throws IOException {
+			statsByNetworkTT.writeTo(out);
+			statsByBeelineDistance.writeTo(out);
+			statsByNetworkDistance.writeTo(out);
+			statsByZonalTT.writeTo(out);
+		}
 
-			networkTT[binIdx].add(sample.networkTT);
-			networkDistance[binIdx].add(sample.networkDistance);
-			zonalTT[binIdx].add(sample.zonalTT);
-			beelineDistance[binIdx].add(sample.beelineDistance);
-			hybridTT[binIdx].add(sample.hybridTT);
+		void readFrom(DataInput in) throws IOException {
+			statsByNetworkTT.readFrom(in);
+			statsByBeelineDistance.readFrom(in);
+			statsByNetworkDistance.readFrom(in);
+			statsByZonalTT.readFrom(in);
 		}
 
-		void combine(BinnedAccumulatedStats other) {
-			Preconditions.checkArgument(binSize == other.binSize);
-			Preconditions.checkArgument(networkTT.length == other.networkTT.length);
+		private int countUnconvergedBins(Sampling sampling) {
+			return statsByNetworkTT.countUnconvergedBins(sampling)
+					+ statsByBeelineDistance.countUnconvergedBins(sampling)
+					+ statsByNetworkDistance.countUnconvergedBins(sampling)
+					+ statsByZonalTT.countUnconvergedBins(sampling);
+		}
+	}
 
-			for (int i = 0; i < networkTT.length; i++) {
-				networkTT[i].addAll(other.networkTT[i]);
-				networkDistance[i].addAll(other.networkDistance[i]);
-				zonalTT[i].addAll(other.zonalTT[i]);
-				beelineDistance[i].addAll(other.beelineDistance[i]);
-				hybridTT[i].addAll(other.hybridTT[i]);
+	private static void fitBeelineModel(Node fromNode, Worker worker, Node[] nodesByIndex) {
+		var tree = worker.tree;
+		var settledNodes = worker.settledNodes;
+		settledNodes.calculate(tree, fromNode.getId().index(), 0, STOP_CRITERION);
+
+		for (int i = 0; i < settledNodes.size(); i++) {
+			int nodeIndex = settledNodes.getNodeIndex(i);
+			Node toNode = nodesByIndex[nodeIndex];
+			if (toNode != fromNode) {
+				worker.beelineFitter.add(DistanceUtils.calculateDistance(fromNode, toNode),
+						tree.getTime(nodeIndex).seconds());
 			}
 		}
 	}
 
-	private static void computeDistancesForAllOutgoingNodes(Node fromNode, LeastCostPathTree lcpTree, Context context) {
+	private static void computeDistancesForAllOutgoingNodes(Node fromNode, Worker worker, Context context) {
 		context.counter.incCounter();
 
-		lcpTree.calculate(fromNode.getId().index(), context.departureTime, null, null,
-				(nodeIndex, arrivalTime, travelCost, distance, departureTime) -> distance >= MAX_DISTANCE
-						|| travelCost >= MAX_TIME);
+		var tree = worker.tree;
+		var settledNodes = worker.settledNodes;
+		settledNodes.calculate(tree, fromNode.getId().index(), context.departureTime, STOP_CRITERION);
 
-		var allStats = new AllStats();
-		for (Node toNode : context.network.getNodes().values()) {
-			int nodeIndex = toNode.getId().index();
-			OptionalTime currOptionalTime = lcpTree.getTime(nodeIndex);
-			if (currOptionalTime.isUndefined()) {
-				continue;
-			}
-			double currTime = currOptionalTime.seconds();
-			double networkTT = currTime - context.departureTime;
-			// FIXME make it zonal only (now this call is computing the hybrid distance)
-			double zonalTT = context.travelTimeMatrix.getTravelTime(fromNode, toNode, 0);
-			double networkDistance = lcpTree.getDistance(nodeIndex);
+		// only settled nodes have their final (shortest) times; nodes left in the queue are skipped
+		for (int i = 0; i < settledNodes.size(); i++) {
+			int nodeIndex = settledNodes.getNodeIndex(i);
+			Node toNode = context.nodesByIndex[nodeIndex];
+			double networkTT = tree.getTime(nodeIndex).seconds() - context.departureTime;
+			double networkDistance = tree.getDistance(nodeIndex);
 			double beelineDistance = DistanceUtils.calculateDistance(fromNode, toNode);
-			double hybridTT = context.travelTimeMatrix.getTravelTime(fromNode, toNode, 0);
 
-			if (zonalTT != hybridTT && hybridTT != networkTT && networkDistance < 1000) {
-				System.out.println();
+			// the tree is independent of the matrix params, so all candidates are scored in the same pass
+			for (int c = 0; c < context.candidates.size(); c++) {
+				var travelTimeMatrix = context.candidates.get(c).matrix;
+				double zonalTT = travelTimeMatrix.getZonalMatrix().getTravelTime(fromNode, toNode);
+				double hybridTT = travelTimeMatrix.getTravelTime(fromNode, toNode);
+				worker.allStats[c].addSample(networkTT, beelineDistance, networkDistance, zonalTT, hybridTT);
 			}
 
-			allStats.addSample(new Sample(networkTT, networkDistance, zonalTT, beelineDistance, hybridTT));
+			for (int e = 0; e < context.estimators.size(); e++) {
+				double estimatedTT = context.estimators.get(e).estimator.getTravelTime(fromNode, toNode);
+				worker.estimatorStats[e].addSample(estimatedTT, networkTT);
+			}
 		}
 
-		context.allStatsAccumulator.accumulate(allStats);
+		for (AllStats allStats : worker.allStats) {
+			allStats.endOrigin();
+		}
 	}
 }
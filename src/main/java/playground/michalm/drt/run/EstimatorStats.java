@@ -0,0 +1,117 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2021 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.drt.run;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import playground.michalm.dvrp.skims.TravelTimeEstimator;
+import playground.michalm.util.stats.QuantileSketch;
+
+/**
+ * Accuracy of a {@link TravelTimeEstimator} relative to the network TT (over all samples, not binned).
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+class EstimatorStats {
+	private long count;
+	private long coveredCount;// i.e. estimated TT is not NaN
+	private double sumError;
+	private double sumSqError;
+	private double sumAbsError;
+	private final QuantileSketch absErrorSketch = CombineZonalAndBeeLineTTs.createSketch();
+
+	void addSample(double estimatedTT, double networkTT) {
+		count++;
+		if (Double.isNaN(estimatedTT)) {
+			return;
+		}
+		coveredCount++;
+		double error = estimatedTT - networkTT;
+		sumError += error;
+		sumSqError += error * error;
+		sumAbsError += Math.abs(error);
+		absErrorSketch.add(Math.abs(error));
+	}
+
+	void combine(EstimatorStats other) {
+		count += other.count;
+		coveredCount += other.coveredCount;
+		sumError += other.sumError;
+		sumSqError += other.sumSqError;
+		sumAbsError += other.sumAbsError;
+		absErrorSketch.merge(other.absErrorSketch);
+	}
+
+	void clear() {
+		count = 0;
+		coveredCount = 0;
+		sumError = 0;
+		sumSqError = 0;
+		sumAbsError = 0;
+		absErrorSketch.clear();
+	}
+
+	long getCount() {
+		return count;
+	}
+
+	// fraction of samples with a non-NaN estimate
+	double coverage() {
+		return (double)coveredCount / count;
+	}
+
+	double meanError() {
+		return sumError / coveredCount;
+	}
+
+	double rootMeanSquareError() {
+		return Math.sqrt(sumSqError / coveredCount);
+	}
+
+	double meanAbsError() {
+		return sumAbsError / coveredCount;
+	}
+
+	double absErrorQuantile(double q) {
+		return absErrorSketch.quantile(q);
+	}
+
+	void writeTo(DataOutput out) throws IOException {
+		out.writeLong(count);
+		out.writeLong(coveredCount);
+		out.writeDouble(sumError);
+		out.writeDouble(sumSqError);
+		out.writeDouble(sumAbsError);
+		absErrorSketch.writeTo(out);
+	}
+
+	void readFrom(DataInput in) throws IOException {
+		clear();
+		count = in.readLong();
+		coveredCount = in.readLong();
+		sumError = in.readDouble();
+		sumSqError = in.readDouble();
+		sumAbsError = in.readDouble();
+		absErrorSketch.merge(QuantileSketch.readFrom(in));
+	}
+}
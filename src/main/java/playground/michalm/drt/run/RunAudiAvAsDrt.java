@@ -20,14 +20,21 @@
 
 package playground.michalm.drt.run;
 
+import java.nio.file.Paths;
+
 import org.matsim.contrib.drt.run.DrtControlerCreator;
 import org.matsim.contrib.drt.run.MultiModeDrtConfigGroup;
 import org.matsim.contrib.dvrp.run.DvrpConfigGroup;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
 import org.matsim.contrib.taxi.fare.TaxiFareParams;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.Controler;
 import org.matsim.vis.otfvis.OTFVisConfigGroup;
 
+import playground.michalm.dvrp.skims.TimeSlicedTravelTimeMatrixModule;
+import playground.michalm.dvrp.skims.TravelTimeMatrixCacheModule;
+
 /**
  * @author Michal Maciejewski (michalm)
  */
@@ -36,6 +43,16 @@ public class RunAudiAvAsDrt {
 		String configFile = "D:/matsim-repos/runs-svn/audi_av_with_ridesharing/audi_av_10pct_2015_10_new/config_06k_DRT.xml";
 		Config config = ConfigUtils.loadConfig(configFile, new DvrpConfigGroup(), new MultiModeDrtConfigGroup(),
 				new OTFVisConfigGroup(), new TaxiFareParams());
-		DrtControlerCreator.createControler(config, false).run();
+		Controler controler = DrtControlerCreator.createControler(config, false);
+		if (config.network().isTimeVariantNetwork()) {
+			// (hourly) free-speed travel times vary over the day, refreshed with congested times after each iteration
+			controler.addOverridingModule(new TimeSlicedTravelTimeMatrixModule(
+					new QSimFreeSpeedTravelTime(config.qsim().getTimeStepSize()), 3600, 30, 0.05));
+		} else {
+			// the free-speed matrix is computed once per network and then loaded from the cache
+			controler.addOverridingModule(
+					new TravelTimeMatrixCacheModule(Paths.get(configFile).resolveSibling("travelTimeMatrixCache")));
+		}
+		controler.run();
 	}
 }
@@ -20,6 +20,9 @@
 
 package playground.michalm.drt.run;
 
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.Random;
 import java.util.stream.Collectors;
@@ -30,6 +33,15 @@ import org.matsim.contrib.zone.skims.DvrpTravelTimeMatrixParams;
 import org.matsim.contrib.zone.skims.TravelTimeMatrices;
 import org.matsim.core.network.NetworkUtils;
 
+import playground.michalm.dvrp.router.NodeOrdering;
+import playground.michalm.dvrp.skims.ContractionHierarchyCache;
+import playground.michalm.dvrp.skims.SparseTravelTimeMatrix;
+import playground.michalm.dvrp.skims.SquareGrid;
+import playground.michalm.dvrp.skims.TravelTimeMatrixBuilder;
+import playground.michalm.dvrp.skims.TravelTimeMatrixCache;
+import playground.michalm.dvrp.skims.TravelTimeQuantization;
+import playground.michalm.util.MemoryUtils;
+
 /**
  * @author Michal Maciejewski (michalm)
  */
@@ -69,12 +81,15 @@ public class RunMatrixOnBerlinNetwork {
 
 		int count = fromArray.length;
 
+		// the results are summed up and printed, so that the JIT cannot eliminate the lookups
+		// (see also TravelTimeMatrixQueryBenchmark in src/jmh/java)
+		long checksum = 0;
 		for (int shift = 0; shift < 1000; shift++) {
 			for (int i = 0; i < count; i++) {
 				int from = fromArray[i];
 				int to = toArray[(i + shift) % count];
-				freeSpeedTravelTimeSparseMatrix.get(from, to);
-				freeSpeedTravelTimeSparseMatrix.get(to, from);
+				checksum += freeSpeedTravelTimeSparseMatrix.get(from, to);
+				checksum += freeSpeedTravelTimeSparseMatrix.get(to, from);
 			}
 		}
 
@@ -83,8 +98,99 @@ public class RunMatrixOnBerlinNetwork {
 			for (int i = 0; i < count; i++) {
 				int from = fromArray[i];
 				int to = toArray[(i + shift) % count];
-				freeSpeedTravelTimeSparseMatrix.get(from, to);
-				freeSpeedTravelTimeSparseMatrix.get(to, from);
+				checksum += freeSpeedTravelTimeSparseMatrix.get(from, to);
+				checksum += freeSpeedTravelTimeSparseMatrix.get(to, from);
+			}
+		}
+		long t1 = System.currentTimeMillis();
+
+		double time = t1 - t0;
+		int operations = 2 * count * 5000;
+		System.out.println("Computation time: " + (time / 1000));
+		System.out.println("Queries per second: " + operations / (time / 1000));
+		System.out.println("Checksum: " + checksum);
+
+		// the same queries on the playground sparse matrix: nodes in Id.index() and Hilbert-curve order,
+		// travel times stored as ints and quantized (unsigned shorts, 1 s resolution)
+		for (var nodeOrdering : new NodeOrdering[] { null, NodeOrdering.hilbert(dvrpNetwork) }) {
+			for (var quantization : new TravelTimeQuantization[] { null, new TravelTimeQuantization(1) }) {
+				var sparseMatrix = TravelTimeMatrixBuilder.buildSparseMatrix(dvrpNetwork,
+						matrixParams.getMaxNeighborDistance(), travelTime, 0, numberOfThreads, nodeOrdering,
+						quantization);
+				System.out.println("Node ordering: " + (nodeOrdering == null ? "Id.index()" : "Hilbert")
+						+ ", quantization: " + quantization);
+				System.out.println("Memory [MB]: " + sparseMatrix.getMemoryBytes() / (1024. * 1024.));
+				measureQueries(sparseMatrix, fromArray, toArray);
+			}
+		}
+
+		// on-heap vs. off-heap storage: retained heap, duration of a full GC with the matrix alive,
+		// and GC activity during construction and queries
+		for (boolean offHeap : new boolean[] { false, true }) {
+			long heapBefore = MemoryUtils.usedHeapAfterGc();
+			long[] gcBefore = gcCountAndMillis();
+			var sparseMatrix = offHeap ?
+					TravelTimeMatrixBuilder.buildOffHeapSparseMatrix(dvrpNetwork, matrixParams.getMaxNeighborDistance(),
+							travelTime, 0, numberOfThreads, null) :
+					TravelTimeMatrixBuilder.buildSparseMatrix(dvrpNetwork, matrixParams.getMaxNeighborDistance(),
+							travelTime, 0, numberOfThreads, null, null);
+			measureQueries(sparseMatrix, fromArray, toArray);
+			long[] gcAfter = gcCountAndMillis();
+			long retainedHeap = MemoryUtils.usedHeapAfterGc() - heapBefore;
+
+			long gcStart = System.nanoTime();
+			System.gc();
+			double fullGcMillis = (System.nanoTime() - gcStart) / 1e6;
+			System.out.printf("Off-heap: %b, retained heap [MB]: %.1f, full GC [ms]: %.1f%n", sparseMatrix.isOffHeap(),
+					retainedHeap / (1024. * 1024.), fullGcMillis);
+			System.out.printf("GC during construction and queries: count: %d, time [ms]: %d%n",
+					gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+			Reference.reachabilityFence(sparseMatrix);
+		}
+
+		// zonal matrix: one tree per zone vs. many-to-many queries on a (cached) contraction hierarchy
+		var grid = new SquareGrid(dvrpNetwork.getNodes().values(), matrixParams.getCellSize());
+		long zonalStart = System.nanoTime();
+		TravelTimeMatrixBuilder.buildZonalMatrix(dvrpNetwork, grid, travelTime, 0, numberOfThreads, null, null);
+		System.out.printf("Zonal matrix (trees), build time [ms]: %.1f%n", (System.nanoTime() - zonalStart) / 1e6);
+		var hierarchy = ContractionHierarchyCache.loadOrCreateFreeSpeedHierarchy(Paths.get("travelTimeMatrixCache"),
+				dvrpNetwork, 1);
+		zonalStart = System.nanoTime();
+		TravelTimeMatrixBuilder.buildZonalMatrix(dvrpNetwork, grid, hierarchy, numberOfThreads, null);
+		System.out.printf("Zonal matrix (contraction hierarchy), build time [ms]: %.1f%n",
+				(System.nanoTime() - zonalStart) / 1e6);
+
+		// memory-mapped from the matrix cache (computed and written on the first run)
+		long loadStart = System.nanoTime();
+		var cachedSparseMatrix = TravelTimeMatrixCache.loadOrCreateFreeSpeedSparseMatrix(
+				Paths.get("travelTimeMatrixCache"), dvrpNetwork, matrixParams.getMaxNeighborDistance(),
+				numberOfThreads, 1);
+		System.out.printf("Cached sparse matrix, load time [ms]: %.1f%n", (System.nanoTime() - loadStart) / 1e6);
+		measureQueries(cachedSparseMatrix, fromArray, toArray);
+	}
+
+	private static long[] gcCountAndMillis() {
+		long[] countAndMillis = new long[2];
+		for (var gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			countAndMillis[0] += Math.max(gcBean.getCollectionCount(), 0);
+			countAndMillis[1] += Math.max(gcBean.getCollectionTime(), 0);
+		}
+		return countAndMillis;
+	}
+
+	private static void measureQueries(SparseTravelTimeMatrix sparseMatrix, int[] fromArray, int[] toArray) {
+		int count = fromArray.length;
+		long checksum = 0;
+		long t0 = 0;
+		for (int shift = 0; shift < 6000; shift++) {
+			if (shift == 1000) {// warm-up done
+				t0 = System.currentTimeMillis();
+			}
+			for (int i = 0; i < count; i++) {
+				int from = fromArray[i];
+				int to = toArray[(i + shift) % count];
+				checksum += sparseMatrix.get(from, to);
+				checksum += sparseMatrix.get(to, from);
 			}
 		}
 		long t1 = System.currentTimeMillis();
@@ -92,6 +198,7 @@ public class RunMatrixOnBerlinNetwork {
 		double time = t1 - t0;
 		int operations = 2 * count * 5000;
 		System.out.println("Computation time: " + (time / 1000));
-		System.out.println("Queries per second: " + operations / time);
+		System.out.println("Queries per second: " + operations / (time / 1000));
+		System.out.println("Checksum: " + checksum);
 	}
 }
@@ -19,6 +19,8 @@
 
 package playground.michalm.drt.run;
 
+import java.nio.file.Paths;
+
 import org.matsim.contrib.drt.analysis.zonal.DrtZonalSystemParams;
 import org.matsim.contrib.drt.optimizer.rebalancing.RebalancingParams;
 import org.matsim.contrib.drt.run.DrtConfigGroup;
@@ -30,6 +32,8 @@ import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.controler.Controler;
 import org.matsim.vis.otfvis.OTFVisConfigGroup;
 
+import playground.michalm.dvrp.skims.TravelTimeMatrixCacheModule;
+
 public class RunSharedTaxiMielec {
 	public static void main(String[] args) {
 		String configFile = "scenarios/mielec_2014_02/mielec_drt_config.xml";
@@ -41,6 +45,9 @@ public class RunSharedTaxiMielec {
 				new OTFVisConfigGroup());
 
 		Controler controler = DrtControlerCreator.createControler(config, otfvis);
+		// the free-speed matrix is computed once per network and then loaded from the cache
+		controler.addOverridingModule(
+				new TravelTimeMatrixCacheModule(Paths.get(configFile).resolveSibling("travelTimeMatrixCache")));
 
 		controler.run();
 	}
@@ -0,0 +1,85 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import java.util.Arrays;
+
+import org.matsim.core.utils.misc.OptionalTime;
+
+/**
+ * Search state shared by the trees over a {@link CompactGraph}: cost, time and distance of the nodes reached in the
+ * last search, indexed by graph positions. The state is reset in constant time by incrementing the iteration id.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+abstract class AbstractCompactLeastCostPathTree implements ShortestPathTree {
+	final CompactGraph graph;
+	final NodeOrdering nodeOrdering;
+
+	// (cost, time, distance) by position, interleaved, so that relaxing a link touches a single cache line
+	final double[] data;
+	final int[] iterationIds;// entries in data are valid only if iterationIds[position] == currentIteration
+	int currentIteration = 0;
+
+	AbstractCompactLeastCostPathTree(CompactGraph graph) {
+		this.graph = graph;
+		this.nodeOrdering = graph.getNodeOrdering();
+		data = new double[3 * graph.getNodeCount()];
+		iterationIds = new int[graph.getNodeCount()];
+	}
+
+	// invalidates the data of the previous search
+	void startIteration() {
+		if (++currentIteration == Integer.MAX_VALUE) {
+			Arrays.fill(iterationIds, 0);
+			currentIteration = 1;
+		}
+	}
+
+	void setData(int node, double cost, double time, double distance) {
+		data[3 * node] = cost;
+		data[3 * node + 1] = time;
+		data[3 * node + 2] = distance;
+		iterationIds[node] = currentIteration;
+	}
+
+	boolean isReached(int node) {
+		return iterationIds[node] == currentIteration;
+	}
+
+	@Override
+	public OptionalTime getTime(int nodeIndex) {
+		int node = nodeOrdering.getPosition(nodeIndex);
+		return isReached(node) ? OptionalTime.defined(data[3 * node + 1]) : OptionalTime.undefined();
+	}
+
+	@Override
+	public double getCost(int nodeIndex) {
+		int node = nodeOrdering.getPosition(nodeIndex);
+		return isReached(node) ? data[3 * node] : Double.POSITIVE_INFINITY;
+	}
+
+	@Override
+	public double getDistance(int nodeIndex) {
+		int node = nodeOrdering.getPosition(nodeIndex);
+		return isReached(node) ? data[3 * node + 2] : Double.POSITIVE_INFINITY;
+	}
+}
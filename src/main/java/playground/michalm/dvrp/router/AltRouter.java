@@ -0,0 +1,111 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import java.util.Arrays;
+
+import org.matsim.core.router.speedy.SpeedyGraph;
+import org.matsim.core.router.speedy.SpeedyGraph.LinkIterator;
+
+/**
+ * Point-to-point A* router on a {@link SpeedyGraph} with {@link Landmarks} lower bounds (ALT). Meant for node pairs
+ * beyond the neighbourhood covered by the sparse travel time matrix, where a bounded Dijkstra would settle a large
+ * part of the network.
+ * <p>
+ * Uses the link travel times of the landmarks (evaluated at time 0). The results are exact.
+ * <p>
+ * Not thread-safe: use one instance per thread (the graph and landmarks can be shared).
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class AltRouter {
+	private final LinkIterator outLinks;
+	private final Landmarks landmarks;
+
+	private final double[] times;// by node index
+	private final int[] iterationIds;// entries in times are valid only if iterationIds[node] == currentIteration
+	private int currentIteration = 0;
+	private final IndexedMinHeap heap;
+	private int settledNodeCount;
+
+	public AltRouter(SpeedyGraph graph, Landmarks landmarks) {
+		this.outLinks = graph.getOutLinkIterator();
+		this.landmarks = landmarks;
+
+		times = new double[graph.getNodeCount()];
+		iterationIds = new int[graph.getNodeCount()];
+		heap = new IndexedMinHeap(graph.getNodeCount());
+	}
+
+	/**
+	 * @return travel time between the nodes (given as {@link org.matsim.api.core.v01.Id#index()}es) or
+	 * {@link Double#POSITIVE_INFINITY} if the destination is unreachable
+	 */
+	public double calcTravelTime(int from, int to) {
+		if (++currentIteration == Integer.MAX_VALUE) {
+			Arrays.fill(iterationIds, 0);
+			currentIteration = 1;
+		}
+		heap.clear();
+		settledNodeCount = 0;
+
+		times[from] = 0;
+		iterationIds[from] = currentIteration;
+		heap.insert(from, landmarks.getLowerBound(from, to));
+
+		while (!heap.isEmpty()) {
+			int node = heap.poll();
+			settledNodeCount++;
+			double time = times[node];
+			if (node == to) {
+				return time;
+			}
+
+			outLinks.reset(node);
+			while (outLinks.next()) {
+				int toNode = outLinks.getToNodeIndex();
+				double newTime = time + landmarks.getLinkTime(outLinks.getLinkIndex());
+				if (iterationIds[toNode] != currentIteration) {
+					times[toNode] = newTime;
+					iterationIds[toNode] = currentIteration;
+					heap.insert(toNode, newTime + landmarks.getLowerBound(toNode, to));
+				} else if (newTime < times[toNode]) {
+					times[toNode] = newTime;
+					double key = newTime + landmarks.getLowerBound(toNode, to);
+					// the bounds are consistent up to rounding errors, so settled nodes are reopened (if ever)
+					if (heap.contains(toNode)) {
+						heap.decreaseKey(toNode, key);
+					} else {
+						heap.insert(toNode, key);
+					}
+				}
+			}
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return number of nodes settled by the last query (a measure of the search space)
+	 */
+	public int getSettledNodeCount() {
+		return settledNodeCount;
+	}
+}
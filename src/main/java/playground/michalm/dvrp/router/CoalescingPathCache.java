@@ -0,0 +1,237 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.router.util.LeastCostPathCalculator.Path;
+
+import com.google.common.base.Preconditions;
+
+import playground.michalm.dvrp.router.SpeculativePathService.PathFuture;
+
+/**
+ * Coalesces path requests submitted to a {@link SpeculativePathService}: requests with the same (from link, to link,
+ * departure time bin) share one computation. This is typical within one re-optimisation (e.g. idle vehicles at the
+ * same taxi rank, repeated insertion checks). The path is computed for the beginning of the time bin.
+ * <p>
+ * Each request gets its own {@link Subscription}. Concurrent requests subscribe to the in-flight computation, which is
+ * cancelled only after all of its subscribers have cancelled. Computed paths are kept in an LRU cache of bounded size,
+ * so later requests are answered without any computation. Failed computations (no path) are not cached.
+ * <p>
+ * Thread-safe. All bookkeeping is done under one lock; the paths are computed outside of it.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class CoalescingPathCache {
+	private record PathKey(Id<Link> fromLinkId, Id<Link> toLinkId, int timeBin) {
+	}
+
+	private static final class SharedRequest {
+		private final PathKey key;
+		private PathFuture pathFuture;
+		private int subscriberCount = 1;
+
+		private SharedRequest(PathKey key) {
+			this.key = key;
+		}
+	}
+
+	private final SpeculativePathService pathService;
+	private final double timeBinSize;
+
+	private final Map<PathKey, SharedRequest> inFlightRequests = new HashMap<>();
+	private final Map<PathKey, PathFuture> computedPaths;// LRU
+
+	private long requestCount;
+	private long computedPathHitCount;
+	private long inFlightHitCount;
+	private long evictionCount;
+
+	public CoalescingPathCache(SpeculativePathService pathService, double timeBinSize, int maxCachedPaths) {
+		Preconditions.checkArgument(timeBinSize > 0, "timeBinSize must be positive");
+		Preconditions.checkArgument(maxCachedPaths >= 0, "maxCachedPaths must not be negative");
+		this.pathService = pathService;
+		this.timeBinSize = timeBinSize;
+		computedPaths = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<PathKey, PathFuture> eldest) {
+				if (size() > maxCachedPaths) {
+					evictionCount++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @param departureTime time of leaving the to-node of {@code fromLink}; only its time bin matters
+	 */
+	public Subscription subscribe(Link fromLink, Link toLink, double departureTime) {
+		int timeBin = (int)(departureTime / timeBinSize);
+		var key = new PathKey(fromLink.getId(), toLink.getId(), timeBin);
+		synchronized (this) {
+			requestCount++;
+			PathFuture computedPath = computedPaths.get(key);
+			if (computedPath != null) {
+				computedPathHitCount++;
+				return new Subscription(computedPath, null);
+			}
+
+			SharedRequest inFlightRequest = inFlightRequests.get(key);
+			if (inFlightRequest != null) {
+				inFlightHitCount++;
+				inFlightRequest.subscriberCount++;
+				return new Subscription(inFlightRequest.pathFuture, inFlightRequest);
+			}
+
+			var request = new SharedRequest(key);
+			inFlightRequests.put(key, request);
+			// under the lock, so onDone (which may be called before submit() returns) sees the request initialised
+			request.pathFuture = pathService.submit(fromLink, toLink, timeBin * timeBinSize,
+					pathFuture -> onDone(request));
+			return new Subscription(request.pathFuture, request);
+		}
+	}
+
+	private synchronized void onDone(SharedRequest request) {
+		inFlightRequests.remove(request.key, request);
+		if (isComputed(request.pathFuture)) {
+			computedPaths.put(request.key, request.pathFuture);
+		}
+	}
+
+	private static boolean isComputed(PathFuture donePathFuture) {
+		if (donePathFuture.isCancelled()) {
+			return false;
+		}
+		try {
+			donePathFuture.get();// does not block
+			return true;
+		} catch (ExecutionException e) {
+			return false;// no path
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private synchronized boolean unsubscribe(SharedRequest request) {
+		if (--request.subscriberCount > 0) {
+			return false;
+		}
+		inFlightRequests.remove(request.key, request);
+		return request.pathFuture.cancel(false);
+	}
+
+	public synchronized long getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * @return number of requests answered with an already computed path
+	 */
+	public synchronized long getComputedPathHitCount() {
+		return computedPathHitCount;
+	}
+
+	/**
+	 * @return number of requests that joined an in-flight computation
+	 */
+	public synchronized long getInFlightHitCount() {
+		return inFlightHitCount;
+	}
+
+	/**
+	 * @return share of requests that did not trigger a new computation
+	 */
+	public synchronized double getHitRate() {
+		return requestCount == 0 ? 0 : (double)(computedPathHitCount + inFlightHitCount) / requestCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public synchronized int getCachedPathCount() {
+		return computedPaths.size();
+	}
+
+	public synchronized void printStats() {
+		System.out.printf("Path requests: %d, computed path hits: %d, in-flight hits: %d (hit rate: %.1f%%),"
+						+ " cached paths: %d, evictions: %d%n", requestCount, computedPathHitCount, inFlightHitCount,
+				100 * getHitRate(), computedPaths.size(), evictionCount);
+	}
+
+	/**
+	 * One request's view of a (possibly shared) path computation.
+	 */
+	public final class Subscription {
+		private final PathFuture pathFuture;
+		private final @Nullable SharedRequest request;// null if subscribed to a computed path
+		private boolean cancelled;
+
+		private Subscription(PathFuture pathFuture, @Nullable SharedRequest request) {
+			this.pathFuture = pathFuture;
+			this.request = request;
+		}
+
+		/**
+		 * Same as {@link PathFuture#getPath()}: blocks only if the path is not ready yet.
+		 *
+		 * @throws CancellationException if this subscription has been cancelled
+		 */
+		public Path getPath() {
+			synchronized (CoalescingPathCache.this) {
+				if (cancelled) {
+					throw new CancellationException();
+				}
+			}
+			return pathFuture.getPath();
+		}
+
+		public boolean isDone() {
+			return pathFuture.isDone();
+		}
+
+		/**
+		 * Unsubscribes; the shared computation is cancelled only if there are no other subscribers.
+		 *
+		 * @return true if this call cancelled the shared computation
+		 */
+		public boolean cancel() {
+			synchronized (CoalescingPathCache.this) {
+				if (cancelled) {
+					return false;
+				}
+				cancelled = true;
+				return request != null && unsubscribe(request);
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+/**
+ * Forward star representation of a network, with nodes numbered according to a {@link NodeOrdering}. The out-links of
+ * the node at position {@code p} are {@code [getOutLinkStart(p), getOutLinkEnd(p))}.
+ * <p>
+ * In a reverse graph ({@link #createReverseGraph(Network, NodeOrdering)}), the out-links of a node are its in-links
+ * in the network (leading to their from-nodes), so a tree search computes costs to, not from, the start node. This is
+ * only valid for time-independent link costs.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class CompactGraph {
+	private final NodeOrdering nodeOrdering;
+	private final int[] outLinkStarts;// by position
+	private final int[] linkToNodes;// positions
+	private final double[] linkLengths;
+	private final Link[] links;
+
+	public static CompactGraph createReverseGraph(Network network, NodeOrdering nodeOrdering) {
+		return new CompactGraph(network, nodeOrdering, true);
+	}
+
+	public CompactGraph(Network network, NodeOrdering nodeOrdering) {
+		this(network, nodeOrdering, false);
+	}
+
+	private CompactGraph(Network network, NodeOrdering nodeOrdering, boolean reverse) {
+		this.nodeOrdering = nodeOrdering;
+		int nodeCount = nodeOrdering.getNodeCount();
+		int linkCount = network.getLinks().size();
+
+		outLinkStarts = new int[nodeCount + 1];
+		linkToNodes = new int[linkCount];
+		linkLengths = new double[linkCount];
+		links = new Link[linkCount];
+
+		int idx = 0;
+		for (int position = 0; position < nodeCount; position++) {
+			outLinkStarts[position] = idx;
+			Node node = network.getNodes().get(Id.get(nodeOrdering.getNodeIndex(position), Node.class));
+			for (Link link : (reverse ? node.getInLinks() : node.getOutLinks()).values()) {
+				Node toNode = reverse ? link.getFromNode() : link.getToNode();
+				linkToNodes[idx] = nodeOrdering.getPosition(toNode.getId().index());
+				linkLengths[idx] = link.getLength();
+				links[idx] = link;
+				idx++;
+			}
+		}
+		outLinkStarts[nodeCount] = idx;
+	}
+
+	public NodeOrdering getNodeOrdering() {
+		return nodeOrdering;
+	}
+
+	public int getNodeCount() {
+		return nodeOrdering.getNodeCount();
+	}
+
+	public int getLinkCount() {
+		return links.length;
+	}
+
+	public int getOutLinkStart(int position) {
+		return outLinkStarts[position];
+	}
+
+	public int getOutLinkEnd(int position) {
+		return outLinkStarts[position + 1];
+	}
+
+	public int getLinkToNode(int link) {
+		return linkToNodes[link];
+	}
+
+	public double getLinkLength(int link) {
+		return linkLengths[link];
+	}
+
+	public Link getLink(int link) {
+		return links[link];
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.router.speedy.LeastCostPathTree.StopCriterion;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * Dijkstra over a {@link CompactGraph}; same semantics as {@link org.matsim.core.router.speedy.LeastCostPathTree}
+ * (the stop criterion is checked for each node polled from the queue). Node indices passed to and returned from this
+ * class are {@link org.matsim.api.core.v01.Id#index()}es; internally, all arrays are indexed by graph positions.
+ * <p>
+ * Not thread-safe: use one instance per thread.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class CompactLeastCostPathTree extends AbstractCompactLeastCostPathTree {
+	private final TravelTime travelTime;
+	private final TravelDisutility travelDisutility;
+
+	private final int[] comingFromLinks;// by position; -1 for the start node
+	private final IndexedMinHeap heap;
+
+	public CompactLeastCostPathTree(CompactGraph graph, TravelTime travelTime, TravelDisutility travelDisutility) {
+		super(graph);
+		this.travelTime = travelTime;
+		this.travelDisutility = travelDisutility;
+		comingFromLinks = new int[graph.getNodeCount()];
+		heap = new IndexedMinHeap(graph.getNodeCount());
+	}
+
+	@Override
+	public void calculate(int startNodeIndex, double startTime, StopCriterion stopCriterion) {
+		startIteration();
+		heap.clear();
+
+		int start = nodeOrdering.getPosition(startNodeIndex);
+		setData(start, -1, 0, startTime, 0);
+		heap.insert(start, 0);
+
+		while (!heap.isEmpty()) {
+			int node = heap.poll();
+			double cost = data[3 * node];
+			double time = data[3 * node + 1];
+			double distance = data[3 * node + 2];
+			if (stopCriterion.stop(nodeOrdering.getNodeIndex(node), time, cost, distance, startTime)) {
+				break;
+			}
+
+			for (int l = graph.getOutLinkStart(node), end = graph.getOutLinkEnd(node); l < end; l++) {
+				int toNode = graph.getLinkToNode(l);
+				Link link = graph.getLink(l);
+				double newCost = cost + travelDisutility.getLinkTravelDisutility(link, time, null, null);
+				if (isReached(toNode)) {
+					if (newCost < data[3 * toNode]) {
+						double newTime = time + travelTime.getLinkTravelTime(link, time, null, null);
+						setData(toNode, l, newCost, newTime, distance + graph.getLinkLength(l));
+						heap.decreaseKey(toNode, newCost);
+					}
+				} else {
+					double newTime = time + travelTime.getLinkTravelTime(link, time, null, null);
+					setData(toNode, l, newCost, newTime, distance + graph.getLinkLength(l));
+					heap.insert(toNode, newCost);
+				}
+			}
+		}
+	}
+
+	private void setData(int node, int comingFromLink, double cost, double time, double distance) {
+		comingFromLinks[node] = comingFromLink;
+		setData(node, cost, time, distance);
+	}
+
+	/**
+	 * @return last link of the path to the node; null for the start node and nodes not reached in the last search
+	 */
+	public @Nullable Link getComingFromLink(int nodeIndex) {
+		int node = nodeOrdering.getPosition(nodeIndex);
+		return isReached(node) && comingFromLinks[node] >= 0 ?
+				graph.getLink(comingFromLinks[node]) :
+				null;
+	}
+}
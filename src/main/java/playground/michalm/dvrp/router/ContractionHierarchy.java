@@ -0,0 +1,168 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.util.TravelTime;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Contraction hierarchy (Geisberger et al. 2008) for time-independent link travel times (e.g. free-speed), used by
+ * {@link ManyToManyQuery}. Only costs are kept (shortcuts are not unpacked into paths).
+ * <p>
+ * Internally, nodes are numbered by their positions in {@link NodeOrdering#byIdIndex(Network)}. The node ids are
+ * persisted with the hierarchy, so a hierarchy read from a file can be used in a JVM with different
+ * {@link Id#index()}es.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class ContractionHierarchy {
+	private static final int MAGIC = 0x43484348;
+	private static final int VERSION = 1;
+
+	// forward star: edges of node v are in [starts[v], starts[v + 1])
+	record Csr(int[] starts, int[] targets, double[] costs) {
+	}
+
+	/**
+	 * Link travel times are evaluated at time 0. The links are read directly from the network: the builder needs a
+	 * mutable adjacency (shortcuts are added as nodes are contracted), so an immutable {@code SpeedyGraph} would only
+	 * be copied.
+	 */
+	public static ContractionHierarchy build(Network network, TravelTime travelTime) {
+		var nodeOrdering = NodeOrdering.byIdIndex(network);
+		var builder = new ContractionHierarchyBuilder(nodeOrdering.getNodeCount());
+		for (Link link : network.getLinks().values()) {
+			builder.addEdge(nodeOrdering.getPosition(link.getFromNode().getId().index()),
+					nodeOrdering.getPosition(link.getToNode().getId().index()),
+					travelTime.getLinkTravelTime(link, 0, null, null));
+		}
+
+		String[] nodeIds = new String[nodeOrdering.getNodeCount()];
+		for (int v = 0; v < nodeIds.length; v++) {
+			nodeIds[v] = Id.get(nodeOrdering.getNodeIndex(v), Node.class).toString();
+		}
+		return builder.contract(nodeIds);
+	}
+
+	private final String[] nodeIds;
+	private final int[] nodeByNodeIndex;// -1 for non-network nodes
+	private final Csr upwardGraph;// edges v -> w, rank(w) > rank(v)
+	private final Csr downwardGraph;// reversed edges u -> v (stored at v), rank(u) > rank(v)
+
+	ContractionHierarchy(String[] nodeIds, Csr upwardGraph, Csr downwardGraph) {
+		this.nodeIds = nodeIds;
+		this.upwardGraph = upwardGraph;
+		this.downwardGraph = downwardGraph;
+
+		nodeByNodeIndex = new int[Id.getNumberOfIds(Node.class)];
+		Arrays.fill(nodeByNodeIndex, -1);
+		for (int v = 0; v < nodeIds.length; v++) {
+			nodeByNodeIndex[Id.createNodeId(nodeIds[v]).index()] = v;
+		}
+	}
+
+	public int getNodeCount() {
+		return nodeIds.length;
+	}
+
+	public int getEdgeCount() {
+		return upwardGraph.targets.length + downwardGraph.targets.length;
+	}
+
+	/**
+	 * @return internal node number of the node with the given {@link Id#index()}
+	 */
+	int getNode(int nodeIndex) {
+		int node = nodeIndex < nodeByNodeIndex.length ? nodeByNodeIndex[nodeIndex] : -1;
+		Preconditions.checkArgument(node >= 0, "Node (index=%s) not in the hierarchy", nodeIndex);
+		return node;
+	}
+
+	Csr getUpwardGraph() {
+		return upwardGraph;
+	}
+
+	Csr getDownwardGraph() {
+		return downwardGraph;
+	}
+
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(nodeIds.length);
+		for (int v = 0; v < nodeIds.length; v++) {
+			out.writeUTF(nodeIds[v]);
+		}
+		writeCsr(out, upwardGraph);
+		writeCsr(out, downwardGraph);
+	}
+
+	private static void writeCsr(DataOutput out, Csr csr) throws IOException {
+		out.writeInt(csr.targets.length);
+		for (int v = 0; v + 1 < csr.starts.length; v++) {
+			out.writeInt(csr.starts[v + 1] - csr.starts[v]);
+		}
+		for (int i = 0; i < csr.targets.length; i++) {
+			out.writeInt(csr.targets[i]);
+			out.writeDouble(csr.costs[i]);
+		}
+	}
+
+	/**
+	 * All nodes of the hierarchy must be in the network.
+	 */
+	public static ContractionHierarchy readFrom(DataInput in, Network network) throws IOException {
+		Preconditions.checkState(in.readInt() == MAGIC && in.readInt() == VERSION, "Not a contraction hierarchy");
+		int nodeCount = in.readInt();
+		String[] nodeIds = new String[nodeCount];
+		for (int v = 0; v < nodeCount; v++) {
+			nodeIds[v] = in.readUTF();
+			Preconditions.checkState(network.getNodes().containsKey(Id.createNodeId(nodeIds[v])),
+					"Node %s not in the network", nodeIds[v]);
+		}
+		return new ContractionHierarchy(nodeIds, readCsr(in, nodeCount), readCsr(in, nodeCount));
+	}
+
+	private static Csr readCsr(DataInput in, int nodeCount) throws IOException {
+		int edgeCount = in.readInt();
+		int[] starts = new int[nodeCount + 1];
+		for (int v = 0; v < nodeCount; v++) {
+			starts[v + 1] = starts[v] + in.readInt();
+		}
+		int[] targets = new int[edgeCount];
+		double[] costs = new double[edgeCount];
+		for (int i = 0; i < edgeCount; i++) {
+			targets[i] = in.readInt();
+			costs[i] = in.readDouble();
+		}
+		return new Csr(starts, targets, costs);
+	}
+}
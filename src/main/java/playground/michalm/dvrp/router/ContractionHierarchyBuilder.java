@@ -0,0 +1,289 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Node contraction for {@link ContractionHierarchy}. Nodes are contracted in the order of increasing priority (edge
+ * difference plus the number of contracted neighbours), updated lazily and for the neighbours of each contracted node.
+ * Witness searches are limited to {@link #WITNESS_SETTLED_NODE_LIMIT} settled nodes, which may only add superfluous
+ * shortcuts.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+final class ContractionHierarchyBuilder {
+	static final int WITNESS_SETTLED_NODE_LIMIT = 500;
+
+	// edges of the remaining (not yet contracted) graph
+	private final EdgeList[] outEdges;
+	private final EdgeList[] inEdges;
+	private final boolean[] contracted;
+	private final int[] contractedNeighborCounts;
+	private final int[] priorities;
+
+	// edges to nodes contracted later (higher-ranked): upward (v -> w) and downward reversed (u -> v stored at v)
+	private final EdgeList[] upwardEdges;
+	private final EdgeList[] downwardEdges;
+
+	private final double[] witnessCosts;
+	private final int[] witnessIterationIds;
+	private int witnessIteration = 0;
+	private final IndexedMinHeap witnessHeap;
+
+	ContractionHierarchyBuilder(int nodeCount) {
+		outEdges = new EdgeList[nodeCount];
+		inEdges = new EdgeList[nodeCount];
+		upwardEdges = new EdgeList[nodeCount];
+		downwardEdges = new EdgeList[nodeCount];
+		for (int v = 0; v < nodeCount; v++) {
+			outEdges[v] = new EdgeList();
+			inEdges[v] = new EdgeList();
+			upwardEdges[v] = new EdgeList();
+			downwardEdges[v] = new EdgeList();
+		}
+		contracted = new boolean[nodeCount];
+		contractedNeighborCounts = new int[nodeCount];
+		priorities = new int[nodeCount];
+
+		witnessCosts = new double[nodeCount];
+		witnessIterationIds = new int[nodeCount];
+		witnessHeap = new IndexedMinHeap(nodeCount);
+	}
+
+	// parallel edges are merged (the cheapest one is kept), loops are skipped
+	void addEdge(int from, int to, double cost) {
+		if (from == to) {
+			return;
+		}
+		int i = outEdges[from].indexOf(to);
+		if (i < 0) {
+			outEdges[from].add(to, cost);
+			inEdges[to].add(from, cost);
+		} else if (cost < outEdges[from].costs[i]) {
+			outEdges[from].costs[i] = cost;
+			inEdges[to].costs[inEdges[to].indexOf(from)] = cost;
+		}
+	}
+
+	ContractionHierarchy contract(String[] nodeIds) {
+		var queue = new PriorityQueue<Long>();
+		for (int v = 0; v < contracted.length; v++) {
+			priorities[v] = calcPriority(v);
+			queue.add(queueKey(v));
+		}
+
+		while (!queue.isEmpty()) {
+			long key = queue.poll();
+			int v = (int)key;
+			if (contracted[v] || (int)(key >> 32) != priorities[v]) {
+				continue;// stale entry
+			}
+
+			// lazy update: re-insert if the node is no longer the minimum
+			int priority = calcPriority(v);
+			if (priority > priorities[v]) {
+				priorities[v] = priority;
+				Long next = queue.peek();
+				if (next != null && priority > (int)(next >> 32)) {
+					queue.add(queueKey(v));
+					continue;
+				}
+			}
+
+			contractNode(v);
+
+			updateNeighbor(queue, upwardEdges[v]);
+			updateNeighbor(queue, downwardEdges[v]);
+		}
+
+		return new ContractionHierarchy(nodeIds, toCsr(upwardEdges), toCsr(downwardEdges));
+	}
+
+	private void updateNeighbor(PriorityQueue<Long> queue, EdgeList edges) {
+		for (int i = 0; i < edges.size; i++) {
+			int neighbor = edges.targets[i];
+			if (!contracted[neighbor]) {
+				contractedNeighborCounts[neighbor]++;
+				priorities[neighbor] = calcPriority(neighbor);
+				queue.add(queueKey(neighbor));
+			}
+		}
+	}
+
+	// priority in the upper 32 bits, node in the lower 32 bits
+	private long queueKey(int v) {
+		return ((long)priorities[v] << 32) | v;
+	}
+
+	private int calcPriority(int v) {
+		int edgeDifference = processShortcuts(v, false) - inEdges[v].size - outEdges[v].size;
+		return edgeDifference + contractedNeighborCounts[v];
+	}
+
+	private void contractNode(int v) {
+		EdgeList out = outEdges[v];
+		EdgeList in = inEdges[v];
+		for (int i = 0; i < out.size; i++) {
+			upwardEdges[v].add(out.targets[i], out.costs[i]);
+		}
+		for (int i = 0; i < in.size; i++) {
+			downwardEdges[v].add(in.targets[i], in.costs[i]);
+		}
+
+		processShortcuts(v, true);
+
+		contracted[v] = true;
+		for (int i = 0; i < out.size; i++) {
+			inEdges[out.targets[i]].remove(v);
+		}
+		for (int i = 0; i < in.size; i++) {
+			outEdges[in.targets[i]].remove(v);
+		}
+		outEdges[v] = null;
+		inEdges[v] = null;
+	}
+
+	/**
+	 * @return number of shortcuts u -> w needed for paths u -> v -> w without a witness (added if {@code add} is true)
+	 */
+	private int processShortcuts(int v, boolean add) {
+		EdgeList in = inEdges[v];
+		EdgeList out = outEdges[v];
+		int shortcutCount = 0;
+		for (int i = 0; i < in.size; i++) {
+			int u = in.targets[i];
+			double costUV = in.costs[i];
+			double maxCost = Double.NEGATIVE_INFINITY;
+			for (int j = 0; j < out.size; j++) {
+				if (out.targets[j] != u) {
+					maxCost = Math.max(maxCost, costUV + out.costs[j]);
+				}
+			}
+			if (maxCost == Double.NEGATIVE_INFINITY) {
+				continue;
+			}
+
+			searchWitnesses(u, v, maxCost);
+			for (int j = 0; j < out.size; j++) {
+				int w = out.targets[j];
+				double cost = costUV + out.costs[j];
+				if (w != u && getWitnessCost(w) > cost) {
+					shortcutCount++;
+					if (add) {
+						addEdge(u, w, cost);
+					}
+				}
+			}
+		}
+		return shortcutCount;
+	}
+
+	// Dijkstra from u in the remaining graph without v
+	private void searchWitnesses(int u, int v, double maxCost) {
+		if (++witnessIteration == Integer.MAX_VALUE) {
+			Arrays.fill(witnessIterationIds, 0);
+			witnessIteration = 1;
+		}
+		witnessHeap.clear();
+		witnessCosts[u] = 0;
+		witnessIterationIds[u] = witnessIteration;
+		witnessHeap.insert(u, 0);
+
+		int settledCount = 0;
+		while (!witnessHeap.isEmpty() && settledCount++ < WITNESS_SETTLED_NODE_LIMIT) {
+			int node = witnessHeap.poll();
+			double cost = witnessCosts[node];
+			if (cost > maxCost) {
+				break;
+			}
+
+			EdgeList edges = outEdges[node];
+			for (int i = 0; i < edges.size; i++) {
+				int toNode = edges.targets[i];
+				if (toNode == v) {
+					continue;
+				}
+				double newCost = cost + edges.costs[i];
+				if (witnessIterationIds[toNode] != witnessIteration) {
+					witnessCosts[toNode] = newCost;
+					witnessIterationIds[toNode] = witnessIteration;
+					witnessHeap.insert(toNode, newCost);
+				} else if (newCost < witnessCosts[toNode]) {
+					witnessCosts[toNode] = newCost;
+					witnessHeap.decreaseKey(toNode, newCost);
+				}
+			}
+		}
+	}
+
+	// tentative costs are costs of existing paths, so they are valid witnesses as well
+	private double getWitnessCost(int node) {
+		return witnessIterationIds[node] == witnessIteration ? witnessCosts[node] : Double.POSITIVE_INFINITY;
+	}
+
+	private static ContractionHierarchy.Csr toCsr(EdgeList[] edgeLists) {
+		int[] starts = new int[edgeLists.length + 1];
+		for (int v = 0; v < edgeLists.length; v++) {
+			starts[v + 1] = starts[v] + edgeLists[v].size;
+		}
+		int[] targets = new int[starts[edgeLists.length]];
+		double[] costs = new double[targets.length];
+		for (int v = 0; v < edgeLists.length; v++) {
+			System.arraycopy(edgeLists[v].targets, 0, targets, starts[v], edgeLists[v].size);
+			System.arraycopy(edgeLists[v].costs, 0, costs, starts[v], edgeLists[v].size);
+		}
+		return new ContractionHierarchy.Csr(starts, targets, costs);
+	}
+
+	private static final class EdgeList {
+		private int[] targets = new int[4];
+		private double[] costs = new double[4];
+		private int size;
+
+		private void add(int target, double cost) {
+			if (size == targets.length) {
+				targets = Arrays.copyOf(targets, 2 * size);
+				costs = Arrays.copyOf(costs, 2 * size);
+			}
+			targets[size] = target;
+			costs[size] = cost;
+			size++;
+		}
+
+		private int indexOf(int target) {
+			for (int i = 0; i < size; i++) {
+				if (targets[i] == target) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private void remove(int target) {
+			int i = indexOf(target);
+			size--;
+			targets[i] = targets[size];
+			costs[i] = costs[size];
+		}
+	}
+}
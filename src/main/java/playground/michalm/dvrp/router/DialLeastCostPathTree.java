@@ -0,0 +1,153 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import java.util.Arrays;
+
+import org.matsim.core.router.speedy.LeastCostPathTree.StopCriterion;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Dial's variant of {@link CompactLeastCostPathTree}: a circular bucket queue (one bucket per integral cost value, with
+ * {@code maxLinkCost + 1} buckets) replaces the binary heap, so queue operations take constant time. Applicable if link
+ * costs are non-negative integers and do not depend on time, e.g. {@code TimeAsTravelDisutility} with
+ * {@code QSimFreeSpeedTravelTime(1)}; see {@link #hasIntegralCosts(CompactGraph, TravelDisutility)}. Link costs and
+ * times are evaluated once, at construction.
+ * <p>
+ * Costs and times are identical to {@link CompactLeastCostPathTree}. Nodes of equal cost may be settled in a different
+ * order, so distances may differ if there are several least-cost paths.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class DialLeastCostPathTree extends AbstractCompactLeastCostPathTree {
+	static final int MAX_BUCKET_COUNT = 1 << 20;
+
+	/**
+	 * @return true if link costs (evaluated at time 0) are non-negative integers of at most {@code MAX_BUCKET_COUNT - 1}
+	 */
+	public static boolean hasIntegralCosts(CompactGraph graph, TravelDisutility travelDisutility) {
+		for (int l = 0; l < graph.getLinkCount(); l++) {
+			double cost = travelDisutility.getLinkTravelDisutility(graph.getLink(l), 0, null, null);
+			if (!(cost >= 0 && cost < MAX_BUCKET_COUNT && cost == Math.rint(cost))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private final int[] linkCosts;
+	private final double[] linkTimes;
+
+	// circular bucket queue: each bucket is a doubly-linked list of nodes (positions), -1 terminated
+	private final int[] bucketHeads;
+	private final int[] nextNodes;
+	private final int[] previousNodes;
+
+	public DialLeastCostPathTree(CompactGraph graph, TravelTime travelTime, TravelDisutility travelDisutility) {
+		super(graph);
+		linkCosts = new int[graph.getLinkCount()];
+		linkTimes = new double[graph.getLinkCount()];
+		int maxLinkCost = 0;
+		for (int l = 0; l < linkCosts.length; l++) {
+			double cost = travelDisutility.getLinkTravelDisutility(graph.getLink(l), 0, null, null);
+			Preconditions.checkArgument(cost >= 0 && cost < MAX_BUCKET_COUNT && cost == Math.rint(cost),
+					"Link cost must be a non-negative integer less than %s: %s", MAX_BUCKET_COUNT, cost);
+			linkCosts[l] = (int)cost;
+			linkTimes[l] = travelTime.getLinkTravelTime(graph.getLink(l), 0, null, null);
+			maxLinkCost = Math.max(maxLinkCost, linkCosts[l]);
+		}
+
+		bucketHeads = new int[maxLinkCost + 1];
+		nextNodes = new int[graph.getNodeCount()];
+		previousNodes = new int[graph.getNodeCount()];
+	}
+
+	@Override
+	public void calculate(int startNodeIndex, double startTime, StopCriterion stopCriterion) {
+		startIteration();
+		Arrays.fill(bucketHeads, -1);
+
+		int start = nodeOrdering.getPosition(startNodeIndex);
+		setData(start, 0, startTime, 0);
+		addToBucket(start, 0);
+		int queueSize = 1;
+		int currentCost = 0;
+
+		while (queueSize > 0) {
+			int bucket;
+			while (bucketHeads[bucket = currentCost % bucketHeads.length] < 0) {
+				currentCost++;
+			}
+			int node = bucketHeads[bucket];
+			removeFromBucket(node, bucket);
+			queueSize--;
+
+			double time = data[3 * node + 1];
+			double distance = data[3 * node + 2];
+			if (stopCriterion.stop(nodeOrdering.getNodeIndex(node), time, currentCost, distance, startTime)) {
+				break;
+			}
+
+			for (int l = graph.getOutLinkStart(node), end = graph.getOutLinkEnd(node); l < end; l++) {
+				int toNode = graph.getLinkToNode(l);
+				int newCost = currentCost + linkCosts[l];
+				if (isReached(toNode)) {
+					int oldCost = (int)data[3 * toNode];
+					if (newCost < oldCost) {// never true for settled nodes
+						removeFromBucket(toNode, oldCost % bucketHeads.length);
+						setData(toNode, newCost, time + linkTimes[l], distance + graph.getLinkLength(l));
+						addToBucket(toNode, newCost % bucketHeads.length);
+					}
+				} else {
+					setData(toNode, newCost, time + linkTimes[l], distance + graph.getLinkLength(l));
+					addToBucket(toNode, newCost % bucketHeads.length);
+					queueSize++;
+				}
+			}
+		}
+	}
+
+	private void addToBucket(int node, int bucket) {
+		int head = bucketHeads[bucket];
+		nextNodes[node] = head;
+		previousNodes[node] = -1;
+		if (head >= 0) {
+			previousNodes[head] = node;
+		}
+		bucketHeads[bucket] = node;
+	}
+
+	private void removeFromBucket(int node, int bucket) {
+		int previous = previousNodes[node];
+		int next = nextNodes[node];
+		if (previous < 0) {
+			bucketHeads[bucket] = next;
+		} else {
+			nextNodes[previous] = next;
+		}
+		if (next >= 0) {
+			previousNodes[next] = previous;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of ints {@code 0..capacity-1} with decrease-key.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class IndexedMinHeap {
+	private final int[] heap;
+	private final int[] heapPositions;// -1 if not in the heap
+	private final double[] keys;
+	private int size;
+
+	public IndexedMinHeap(int capacity) {
+		heap = new int[capacity];
+		heapPositions = new int[capacity];
+		keys = new double[capacity];
+		Arrays.fill(heapPositions, -1);
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean contains(int element) {
+		return heapPositions[element] >= 0;
+	}
+
+	public void insert(int element, double key) {
+		keys[element] = key;
+		heap[size] = element;
+		heapPositions[element] = size;
+		siftUp(size++);
+	}
+
+	public void decreaseKey(int element, double key) {
+		keys[element] = key;
+		siftUp(heapPositions[element]);
+	}
+
+	public int poll() {
+		int min = heap[0];
+		heapPositions[min] = -1;
+		if (--size > 0) {
+			int last = heap[size];
+			heap[0] = last;
+			heapPositions[last] = 0;
+			siftDown(0);
+		}
+		return min;
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			heapPositions[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	private void siftUp(int pos) {
+		int element = heap[pos];
+		double key = keys[element];
+		while (pos > 0) {
+			int parentPos = (pos - 1) >>> 1;
+			int parent = heap[parentPos];
+			if (keys[parent] <= key) {
+				break;
+			}
+			heap[pos] = parent;
+			heapPositions[parent] = pos;
+			pos = parentPos;
+		}
+		heap[pos] = element;
+		heapPositions[element] = pos;
+	}
+
+	private void siftDown(int pos) {
+		int element = heap[pos];
+		double key = keys[element];
+		while (true) {
+			int childPos = 2 * pos + 1;
+			if (childPos >= size) {
+				break;
+			}
+			if (childPos + 1 < size && keys[heap[childPos + 1]] < keys[heap[childPos]]) {
+				childPos++;
+			}
+			int child = heap[childPos];
+			if (keys[child] >= key) {
+				break;
+			}
+			heap[pos] = child;
+			heapPositions[child] = pos;
+			pos = childPos;
+		}
+		heap[pos] = element;
+		heapPositions[element] = pos;
+	}
+}
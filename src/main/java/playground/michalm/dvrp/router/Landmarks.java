@@ -0,0 +1,210 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import static java.util.stream.Collectors.toList;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.util.ExecutorServiceWithResource;
+import org.matsim.core.router.speedy.SpeedyGraph;
+import org.matsim.core.router.speedy.SpeedyGraph.LinkIterator;
+import org.matsim.core.router.util.TravelTime;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Landmarks for ALT (A*, landmarks, triangle inequality) on a {@link SpeedyGraph}, with travel times to and from each
+ * landmark, stored node-major (all landmarks of a node are adjacent in memory). Landmarks are selected on the network
+ * boundary: the nodes are split into equal angular sectors around the network centre and the node farthest from the
+ * centre is taken in each sector. Travel times are computed in parallel, one forward (out-links) and one backward
+ * (in-links) search per landmark.
+ * <p>
+ * Link travel times are evaluated once (at time 0), so the travel time must be time-independent (e.g. free-speed).
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class Landmarks {
+	public static Landmarks create(Network network, SpeedyGraph graph, TravelTime travelTime, int landmarkCount,
+			int numberOfThreads) {
+		Preconditions.checkArgument(landmarkCount > 0);
+		int[] landmarks = selectLandmarks(network, landmarkCount);
+		int nodeCount = graph.getNodeCount();
+		double[] timesFromLandmarks = new double[nodeCount * landmarks.length];
+		double[] timesToLandmarks = new double[nodeCount * landmarks.length];
+
+		double[] linkTimes = new double[graph.getLinkCount()];
+		for (Link link : network.getLinks().values()) {
+			linkTimes[link.getId().index()] = travelTime.getLinkTravelTime(link, 0, null, null);
+		}
+
+		List<LandmarkSearch> searches = IntStream.range(0, numberOfThreads)
+				.mapToObj(i -> new LandmarkSearch(graph, linkTimes))
+				.collect(toList());
+		var executorService = new ExecutorServiceWithResource<>(searches);
+		executorService.submitRunnablesAndWait(IntStream.range(0, landmarks.length).mapToObj(l -> search -> {
+			search.calculate(landmarks[l], false);
+			for (int node = 0; node < nodeCount; node++) {
+				timesFromLandmarks[node * landmarks.length + l] = search.times[node];
+			}
+			search.calculate(landmarks[l], true);
+			for (int node = 0; node < nodeCount; node++) {
+				timesToLandmarks[node * landmarks.length + l] = search.times[node];
+			}
+		}));
+		executorService.shutdown();
+
+		return new Landmarks(landmarks, timesFromLandmarks, timesToLandmarks, linkTimes);
+	}
+
+	// node indices of the landmarks
+	private static int[] selectLandmarks(Network network, int landmarkCount) {
+		double centreX = 0;
+		double centreY = 0;
+		for (Node node : network.getNodes().values()) {
+			centreX += node.getCoord().getX();
+			centreY += node.getCoord().getY();
+		}
+		centreX /= network.getNodes().size();
+		centreY /= network.getNodes().size();
+
+		int[] farthestNodes = new int[landmarkCount];
+		double[] maxSquaredDistances = new double[landmarkCount];
+		Arrays.fill(farthestNodes, -1);
+		Arrays.fill(maxSquaredDistances, -1);
+		for (Node node : network.getNodes().values()) {
+			Coord coord = node.getCoord();
+			double dx = coord.getX() - centreX;
+			double dy = coord.getY() - centreY;
+			double angle = Math.atan2(dy, dx) + Math.PI;// [0, 2 * PI]
+			int sector = Math.min((int)(angle / (2 * Math.PI) * landmarkCount), landmarkCount - 1);
+			double squaredDistance = dx * dx + dy * dy;
+			if (squaredDistance > maxSquaredDistances[sector]) {
+				maxSquaredDistances[sector] = squaredDistance;
+				farthestNodes[sector] = node.getId().index();
+			}
+		}
+		return Arrays.stream(farthestNodes).filter(node -> node >= 0).toArray();// skip empty sectors
+	}
+
+	// one-to-all Dijkstra from (forward) or to (backward) a landmark
+	private static final class LandmarkSearch {
+		private final double[] linkTimes;
+		private final LinkIterator outLinks;
+		private final LinkIterator inLinks;
+		private final IndexedMinHeap heap;
+		private final double[] times;// by node index; infinity if unreachable
+
+		private LandmarkSearch(SpeedyGraph graph, double[] linkTimes) {
+			this.linkTimes = linkTimes;
+			outLinks = graph.getOutLinkIterator();
+			inLinks = graph.getInLinkIterator();
+			heap = new IndexedMinHeap(graph.getNodeCount());
+			times = new double[graph.getNodeCount()];
+		}
+
+		private void calculate(int landmark, boolean backward) {
+			Arrays.fill(times, Double.POSITIVE_INFINITY);
+			heap.clear();
+			times[landmark] = 0;
+			heap.insert(landmark, 0);
+
+			LinkIterator links = backward ? inLinks : outLinks;
+			while (!heap.isEmpty()) {
+				int node = heap.poll();
+				double time = times[node];
+				links.reset(node);
+				while (links.next()) {
+					int nextNode = backward ? links.getFromNodeIndex() : links.getToNodeIndex();
+					double newTime = time + linkTimes[links.getLinkIndex()];
+					if (newTime < times[nextNode]) {
+						if (times[nextNode] == Double.POSITIVE_INFINITY) {
+							heap.insert(nextNode, newTime);
+						} else {
+							heap.decreaseKey(nextNode, newTime);// not settled yet (non-negative link times)
+						}
+						times[nextNode] = newTime;
+					}
+				}
+			}
+		}
+	}
+
+	private final int[] landmarks;// node indices
+	private final double[] timesFromLandmarks;// [nodeIndex * landmarkCount + landmark]
+	private final double[] timesToLandmarks;// [nodeIndex * landmarkCount + landmark]
+	private final double[] linkTimes;// by link index
+
+	private Landmarks(int[] landmarks, double[] timesFromLandmarks, double[] timesToLandmarks, double[] linkTimes) {
+		this.landmarks = landmarks;
+		this.timesFromLandmarks = timesFromLandmarks;
+		this.timesToLandmarks = timesToLandmarks;
+		this.linkTimes = linkTimes;
+	}
+
+	/**
+	 * Lower bound of the travel time between two nodes (given as {@link org.matsim.api.core.v01.Id#index()}es),
+	 * derived from the triangle inequality: {@code T(v,t) >= T(L,t) - T(L,v)} and {@code T(v,t) >= T(v,L) - T(t,L)}
+	 * for each landmark L.
+	 */
+	public double getLowerBound(int from, int to) {
+		int landmarkCount = landmarks.length;
+		int fromOffset = from * landmarkCount;
+		int toOffset = to * landmarkCount;
+		double bound = 0;
+		for (int l = 0; l < landmarkCount; l++) {
+			double forward = timesFromLandmarks[toOffset + l] - timesFromLandmarks[fromOffset + l];
+			double backward = timesToLandmarks[fromOffset + l] - timesToLandmarks[toOffset + l];
+			// NaN (both unreachable) or -Infinity are ignored by the comparisons
+			if (forward > bound && forward < Double.POSITIVE_INFINITY) {
+				bound = forward;
+			}
+			if (backward > bound && backward < Double.POSITIVE_INFINITY) {
+				bound = backward;
+			}
+		}
+		return bound;
+	}
+
+	/**
+	 * @return travel time of the link (given as {@link org.matsim.api.core.v01.Id#index()}) used for the landmarks
+	 */
+	double getLinkTime(int linkIndex) {
+		return linkTimes[linkIndex];
+	}
+
+	public int getLandmarkCount() {
+		return landmarks.length;
+	}
+
+	/**
+	 * @return node index of the landmark
+	 */
+	public int getLandmark(int l) {
+		return landmarks[l];
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+import org.matsim.api.core.v01.network.Link;
+
+/**
+ * Bucket-based many-to-many travel time query on a {@link ContractionHierarchy} (Knopp et al. 2007): one backward
+ * upward search per destination stores (destination, time) entries in buckets at the settled nodes, then one forward
+ * upward search per origin scans the buckets of the settled nodes. The cost is roughly
+ * {@code (origins + destinations)} small upward searches, instead of one one-to-all (or one-to-many) tree per origin.
+ * <p>
+ * Intended for vehicle-request cost matrices in assignment-based dispatching, and used for the zone-to-zone times of
+ * {@link playground.michalm.dvrp.skims.TravelTimeMatrixBuilder}. Not thread-safe: use one instance per thread (the
+ * hierarchy can be shared).
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class ManyToManyQuery {
+	private final ContractionHierarchy hierarchy;
+
+	private final double[] costs;
+	private final int[] iterationIds;// entries in costs are valid only if iterationIds[node] == currentIteration
+	private int currentIteration = 0;
+	private final IndexedMinHeap heap;
+	private final int[] settledNodes;
+	private int settledCount;
+
+	// bucket entries, sorted by node: bucket of node v is [bucketStarts[v], bucketStarts[v + 1])
+	private final int[] bucketStarts;
+	private int[] entryNodes = new int[1024];
+	private int[] entryDestinations = new int[1024];
+	private double[] entryCosts = new double[1024];
+	private int[] bucketDestinations = new int[0];
+	private double[] bucketCosts = new double[0];
+
+	public ManyToManyQuery(ContractionHierarchy hierarchy) {
+		this.hierarchy = hierarchy;
+		int nodeCount = hierarchy.getNodeCount();
+		costs = new double[nodeCount];
+		iterationIds = new int[nodeCount];
+		heap = new IndexedMinHeap(nodeCount);
+		settledNodes = new int[nodeCount];
+		bucketStarts = new int[nodeCount + 1];
+	}
+
+	/**
+	 * @return travel times between nodes (given as {@link org.matsim.api.core.v01.Id#index()}es):
+	 * {@code [origin][destination]}, {@link Double#POSITIVE_INFINITY} if unreachable
+	 */
+	public double[][] calcTravelTimes(int[] fromNodeIndices, int[] toNodeIndices) {
+		double[][] travelTimes = new double[fromNodeIndices.length][];
+		calcTravelTimes(fromNodeIndices, toNodeIndices, (row, i) -> travelTimes[i] = row.clone());
+		return travelTimes;
+	}
+
+	/**
+	 * Same as {@link #calcTravelTimes(int[], int[])}, but each row is passed to {@code rowConsumer} (with the index of
+	 * the origin in {@code fromNodeIndices}) instead of being kept, so that large matrices need not be held twice. The
+	 * row array is reused for the next origin.
+	 */
+	public void calcTravelTimes(int[] fromNodeIndices, int[] toNodeIndices, ObjIntConsumer<double[]> rowConsumer) {
+		fillBuckets(toNodeIndices);
+
+		var upwardGraph = hierarchy.getUpwardGraph();
+		double[] row = new double[toNodeIndices.length];
+		for (int i = 0; i < fromNodeIndices.length; i++) {
+			Arrays.fill(row, Double.POSITIVE_INFINITY);
+			search(upwardGraph, hierarchy.getNode(fromNodeIndices[i]));
+			for (int s = 0; s < settledCount; s++) {
+				int node = settledNodes[s];
+				double cost = costs[node];
+				for (int e = bucketStarts[node], end = bucketStarts[node + 1]; e < end; e++) {
+					double newCost = cost + bucketCosts[e];
+					int destination = bucketDestinations[e];
+					if (newCost < row[destination]) {
+						row[destination] = newCost;
+					}
+				}
+			}
+			rowConsumer.accept(row, i);
+		}
+	}
+
+	/**
+	 * Node-to-node travel times from the end of each {@code fromLink} (its to-node) to the start of each {@code toLink}
+	 * (its from-node), as between the links of a DVRP path.
+	 */
+	public double[][] calcTravelTimes(List<? extends Link> fromLinks, List<? extends Link> toLinks) {
+		return calcTravelTimes(fromLinks.stream().mapToInt(link -> link.getToNode().getId().index()).toArray(),
+				toLinks.stream().mapToInt(link -> link.getFromNode().getId().index()).toArray());
+	}
+
+	private void fillBuckets(int[] toNodeIndices) {
+		var downwardGraph = hierarchy.getDownwardGraph();
+		int entryCount = 0;
+		for (int j = 0; j < toNodeIndices.length; j++) {
+			search(downwardGraph, hierarchy.getNode(toNodeIndices[j]));
+			if (entryCount + settledCount > entryNodes.length) {
+				int capacity = Math.max(2 * entryNodes.length, entryCount + settledCount);
+				entryNodes = Arrays.copyOf(entryNodes, capacity);
+				entryDestinations = Arrays.copyOf(entryDestinations, capacity);
+				entryCosts = Arrays.copyOf(entryCosts, capacity);
+			}
+			for (int s = 0; s < settledCount; s++) {
+				entryNodes[entryCount] = settledNodes[s];
+				entryDestinations[entryCount] = j;
+				entryCosts[entryCount] = costs[settledNodes[s]];
+				entryCount++;
+			}
+		}
+
+		// counting sort by node
+		Arrays.fill(bucketStarts, 0);
+		for (int e = 0; e < entryCount; e++) {
+			bucketStarts[entryNodes[e] + 1]++;
+		}
+		for (int v = 0; v + 1 < bucketStarts.length; v++) {
+			bucketStarts[v + 1] += bucketStarts[v];
+		}
+		if (bucketDestinations.length < entryCount) {
+			bucketDestinations = new int[entryNodes.length];
+			bucketCosts = new double[entryNodes.length];
+		}
+		for (int e = 0; e < entryCount; e++) {
+			int position = bucketStarts[entryNodes[e]]++;
+			bucketDestinations[position] = entryDestinations[e];
+			bucketCosts[position] = entryCosts[e];
+		}
+		// restore the bucket starts (shifted by one bucket after the placement)
+		System.arraycopy(bucketStarts, 0, bucketStarts, 1, bucketStarts.length - 1);
+		bucketStarts[0] = 0;
+	}
+
+	// full Dijkstra in the upward (or downward reversed) graph; the settled nodes are in settledNodes
+	private void search(ContractionHierarchy.Csr graph, int startNode) {
+		if (++currentIteration == Integer.MAX_VALUE) {
+			Arrays.fill(iterationIds, 0);
+			currentIteration = 1;
+		}
+		heap.clear();
+		settledCount = 0;
+		costs[startNode] = 0;
+		iterationIds[startNode] = currentIteration;
+		heap.insert(startNode, 0);
+
+		int[] starts = graph.starts();
+		int[] targets = graph.targets();
+		double[] edgeCosts = graph.costs();
+		while (!heap.isEmpty()) {
+			int node = heap.poll();
+			settledNodes[settledCount++] = node;
+			double cost = costs[node];
+			for (int e = starts[node], end = starts[node + 1]; e < end; e++) {
+				int toNode = targets[e];
+				double newCost = cost + edgeCosts[e];
+				if (iterationIds[toNode] != currentIteration) {
+					costs[toNode] = newCost;
+					iterationIds[toNode] = currentIteration;
+					heap.insert(toNode, newCost);
+				} else if (newCost < costs[toNode]) {
+					costs[toNode] = newCost;
+					heap.decreaseKey(toNode, newCost);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+/**
+ * Maps node indices ({@link Id#index()}) to dense positions {@code 0..nodeCount-1} and back. Data structures indexed
+ * by position (e.g. {@link CompactGraph}) can then be laid out so that nodes close to each other in space are also
+ * close in memory, which improves cache locality of tree searches and neighbourhood lookups.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class NodeOrdering {
+	private static final int HILBERT_ORDER = 16;// 2^16 x 2^16 grid
+
+	/**
+	 * Positions follow the {@link Id#index()} order (i.e. usually the order of reading the network).
+	 */
+	public static NodeOrdering byIdIndex(Network network) {
+		return new NodeOrdering(network.getNodes()
+				.values()
+				.stream()
+				.mapToInt(node -> node.getId().index())
+				.sorted()
+				.toArray());
+	}
+
+	/**
+	 * Positions follow the Hilbert curve over the bounding box of the network.
+	 */
+	public static NodeOrdering hilbert(Network network) {
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (Node node : network.getNodes().values()) {
+			Coord coord = node.getCoord();
+			minX = Math.min(minX, coord.getX());
+			minY = Math.min(minY, coord.getY());
+			maxX = Math.max(maxX, coord.getX());
+			maxY = Math.max(maxY, coord.getY());
+		}
+
+		int side = 1 << HILBERT_ORDER;
+		double scale = (side - 1) / Math.max(Math.max(maxX - minX, maxY - minY), 1e-9);
+		long[] keys = new long[Id.getNumberOfIds(Node.class)];
+		for (Node node : network.getNodes().values()) {
+			Coord coord = node.getCoord();
+			int x = (int)((coord.getX() - minX) * scale);
+			int y = (int)((coord.getY() - minY) * scale);
+			keys[node.getId().index()] = hilbertIndex(side, x, y);
+		}
+
+		Integer[] nodeIndices = network.getNodes()
+				.values()
+				.stream()
+				.map(node -> node.getId().index())
+				.toArray(Integer[]::new);
+		// ties (nodes in the same Hilbert cell) are broken by node index to make the ordering deterministic
+		Arrays.sort(nodeIndices, Comparator.<Integer>comparingLong(i -> keys[i]).thenComparingInt(i -> i));
+		return new NodeOrdering(Arrays.stream(nodeIndices).mapToInt(Integer::intValue).toArray());
+	}
+
+	// distance along the Hilbert curve filling a side x side grid (side being a power of 2)
+	public static long hilbertIndex(int side, int x, int y) {
+		long d = 0;
+		for (int s = side / 2; s > 0; s /= 2) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long)s * s * ((3 * rx) ^ ry);
+
+			// rotate the quadrant
+			if (ry == 0) {
+				if (rx == 1) {
+					x = side - 1 - x;
+					y = side - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	private final int[] positionByNodeIndex;// -1 for nodes not in the network
+	private final int[] nodeIndexByPosition;
+
+	private NodeOrdering(int[] nodeIndexByPosition) {
+		this.nodeIndexByPosition = nodeIndexByPosition;
+		positionByNodeIndex = new int[Id.getNumberOfIds(Node.class)];
+		Arrays.fill(positionByNodeIndex, -1);
+		for (int position = 0; position < nodeIndexByPosition.length; position++) {
+			positionByNodeIndex[nodeIndexByPosition[position]] = position;
+		}
+	}
+
+	public int getPosition(int nodeIndex) {
+		return positionByNodeIndex[nodeIndex];
+	}
+
+	public int getNodeIndex(int position) {
+		return nodeIndexByPosition[position];
+	}
+
+	public int getNodeCount() {
+		return nodeIndexByPosition.length;
+	}
+}
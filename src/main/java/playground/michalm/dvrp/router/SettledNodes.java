@@ -0,0 +1,60 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.speedy.LeastCostPathTree.StopCriterion;
+
+/**
+ * Records the nodes settled (i.e. polled from the priority queue) during a {@link ShortestPathTree} run, so that
+ * bounded searches can be post-processed in O(settled nodes) instead of scanning the whole network. Nodes that are
+ * still in the queue when the search stops are not included (their times are only tentative).
+ * <p>
+ * Not thread-safe: use one instance per tree.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class SettledNodes implements StopCriterion {
+	private final int[] nodeIndices = new int[Id.getNumberOfIds(Node.class)];
+	private int size;
+	private StopCriterion stopCriterion;
+
+	public void calculate(ShortestPathTree tree, int startNode, double startTime, StopCriterion stopCriterion) {
+		this.stopCriterion = stopCriterion;
+		size = 0;
+		tree.calculate(startNode, startTime, this);
+	}
+
+	@Override
+	public boolean stop(int nodeIndex, double arrivalTime, double travelCost, double distance, double departureTime) {
+		nodeIndices[size++] = nodeIndex;
+		return stopCriterion.stop(nodeIndex, arrivalTime, travelCost, distance, departureTime);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getNodeIndex(int i) {
+		return nodeIndices[i];
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import org.matsim.core.router.speedy.LeastCostPathTree;
+import org.matsim.core.router.speedy.LeastCostPathTree.StopCriterion;
+import org.matsim.core.utils.misc.OptionalTime;
+
+/**
+ * One-to-many search (as {@link LeastCostPathTree}), with nodes identified by
+ * {@link org.matsim.api.core.v01.Id#index()} regardless of how the implementation numbers them internally.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public interface ShortestPathTree {
+	void calculate(int startNodeIndex, double startTime, StopCriterion stopCriterion);
+
+	/**
+	 * @return arrival time; undefined if the node was not reached in the last search
+	 */
+	OptionalTime getTime(int nodeIndex);
+
+	double getCost(int nodeIndex);
+
+	double getDistance(int nodeIndex);
+
+	static ShortestPathTree of(LeastCostPathTree lcpTree) {
+		return new ShortestPathTree() {
+			@Override
+			public void calculate(int startNodeIndex, double startTime, StopCriterion stopCriterion) {
+				lcpTree.calculate(startNodeIndex, startTime, null, null, stopCriterion);
+			}
+
+			@Override
+			public OptionalTime getTime(int nodeIndex) {
+				return lcpTree.getTime(nodeIndex);
+			}
+
+			@Override
+			public double getCost(int nodeIndex) {
+				return lcpTree.getCost(nodeIndex);
+			}
+
+			@Override
+			public double getDistance(int nodeIndex) {
+				return lcpTree.getDistance(nodeIndex);
+			}
+		};
+	}
+}
@@ -0,0 +1,359 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.speedy.LeastCostPathTree.StopCriterion;
+import org.matsim.core.router.util.LeastCostPathCalculator.Path;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+
+import playground.michalm.util.VirtualThreads;
+
+/**
+ * Computes paths of planned (DVRP) tasks ahead of time, so that routing is moved off the critical path of the QSim.
+ * At most {@code threads} paths are computed at the same time. Depending on the {@link ExecutorMode}:
+ * <ul>
+ * <li>{@link ExecutorMode#PLATFORM_THREAD_POOL}: requests are queued and processed by a fixed number of threads in the
+ * order of their planned start times (the earliest needed first),</li>
+ * <li>{@link ExecutorMode#VIRTUAL_THREADS} (Java 21+): each request gets its own virtual thread, which waits for one
+ * of {@code threads} routing permits (a fair semaphore, so requests are processed in the submission order). Waiting
+ * is cheap, so this suits many short-lived, frequently cancelled requests.</li>
+ * </ul>
+ * Each search borrows one of {@code threads} trees, also if run by a thread calling {@link PathFuture#getPath()}, so
+ * the number of trees and of concurrent searches never exceeds {@code threads}.
+ * <p>
+ * When a schedule is re-planned, paths that are no longer needed should be cancelled ({@link PathFuture#cancel}).
+ * Cancellation is cooperative: a cancelled request is skipped once it is taken from the queue, and an already
+ * running search is stopped at the next settled node (the stop criterion checks the cancellation flag).
+ * <p>
+ * When the path is needed (e.g. the vehicle starts the drive task), {@link PathFuture#getPath()} returns immediately
+ * if the path has been computed. If not, the path is computed by the calling thread (request still queued) or the
+ * calling thread waits for the worker to finish it (search in progress).
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class SpeculativePathService {
+	public enum ExecutorMode {PLATFORM_THREAD_POOL, VIRTUAL_THREADS}
+
+	private final Queue<CompactLeastCostPathTree> idleTrees = new ConcurrentLinkedQueue<>();
+	private final Semaphore idleTreeCount;// bounds all searches (workers and threads calling getPath())
+	private final ExecutorService executor;
+	private final @Nullable Semaphore routingPermits;// orders the waiting virtual threads
+	private final AtomicLong sequence = new AtomicLong();
+	private final AtomicInteger threadCount = new AtomicInteger();
+
+	private final LongAdder computedPathCount = new LongAdder();
+	private final LongAdder abortedSearchCount = new LongAdder();
+	private final LongAdder notReadyCount = new LongAdder();
+	private final LongAdder finishedRequestThreadCount = new LongAdder();
+
+	public SpeculativePathService(CompactGraph graph, TravelTime travelTime, TravelDisutility travelDisutility,
+			int threads) {
+		this(graph, travelTime, travelDisutility, threads, ExecutorMode.PLATFORM_THREAD_POOL);
+	}
+
+	public SpeculativePathService(CompactGraph graph, TravelTime travelTime, TravelDisutility travelDisutility,
+			int threads, ExecutorMode executorMode) {
+		for (int i = 0; i < threads; i++) {
+			idleTrees.add(new CompactLeastCostPathTree(graph, travelTime, travelDisutility));
+		}
+		idleTreeCount = new Semaphore(threads);
+
+		if (executorMode == ExecutorMode.VIRTUAL_THREADS) {
+			executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+			routingPermits = new Semaphore(threads, true);
+		} else {
+			executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+					new PriorityBlockingQueue<>(), this::newDaemonThread);
+			routingPermits = null;
+		}
+	}
+
+	private Thread newDaemonThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "speculative-path-" + threadCount.getAndIncrement());
+		thread.setDaemon(true);// must not prevent the simulation from terminating
+		return thread;
+	}
+
+	/**
+	 * @param departureTime time of leaving the to-node of {@code fromLink}
+	 * @return future path from the to-node of {@code fromLink} to the from-node of {@code toLink}
+	 */
+	public PathFuture submit(Link fromLink, Link toLink, double departureTime) {
+		return submit(fromLink, toLink, departureTime, null);
+	}
+
+	/**
+	 * @param onDone called (by the completing thread) once the future is done: computed, failed or cancelled
+	 */
+	public PathFuture submit(Link fromLink, Link toLink, double departureTime, @Nullable Consumer<PathFuture> onDone) {
+		var pathFuture = new PathFuture(new PathCalculation(), fromLink, toLink, departureTime,
+				sequence.getAndIncrement(), onDone);
+		if (routingPermits == null) {
+			executor.execute(pathFuture);
+		} else {
+			executor.execute(() -> runWithPermit(pathFuture));
+		}
+		return pathFuture;
+	}
+
+	// the future is claimed (run) only after the permit is acquired, so that getPath() can still compute it inline
+	private void runWithPermit(PathFuture pathFuture) {
+		try {
+			if (pathFuture.isDone()) {
+				return;// cancelled or computed by getPath() before the thread started
+			}
+			routingPermits.acquireUninterruptibly();
+			try {
+				pathFuture.run();// no-op if the request has been cancelled (or computed) while waiting for the permit
+			} finally {
+				routingPermits.release();
+			}
+		} finally {
+			finishedRequestThreadCount.increment();
+		}
+	}
+
+	private Path calcPath(PathFuture pathFuture) {
+		// waits only if all trees are used (e.g. all workers busy and getPath() called by another thread)
+		idleTreeCount.acquireUninterruptibly();
+		CompactLeastCostPathTree tree = idleTrees.poll();// never null: a permit per idle tree
+		try {
+			return calcPath(pathFuture, tree);
+		} finally {
+			idleTrees.add(tree);
+			idleTreeCount.release();
+		}
+	}
+
+	private Path calcPath(PathFuture pathFuture, CompactLeastCostPathTree tree) {
+		Node fromNode = pathFuture.fromLink.getToNode();
+		Node toNode = pathFuture.toLink.getFromNode();
+		int toNodeIndex = toNode.getId().index();
+
+		var stopCriterion = new TargetOrCancellation(toNodeIndex, pathFuture);
+		tree.calculate(fromNode.getId().index(), pathFuture.departureTime, stopCriterion);
+		if (!stopCriterion.targetSettled && pathFuture.isCancelled()) {
+			abortedSearchCount.increment();
+			throw new CancellationException();
+		}
+
+		List<Node> nodes = new ArrayList<>();
+		List<Link> links = new ArrayList<>();
+		nodes.add(toNode);
+		for (Link link = tree.getComingFromLink(toNodeIndex); link != null;
+			 link = tree.getComingFromLink(link.getFromNode().getId().index())) {
+			links.add(link);
+			nodes.add(link.getFromNode());
+		}
+		if (nodes.get(nodes.size() - 1) != fromNode) {
+			throw new IllegalStateException("No path from node: " + fromNode.getId() + " to node: " + toNode.getId());
+		}
+		Collections.reverse(nodes);
+		Collections.reverse(links);
+
+		computedPathCount.increment();
+		double travelTime = tree.getTime(toNodeIndex).seconds() - pathFuture.departureTime;
+		return new Path(nodes, links, travelTime, tree.getCost(toNodeIndex));
+	}
+
+	/**
+	 * @return number of paths computed so far (by the workers or by threads calling {@link PathFuture#getPath()})
+	 */
+	public long getComputedPathCount() {
+		return computedPathCount.sum();
+	}
+
+	/**
+	 * @return number of searches stopped because the request was cancelled while the path was being computed
+	 */
+	public long getAbortedSearchCount() {
+		return abortedSearchCount.sum();
+	}
+
+	/**
+	 * @return number of {@link PathFuture#getPath()} calls made before the path was ready
+	 */
+	public long getNotReadyCount() {
+		return notReadyCount.sum();
+	}
+
+	/**
+	 * @return number of requests submitted so far
+	 */
+	public long getSubmittedRequestCount() {
+		return sequence.get();
+	}
+
+	/**
+	 * With {@link ExecutorMode#VIRTUAL_THREADS}, the threads of the requests run independently of each other, so a
+	 * completed request does not imply that the threads of the earlier requests have finished. Once this count
+	 * reaches {@link #getSubmittedRequestCount()}, no request thread is running or waiting for a permit.
+	 *
+	 * @return number of finished request threads ({@link ExecutorMode#VIRTUAL_THREADS}), 0 for
+	 * {@link ExecutorMode#PLATFORM_THREAD_POOL}
+	 */
+	public long getFinishedRequestThreadCount() {
+		return finishedRequestThreadCount.sum();
+	}
+
+	/**
+	 * @return number of requests waiting for a worker (platform threads) or for a routing permit (virtual threads,
+	 * estimate), including cancelled requests that have not been skipped yet
+	 */
+	public int getQueueSize() {
+		return routingPermits == null ?
+				((ThreadPoolExecutor)executor).getQueue().size() :
+				routingPermits.getQueueLength();
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	private static final class TargetOrCancellation implements StopCriterion {
+		private final int toNodeIndex;
+		private final PathFuture pathFuture;
+		private boolean targetSettled;
+
+		private TargetOrCancellation(int toNodeIndex, PathFuture pathFuture) {
+			this.toNodeIndex = toNodeIndex;
+			this.pathFuture = pathFuture;
+		}
+
+		@Override
+		public boolean stop(int nodeIndex, double arrivalTime, double travelCost, double distance,
+				double departureTime) {
+			if (nodeIndex == toNodeIndex) {
+				targetSettled = true;
+				return true;
+			}
+			return pathFuture.isCancelled();
+		}
+	}
+
+	private final class PathCalculation implements Callable<Path> {
+		private PathFuture pathFuture;// set by the future, before it is submitted
+
+		@Override
+		public Path call() {
+			return calcPath(pathFuture);
+		}
+	}
+
+	public final class PathFuture extends FutureTask<Path> implements Comparable<PathFuture> {
+		private final Link fromLink;
+		private final Link toLink;
+		private final double departureTime;
+		private final long sequenceNumber;// FIFO among requests with the same departure time
+		private final @Nullable Consumer<PathFuture> onDone;
+
+		private PathFuture(PathCalculation calculation, Link fromLink, Link toLink, double departureTime,
+				long sequenceNumber, @Nullable Consumer<PathFuture> onDone) {
+			super(calculation);
+			calculation.pathFuture = this;
+			this.fromLink = fromLink;
+			this.toLink = toLink;
+			this.departureTime = departureTime;
+			this.sequenceNumber = sequenceNumber;
+			this.onDone = onDone;
+		}
+
+		public Link getFromLink() {
+			return fromLink;
+		}
+
+		public Link getToLink() {
+			return toLink;
+		}
+
+		public double getDepartureTime() {
+			return departureTime;
+		}
+
+		/**
+		 * Blocks only if the path is not ready yet. A request that is still queued is computed by the calling
+		 * thread instead of waiting for a worker.
+		 *
+		 * @throws CancellationException if the request has been cancelled
+		 */
+		public Path getPath() {
+			if (!isDone()) {
+				notReadyCount.increment();
+				run();// no-op if a worker is already computing the path
+			}
+			try {
+				return get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+
+		/**
+		 * Constant time: a queued request is not removed from the queue, but skipped when polled (removing from a
+		 * priority queue is linear in its size). The running search is stopped cooperatively, so the executing
+		 * thread (possibly the caller of {@link #getPath()}) is never interrupted, regardless of
+		 * {@code mayInterruptIfRunning}.
+		 */
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return super.cancel(false);
+		}
+
+		@Override
+		protected void done() {
+			if (onDone != null) {
+				onDone.accept(this);
+			}
+		}
+
+		@Override
+		public int compareTo(PathFuture other) {
+			int cmp = Double.compare(departureTime, other.departureTime);
+			return cmp != 0 ? cmp : Long.compare(sequenceNumber, other.sequenceNumber);
+		}
+	}
+}
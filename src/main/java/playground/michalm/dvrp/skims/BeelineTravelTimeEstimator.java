@@ -0,0 +1,97 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.common.util.DistanceUtils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Beeline model: {@code tt = intercept + beelineDistance / beelineSpeed}, where {@code beelineSpeed} combines the
+ * network speed and the detour factor (i.e. {@code speed / detourFactor}). The parameters are usually fitted to
+ * sampled network travel times with {@link Fitter}.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class BeelineTravelTimeEstimator implements TravelTimeEstimator {
+	private final double intercept;
+	private final double beelineSpeed;
+
+	public BeelineTravelTimeEstimator(double intercept, double beelineSpeed) {
+		Preconditions.checkArgument(beelineSpeed > 0, "Beeline speed must be positive");
+		this.intercept = intercept;
+		this.beelineSpeed = beelineSpeed;
+	}
+
+	@Override
+	public double getTravelTime(Node fromNode, Node toNode) {
+		return fromNode == toNode ? 0 : intercept + DistanceUtils.calculateDistance(fromNode, toNode) / beelineSpeed;
+	}
+
+	public double getIntercept() {
+		return intercept;
+	}
+
+	public double getBeelineSpeed() {
+		return beelineSpeed;
+	}
+
+	@Override
+	public long getMemoryBytes() {
+		return 16;
+	}
+
+	/**
+	 * Ordinary least squares fit of {@code tt = intercept + slope * beelineDistance}. Not thread-safe: use one fitter
+	 * per thread and {@link #merge(Fitter)} them afterwards.
+	 */
+	public static final class Fitter {
+		private long count;
+		private double sumX;
+		private double sumY;
+		private double sumXY;
+		private double sumXX;
+
+		public void add(double beelineDistance, double travelTime) {
+			count++;
+			sumX += beelineDistance;
+			sumY += travelTime;
+			sumXY += beelineDistance * travelTime;
+			sumXX += beelineDistance * beelineDistance;
+		}
+
+		public void merge(Fitter other) {
+			count += other.count;
+			sumX += other.sumX;
+			sumY += other.sumY;
+			sumXY += other.sumXY;
+			sumXX += other.sumXX;
+		}
+
+		public BeelineTravelTimeEstimator fit() {
+			Preconditions.checkState(count >= 2, "Not enough samples");
+			double slope = (count * sumXY - sumX * sumY) / (count * sumXX - sumX * sumX);
+			double intercept = (sumY - slope * sumX) / count;
+			return new BeelineTravelTimeEstimator(intercept, 1 / slope);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+
+import playground.michalm.dvrp.router.ContractionHierarchy;
+
+/**
+ * Persists free-speed {@link ContractionHierarchy}s in a cache directory, like {@link TravelTimeMatrixCache}: files are
+ * named after a fingerprint of the network and the QSim time step, so the preprocessing runs once per network.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class ContractionHierarchyCache {
+	private static final int VERSION = 1;
+
+	public static ContractionHierarchy loadOrCreateFreeSpeedHierarchy(Path cacheDirectory, Network network,
+			double qSimTimeStepSize) {
+		String fingerprint = TravelTimeMatrixCache.fingerprint(network, VERSION, qSimTimeStepSize);
+		Path file = cacheDirectory.resolve("freeSpeedHierarchy_" + fingerprint + ".bin");
+		try {
+			if (Files.exists(file)) {
+				System.out.println("Loading contraction hierarchy from " + file);
+				try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+					return ContractionHierarchy.readFrom(in, network);
+				}
+			}
+
+			var hierarchy = ContractionHierarchy.build(network, new QSimFreeSpeedTravelTime(qSimTimeStepSize));
+			System.out.println("Writing contraction hierarchy to " + file);
+			// write to a temporary file first, so that other JVMs never see an incomplete hierarchy
+			Path tmpFile = file.resolveSibling(file.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+			Files.createDirectories(file.toAbsolutePath().getParent());
+			try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile), 1 << 16))) {
+				hierarchy.writeTo(out);
+			}
+			Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return hierarchy;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.zone.skims.TravelTimeMatrix;
+
+/**
+ * Same lookup as in {@link org.matsim.contrib.zone.skims.FreeSpeedTravelTimeMatrix}: sparse (neighbourhood) travel
+ * time if available, otherwise the zonal one. As a {@link TravelTimeMatrix}, it ignores the departure time (free-speed
+ * times).
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class HybridTravelTimeMatrix implements TravelTimeEstimator, TravelTimeMatrix {
+	private final ZonalTravelTimeMatrix zonalMatrix;
+	private final SparseTravelTimeMatrix sparseMatrix;
+
+	public HybridTravelTimeMatrix(ZonalTravelTimeMatrix zonalMatrix, SparseTravelTimeMatrix sparseMatrix) {
+		this.zonalMatrix = zonalMatrix;
+		this.sparseMatrix = sparseMatrix;
+	}
+
+	public int getTravelTime(int fromNodeIndex, int toNodeIndex) {
+		if (fromNodeIndex == toNodeIndex) {
+			return 0;
+		}
+		int time = sparseMatrix.get(fromNodeIndex, toNodeIndex);
+		if (time >= 0) {// value is present
+			return time;
+		}
+		return zonalMatrix.getTravelTime(zonalMatrix.getZone(fromNodeIndex), zonalMatrix.getZone(toNodeIndex));
+	}
+
+	/**
+	 * One-to-many version of {@link #getTravelTime(int, int)}: the sparse row and the zone of the from-node are
+	 * resolved once. Writes {@code toNodeIndices.length} travel times to {@code out}.
+	 */
+	public void getTravelTimes(int fromNodeIndex, int[] toNodeIndices, double[] out) {
+		int row = sparseMatrix.toRowOrColumn(fromNodeIndex);
+		int rowStart = sparseMatrix.getRowStart(row);
+		int rowEnd = sparseMatrix.getRowEnd(row);
+		int fromZone = zonalMatrix.getZone(fromNodeIndex);
+
+		for (int i = 0; i < toNodeIndices.length; i++) {
+			int toNodeIndex = toNodeIndices[i];
+			if (toNodeIndex == fromNodeIndex) {
+				out[i] = 0;
+				continue;
+			}
+			int time = sparseMatrix.find(rowStart, rowEnd, sparseMatrix.toRowOrColumn(toNodeIndex));
+			out[i] = time >= 0 ? time : zonalMatrix.getTravelTime(fromZone, zonalMatrix.getZone(toNodeIndex));
+		}
+	}
+
+	/**
+	 * Many-to-one version of {@link #getTravelTime(int, int)}: the sparse column and the zone of the to-node are
+	 * resolved once. Writes {@code fromNodeIndices.length} travel times to {@code out}.
+	 */
+	public void getTravelTimes(int[] fromNodeIndices, int toNodeIndex, double[] out) {
+		int column = sparseMatrix.toRowOrColumn(toNodeIndex);
+		int toZone = zonalMatrix.getZone(toNodeIndex);
+
+		for (int i = 0; i < fromNodeIndices.length; i++) {
+			int fromNodeIndex = fromNodeIndices[i];
+			if (fromNodeIndex == toNodeIndex) {
+				out[i] = 0;
+				continue;
+			}
+			int row = sparseMatrix.toRowOrColumn(fromNodeIndex);
+			int time = sparseMatrix.find(sparseMatrix.getRowStart(row), sparseMatrix.getRowEnd(row), column);
+			out[i] = time >= 0 ? time : zonalMatrix.getTravelTime(zonalMatrix.getZone(fromNodeIndex), toZone);
+		}
+	}
+
+	@Override
+	public double getTravelTime(Node fromNode, Node toNode) {
+		return getTravelTime(fromNode.getId().index(), toNode.getId().index());
+	}
+
+	@Override
+	public int getTravelTime(Node fromNode, Node toNode, double departureTime) {
+		return getTravelTime(fromNode.getId().index(), toNode.getId().index());
+	}
+
+	public ZonalTravelTimeMatrix getZonalMatrix() {
+		return zonalMatrix;
+	}
+
+	public SparseTravelTimeMatrix getSparseMatrix() {
+		return sparseMatrix;
+	}
+
+	@Override
+	public long getMemoryBytes() {
+		return zonalMatrix.getMemoryBytes() + sparseMatrix.getMemoryBytes();
+	}
+}
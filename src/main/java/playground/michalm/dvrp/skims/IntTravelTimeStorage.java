@@ -0,0 +1,59 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import java.nio.IntBuffer;
+
+/**
+ * @author Michal Maciejewski (michalm)
+ */
+final class IntTravelTimeStorage implements TravelTimeStorage {
+	private final IntBuffer times;
+
+	IntTravelTimeStorage(IntBuffer times) {
+		this.times = times;
+	}
+
+	@Override
+	public int get(int index) {
+		return times.get(index);
+	}
+
+	@Override
+	public int size() {
+		return times.capacity();
+	}
+
+	@Override
+	public void copyTo(int index, int[] dst, int dstIndex, int length) {
+		times.get(index, dst, dstIndex, length);
+	}
+
+	@Override
+	public long getMemoryBytes() {
+		return 4L * times.capacity();
+	}
+
+	@Override
+	public boolean isOffHeap() {
+		return times.isDirect();
+	}
+}
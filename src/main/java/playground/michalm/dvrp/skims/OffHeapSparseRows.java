@@ -0,0 +1,88 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import com.google.common.base.Preconditions;
+
+import playground.michalm.dvrp.router.NodeOrdering;
+
+/**
+ * Off-heap (direct) CSR storage of a {@link SparseTravelTimeMatrix}, allocated with its exact size from the row lengths
+ * known in advance (e.g. from a counting pass). Rows computed in parallel are written directly to their final place,
+ * so that neither an on-heap {@code int[][]} with all rows nor a second off-heap copy is needed. Rows can be put
+ * concurrently (each row has its own range).
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+final class OffHeapSparseRows {
+	static IntBuffer allocateDirectInts(long size) {
+		Preconditions.checkArgument(size <= Integer.MAX_VALUE / 4, "Too many entries for a direct buffer: %s", size);
+		return ByteBuffer.allocateDirect((int)(4 * size)).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	private final IntBuffer rowStarts;
+	private final IntBuffer columns;
+	private final IntBuffer times;
+
+	/**
+	 * @param rowEntryCounts number of entries of each row
+	 */
+	OffHeapSparseRows(int[] rowEntryCounts) {
+		long entryCount = Arrays.stream(rowEntryCounts).asLongStream().sum();
+		columns = allocateDirectInts(entryCount);
+		times = allocateDirectInts(entryCount);
+
+		rowStarts = allocateDirectInts(rowEntryCounts.length + 1);
+		int rowStart = 0;
+		for (int row = 0; row < rowEntryCounts.length; row++) {
+			rowStarts.put(row, rowStart);
+			rowStart += rowEntryCounts[row];
+		}
+		rowStarts.put(rowEntryCounts.length, rowStart);
+	}
+
+	/**
+	 * @param packedRow (column, time) pairs sorted by column
+	 */
+	void put(int row, int[] packedRow) {
+		int start = rowStarts.get(row);
+		Preconditions.checkArgument(packedRow.length == 2 * (rowStarts.get(row + 1) - start),
+				"Row %s differs in length from the one counted", row);
+		for (int i = 0, e = start; i < packedRow.length; i += 2, e++) {
+			columns.put(e, packedRow[i]);
+			times.put(e, packedRow[i + 1]);
+		}
+	}
+
+	/**
+	 * Must be called after all rows have been put (and the putting threads are done).
+	 */
+	SparseTravelTimeMatrix toMatrix(@Nullable NodeOrdering nodeOrdering) {
+		return new SparseTravelTimeMatrix(rowStarts, columns, new IntTravelTimeStorage(times), nodeOrdering);
+	}
+}
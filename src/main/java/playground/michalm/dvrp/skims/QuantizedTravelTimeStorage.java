@@ -0,0 +1,90 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import java.util.Arrays;
+
+/**
+ * See {@link TravelTimeQuantization}. Codes are chars (unsigned 16-bit), with {@link #OVERFLOW} marking entries stored
+ * in the (sorted by index) overflow table.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+final class QuantizedTravelTimeStorage implements TravelTimeStorage {
+	private static final char OVERFLOW = Character.MAX_VALUE;
+
+	private final char[] codes;
+	private final int resolution;
+	private final int[] overflowIndices;
+	private final int[] overflowTimes;
+
+	QuantizedTravelTimeStorage(int[] times, int resolution) {
+		this.resolution = resolution;
+		codes = new char[times.length];
+		int overflowCount = 0;
+		for (int i = 0; i < times.length; i++) {
+			long code = Math.round((double)times[i] / resolution);
+			if (code >= OVERFLOW) {
+				codes[i] = OVERFLOW;
+				overflowCount++;
+			} else {
+				codes[i] = (char)code;
+			}
+		}
+
+		overflowIndices = new int[overflowCount];
+		overflowTimes = new int[overflowCount];
+		for (int i = 0, j = 0; i < times.length; i++) {
+			if (codes[i] == OVERFLOW) {
+				overflowIndices[j] = i;
+				overflowTimes[j++] = times[i];
+			}
+		}
+	}
+
+	@Override
+	public int get(int index) {
+		char code = codes[index];
+		return code != OVERFLOW ? code * resolution : overflowTimes[Arrays.binarySearch(overflowIndices, index)];
+	}
+
+	@Override
+	public int size() {
+		return codes.length;
+	}
+
+	@Override
+	public void copyTo(int index, int[] dst, int dstIndex, int length) {
+		for (int i = 0; i < length; i++) {
+			dst[dstIndex + i] = get(index + i);
+		}
+	}
+
+	@Override
+	public long getMemoryBytes() {
+		return 2L * codes.length + 8L * overflowIndices.length;
+	}
+
+	@Override
+	public boolean isOffHeap() {
+		return false;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import java.nio.IntBuffer;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.matsim.api.core.v01.network.Node;
+
+import playground.michalm.dvrp.router.NodeOrdering;
+
+/**
+ * Travel times from each node to its network neighbourhood, stored in CSR layout: row {@code i} (node with
+ * {@code Id.index() == i}) spans {@code [rowStarts[i], rowStarts[i + 1])} of {@code columns} (sorted to-node indices)
+ * and {@code times}. Node pairs outside the neighbourhood are not covered.
+ * <p>
+ * Optionally, rows and columns are numbered according to a {@link NodeOrdering} (e.g. Hilbert curve) instead of
+ * {@link org.matsim.api.core.v01.Id#index()}, so that rows of nearby nodes are adjacent in memory. Node indices are
+ * then translated on each lookup, which is transparent to the callers.
+ * <p>
+ * The arrays are held in {@link IntBuffer}s, so the matrix can be either on-heap, off-heap (see
+ * {@link TravelTimeMatrixBuilder#buildOffHeapSparseMatrix}) or mapped from a file (see {@link TravelTimeMatrixCache}).
+ * Travel times can also be quantized ({@link TravelTimeQuantization}).
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class SparseTravelTimeMatrix implements TravelTimeEstimator {
+	private final IntBuffer rowStarts;
+	private final IntBuffer columns;
+	private final TravelTimeStorage times;
+	@Nullable
+	private final NodeOrdering nodeOrdering;
+
+	SparseTravelTimeMatrix(IntBuffer rowStarts, IntBuffer columns, TravelTimeStorage times) {
+		this(rowStarts, columns, times, null);
+	}
+
+	SparseTravelTimeMatrix(IntBuffer rowStarts, IntBuffer columns, TravelTimeStorage times,
+			@Nullable NodeOrdering nodeOrdering) {
+		this.rowStarts = rowStarts;
+		this.columns = columns;
+		this.times = times;
+		this.nodeOrdering = nodeOrdering;
+	}
+
+	/**
+	 * @return travel time [s] or -1 if the pair is not covered
+	 */
+	public int get(int fromNodeIndex, int toNodeIndex) {
+		int row = toRowOrColumn(fromNodeIndex);
+		return find(rowStarts.get(row), rowStarts.get(row + 1), toRowOrColumn(toNodeIndex));
+	}
+
+	int toRowOrColumn(int nodeIndex) {
+		return nodeOrdering == null ? nodeIndex : nodeOrdering.getPosition(nodeIndex);
+	}
+
+	int getRowCount() {
+		return rowStarts.capacity() - 1;
+	}
+
+	// packed: (column, time) pairs sorted by column
+	int[] getRow(int row) {
+		int start = rowStarts.get(row);
+		int[] packed = new int[2 * (rowStarts.get(row + 1) - start)];
+		for (int i = 0; i < packed.length / 2; i++) {
+			packed[2 * i] = columns.get(start + i);
+			packed[2 * i + 1] = times.get(start + i);
+		}
+		return packed;
+	}
+
+	int getRowStart(int row) {
+		return rowStarts.get(row);
+	}
+
+	int getRowEnd(int row) {
+		return rowStarts.get(row + 1);
+	}
+
+	/**
+	 * @return travel time [s] stored for the column in entries {@code [start, end)} or -1 if not found
+	 */
+	int find(int start, int end, int column) {
+		int low = start;
+		int high = end - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midColumn = columns.get(mid);
+			if (midColumn < column) {
+				low = mid + 1;
+			} else if (midColumn > column) {
+				high = mid - 1;
+			} else {
+				return times.get(mid);
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public double getTravelTime(Node fromNode, Node toNode) {
+		int time = get(fromNode.getId().index(), toNode.getId().index());
+		return time >= 0 ? time : Double.NaN;
+	}
+
+	public int getEntryCount() {
+		return columns.capacity();
+	}
+
+	@Override
+	public long getMemoryBytes() {
+		return 4L * (rowStarts.capacity() + columns.capacity()) + times.getMemoryBytes();
+	}
+
+	/**
+	 * @return true if all arrays are in off-heap memory (direct or mapped buffers)
+	 */
+	public boolean isOffHeap() {
+		return rowStarts.isDirect() && columns.isDirect() && times.isOffHeap();
+	}
+
+	@Nullable
+	public NodeOrdering getNodeOrdering() {
+		return nodeOrdering;
+	}
+
+	IntBuffer getRowStartsBuffer() {
+		return rowStarts;
+	}
+
+	IntBuffer getColumnsBuffer() {
+		return columns;
+	}
+
+	TravelTimeStorage getTimes() {
+		return times;
+	}
+}
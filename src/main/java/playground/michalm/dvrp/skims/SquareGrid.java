@@ -0,0 +1,118 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Node;
+
+import com.google.common.base.Preconditions;
+
+import playground.michalm.dvrp.router.NodeOrdering;
+
+/**
+ * Square grid covering the bounding box of the given nodes. Cells are laid out the same way as in the grid system of
+ * {@link org.matsim.contrib.zone.skims.FreeSpeedTravelTimeMatrix} (origin at the min x/y of the nodes, row-major
+ * indexing), so the cell index of a node corresponds to its zone in the DVRP travel time matrix.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class SquareGrid {
+	private final double cellSize;
+	private final double minX;
+	private final double minY;
+	private final int cols;
+	private final int rows;
+
+	public SquareGrid(Collection<? extends Node> nodes, double cellSize) {
+		Preconditions.checkArgument(!nodes.isEmpty(), "Cannot create a grid for an empty set of nodes");
+		this.cellSize = cellSize;
+
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (Node node : nodes) {
+			Coord coord = node.getCoord();
+			minX = Math.min(minX, coord.getX());
+			minY = Math.min(minY, coord.getY());
+			maxX = Math.max(maxX, coord.getX());
+			maxY = Math.max(maxY, coord.getY());
+		}
+		this.minX = minX;
+		this.minY = minY;
+		cols = Math.max(1, (int)Math.ceil((maxX - minX) / cellSize));
+		rows = Math.max(1, (int)Math.ceil((maxY - minY) / cellSize));
+	}
+
+	public int getCellIndex(Coord coord) {
+		// nodes on the max boundary go to the last row/column
+		int col = Math.min((int)((coord.getX() - minX) / cellSize), cols - 1);
+		int row = Math.min((int)((coord.getY() - minY) / cellSize), rows - 1);
+		return row * cols + col;
+	}
+
+	public int getCellIndex(Node node) {
+		return getCellIndex(node.getCoord());
+	}
+
+	public Coord getCellCentroid(int cellIndex) {
+		int row = cellIndex / cols;
+		int col = cellIndex % cols;
+		return new Coord(minX + (col + 0.5) * cellSize, minY + (row + 0.5) * cellSize);
+	}
+
+	public int getCellCount() {
+		return rows * cols;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Nodes grouped by cell (empty cells skipped), with cells ordered along a Hilbert curve, so that consecutive groups
+	 * are spatially adjacent. Within a cell, nodes keep their iteration order.
+	 */
+	public <N extends Node> List<List<N>> groupByCell(Collection<N> nodes) {
+		int side = Integer.highestOneBit(Math.max(Math.max(cols, rows) - 1, 1)) << 1;// power of 2 >= cols, rows
+		Map<Long, List<N>> nodesByCell = new TreeMap<>();
+		for (N node : nodes) {
+			int cellIndex = getCellIndex(node);
+			long key = NodeOrdering.hilbertIndex(side, cellIndex % cols, cellIndex / cols);
+			nodesByCell.computeIfAbsent(key, k -> new ArrayList<>()).add(node);
+		}
+		return new ArrayList<>(nodesByCell.values());
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.zone.skims.TravelTimeMatrix;
+import org.matsim.core.router.util.TravelTime;
+
+import com.google.common.base.Preconditions;
+
+import playground.michalm.dvrp.router.NodeOrdering;
+
+/**
+ * One {@link HybridTravelTimeMatrix} per time slice of {@code sliceDuration} seconds, each computed for departures
+ * in the middle of the slice. Departures after the last slice use the last slice. A query costs the same as a
+ * single-slice lookup plus selecting the slice.
+ * <p>
+ * The link travel times used for each slice are remembered, so that {@link #refresh(TravelTime, double)} (e.g. between
+ * iterations) recomputes only the slices in which link travel times have changed significantly.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class TimeSlicedTravelTimeMatrix implements TravelTimeMatrix {
+	private final Network network;
+	private final double cellSize;
+	private final double maxNeighborDistance;
+	private final double sliceDuration;
+	private final int numberOfThreads;
+	@Nullable
+	private final NodeOrdering nodeOrdering;
+	@Nullable
+	private final TravelTimeQuantization quantization;
+
+	private final Link[] links;
+	private final double[][] linkTimes;// by slice and link (as in links)
+	private final HybridTravelTimeMatrix[] slices;
+
+	public TimeSlicedTravelTimeMatrix(Network network, double cellSize, double maxNeighborDistance,
+			double sliceDuration, int sliceCount, TravelTime travelTime, int numberOfThreads,
+			@Nullable NodeOrdering nodeOrdering, @Nullable TravelTimeQuantization quantization) {
+		Preconditions.checkArgument(sliceDuration > 0 && sliceCount > 0);
+		this.network = network;
+		this.cellSize = cellSize;
+		this.maxNeighborDistance = maxNeighborDistance;
+		this.sliceDuration = sliceDuration;
+		this.numberOfThreads = numberOfThreads;
+		this.nodeOrdering = nodeOrdering;
+		this.quantization = quantization;
+
+		links = network.getLinks().values().toArray(Link[]::new);
+		linkTimes = new double[sliceCount][];
+		slices = new HybridTravelTimeMatrix[sliceCount];
+		for (int slice = 0; slice < sliceCount; slice++) {
+			computeSlice(slice, travelTime);
+		}
+	}
+
+	/**
+	 * Recomputes the slices in which the travel time of at least one link has changed by more than
+	 * {@code relativeThreshold} (e.g. 0.1 for 10%) since the slice was computed.
+	 *
+	 * @return number of recomputed slices
+	 */
+	public int refresh(TravelTime travelTime, double relativeThreshold) {
+		int refreshed = 0;
+		for (int slice = 0; slice < slices.length; slice++) {
+			double time = getSliceDepartureTime(slice);
+			double[] oldTimes = linkTimes[slice];
+			for (int i = 0; i < links.length; i++) {
+				double newTime = travelTime.getLinkTravelTime(links[i], time, null, null);
+				if (Math.abs(newTime - oldTimes[i]) > relativeThreshold * oldTimes[i]) {
+					computeSlice(slice, travelTime);
+					refreshed++;
+					break;
+				}
+			}
+		}
+		return refreshed;
+	}
+
+	private void computeSlice(int slice, TravelTime travelTime) {
+		double departureTime = getSliceDepartureTime(slice);
+		double[] times = new double[links.length];
+		for (int i = 0; i < links.length; i++) {
+			times[i] = travelTime.getLinkTravelTime(links[i], departureTime, null, null);
+		}
+		linkTimes[slice] = times;
+		slices[slice] = TravelTimeMatrixBuilder.buildHybridMatrix(network, cellSize, maxNeighborDistance, travelTime,
+				departureTime, numberOfThreads, nodeOrdering, quantization);
+	}
+
+	public int getSliceCount() {
+		return slices.length;
+	}
+
+	public int getSlice(double departureTime) {
+		return Math.max(0, Math.min((int)(departureTime / sliceDuration), slices.length - 1));
+	}
+
+	public double getSliceDepartureTime(int slice) {
+		return (slice + 0.5) * sliceDuration;
+	}
+
+	public HybridTravelTimeMatrix getSliceMatrix(int slice) {
+		return slices[slice];
+	}
+
+	public int getTravelTime(int fromNodeIndex, int toNodeIndex, double departureTime) {
+		return slices[getSlice(departureTime)].getTravelTime(fromNodeIndex, toNodeIndex);
+	}
+
+	/**
+	 * @see HybridTravelTimeMatrix#getTravelTimes(int, int[], double[])
+	 */
+	public void getTravelTimes(int fromNodeIndex, int[] toNodeIndices, double departureTime, double[] out) {
+		slices[getSlice(departureTime)].getTravelTimes(fromNodeIndex, toNodeIndices, out);
+	}
+
+	/**
+	 * @see HybridTravelTimeMatrix#getTravelTimes(int[], int, double[])
+	 */
+	public void getTravelTimes(int[] fromNodeIndices, int toNodeIndex, double departureTime, double[] out) {
+		slices[getSlice(departureTime)].getTravelTimes(fromNodeIndices, toNodeIndex, out);
+	}
+
+	@Override
+	public int getTravelTime(Node fromNode, Node toNode, double departureTime) {
+		return getTravelTime(fromNode.getId().index(), toNode.getId().index(), departureTime);
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.router.DvrpGlobalRoutingNetworkProvider;
+import org.matsim.contrib.dvrp.run.DvrpConfigGroup;
+import org.matsim.contrib.dvrp.trafficmonitoring.DvrpTravelTimeModule;
+import org.matsim.contrib.zone.skims.TravelTimeMatrix;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.router.util.TravelTime;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+/**
+ * Binds {@link TravelTimeMatrix} to a {@link TimeSlicedTravelTimeMatrix} of the DVRP routing network, initially
+ * computed from {@code initialTravelTime}. At the end of each iteration, the matrix is refreshed with the DVRP
+ * estimated link travel times (see {@link TimeSlicedTravelTimeMatrix#refresh}), which are updated from the travel
+ * times observed during the mobsim. Use as an overriding module.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public class TimeSlicedTravelTimeMatrixModule extends AbstractModule {
+	private final TravelTime initialTravelTime;
+	private final double sliceDuration;
+	private final int sliceCount;
+	private final double refreshThreshold;
+
+	public TimeSlicedTravelTimeMatrixModule(TravelTime initialTravelTime, double sliceDuration, int sliceCount,
+			double refreshThreshold) {
+		this.initialTravelTime = initialTravelTime;
+		this.sliceDuration = sliceDuration;
+		this.sliceCount = sliceCount;
+		this.refreshThreshold = refreshThreshold;
+	}
+
+	@Override
+	public void install() {
+		var matrixParams = DvrpConfigGroup.get(getConfig()).getTravelTimeMatrixParams();
+		int numberOfThreads = getConfig().global().getNumberOfThreads();
+		bind(TimeSlicedTravelTimeMatrix.class).toProvider(new Provider<>() {
+			@Inject
+			@Named(DvrpGlobalRoutingNetworkProvider.DVRP_ROUTING)
+			private Network network;
+
+			@Override
+			public TimeSlicedTravelTimeMatrix get() {
+				return new TimeSlicedTravelTimeMatrix(network, matrixParams.getCellSize(),
+						matrixParams.getMaxNeighborDistance(), sliceDuration, sliceCount, initialTravelTime,
+						numberOfThreads, null, null);
+			}
+		}).in(Singleton.class);
+		bind(TravelTimeMatrix.class).to(TimeSlicedTravelTimeMatrix.class);
+		addControlerListenerBinding().toInstance(new Refresher(refreshThreshold));
+	}
+
+	private static class Refresher implements IterationEndsListener {
+		private static final Logger log = LogManager.getLogger(Refresher.class);
+
+		private final double refreshThreshold;
+
+		@Inject
+		private TimeSlicedTravelTimeMatrix matrix;
+		@Inject
+		@Named(DvrpTravelTimeModule.DVRP_ESTIMATED)
+		private TravelTime travelTime;
+
+		private Refresher(double refreshThreshold) {
+			this.refreshThreshold = refreshThreshold;
+		}
+
+		@Override
+		public void notifyIterationEnds(IterationEndsEvent event) {
+			int refreshedSlices = matrix.refresh(travelTime, refreshThreshold);
+			log.info("Time-sliced travel time matrix: recomputed " + refreshedSlices + " / "
+					+ matrix.getSliceCount() + " slices");
+		}
+	}
+}
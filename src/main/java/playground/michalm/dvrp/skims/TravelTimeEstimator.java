@@ -0,0 +1,41 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import org.matsim.api.core.v01.network.Node;
+
+/**
+ * Node-to-node travel time estimate, e.g. read from a (zonal, sparse or hybrid) travel time matrix or computed with a
+ * beeline model.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public interface TravelTimeEstimator {
+	/**
+	 * @return estimated travel time [s] or NaN if the estimator does not cover this node pair
+	 */
+	double getTravelTime(Node fromNode, Node toNode);
+
+	/**
+	 * @return approx. size of the data held by this estimator [bytes]
+	 */
+	long getMemoryBytes();
+}
@@ -0,0 +1,347 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import static java.util.stream.Collectors.toList;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.common.util.DistanceUtils;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.contrib.util.ExecutorServiceWithResource;
+import org.matsim.core.network.TimeDependentNetwork;
+import org.matsim.core.router.speedy.LeastCostPathTree;
+import org.matsim.core.router.speedy.LeastCostPathTree.StopCriterion;
+import org.matsim.core.router.speedy.SpeedyGraph;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.utils.misc.OptionalTime;
+
+import playground.michalm.dvrp.router.CompactGraph;
+import playground.michalm.dvrp.router.CompactLeastCostPathTree;
+import playground.michalm.dvrp.router.ContractionHierarchy;
+import playground.michalm.dvrp.router.DialLeastCostPathTree;
+import playground.michalm.dvrp.router.ManyToManyQuery;
+import playground.michalm.dvrp.router.NodeOrdering;
+import playground.michalm.dvrp.router.SettledNodes;
+import playground.michalm.dvrp.router.ShortestPathTree;
+import playground.michalm.util.WorkStealingExecutorWithResource;
+
+/**
+ * Parallel construction of {@link ZonalTravelTimeMatrix} and {@link SparseTravelTimeMatrix}, following
+ * {@link org.matsim.contrib.zone.skims.TravelTimeMatrices} (time as disutility, one tree per zone/node).
+ * <p>
+ * If a {@link NodeOrdering} is given, the trees run on a {@link CompactGraph} with nodes in that order and the sparse
+ * matrix rows/columns are stored in that order. Otherwise, {@link SpeedyGraph} is used and the sparse matrix is
+ * indexed by {@link Id#index()}. If a {@link TravelTimeQuantization} is given, travel times are stored quantized.
+ * Free-speed trees with integral link times use {@link DialLeastCostPathTree} (on a {@link CompactGraph}, in the given
+ * order or by {@link Id#index()}), provided the network is not time-variant and the trees are always started at the
+ * same (fixed) departure time.
+ * <p>
+ * Zone-to-zone times can also be computed with a {@link ManyToManyQuery} on a {@link ContractionHierarchy} (e.g. a
+ * free-speed one from {@link ContractionHierarchyCache}) instead of one full tree per zone.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public class TravelTimeMatrixBuilder {
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	private static final StopCriterion NO_STOP = (nodeIndex, arrivalTime, travelCost, distance, departureTime) -> false;
+
+	public static HybridTravelTimeMatrix buildHybridMatrix(Network network, double cellSize,
+			double maxNeighborDistance, TravelTime travelTime, double departureTime, int numberOfThreads) {
+		return buildHybridMatrix(network, cellSize, maxNeighborDistance, travelTime, departureTime, numberOfThreads,
+				null, null);
+	}
+
+	public static HybridTravelTimeMatrix buildHybridMatrix(Network network, double cellSize,
+			double maxNeighborDistance, TravelTime travelTime, double departureTime, int numberOfThreads,
+			@Nullable NodeOrdering nodeOrdering, @Nullable TravelTimeQuantization quantization) {
+		var grid = new SquareGrid(network.getNodes().values(), cellSize);
+		return new HybridTravelTimeMatrix(
+				buildZonalMatrix(network, grid, travelTime, departureTime, numberOfThreads, nodeOrdering,
+						quantization),
+				buildSparseMatrix(network, maxNeighborDistance, travelTime, departureTime, numberOfThreads,
+						nodeOrdering, quantization));
+	}
+
+	public static ZonalTravelTimeMatrix buildZonalMatrix(Network network, SquareGrid grid, TravelTime travelTime,
+			double departureTime, int numberOfThreads, @Nullable NodeOrdering nodeOrdering,
+			@Nullable TravelTimeQuantization quantization) {
+		var zones = Zones.create(network, grid);
+		Node[] centralNodes = zones.centralNodes();
+		int zoneCount = centralNodes.length;
+		int[] times = new int[zoneCount * zoneCount];
+		var executorService = createExecutorService(network, travelTime, OptionalTime.defined(departureTime),
+				numberOfThreads, nodeOrdering);
+		executorService.submitRunnablesAndWait(IntStream.range(0, zoneCount)
+				.mapToObj(fromZone -> worker -> computeZonalRow(fromZone, centralNodes, departureTime, worker, times)));
+		executorService.shutdown();
+
+		return new ZonalTravelTimeMatrix(IntBuffer.wrap(zones.zoneByNodeIndex()), centralNodes,
+				TravelTimeStorage.of(times, quantization));
+	}
+
+	/**
+	 * Same zones as {@link #buildZonalMatrix(Network, SquareGrid, TravelTime, double, int, NodeOrdering,
+	 * TravelTimeQuantization)}, but the zone-to-zone times come from {@link ManyToManyQuery}s on the hierarchy, so they
+	 * are the (time-independent) times the hierarchy was built with. The central nodes are split into one block of
+	 * origins per thread, each with its own query.
+	 */
+	public static ZonalTravelTimeMatrix buildZonalMatrix(Network network, SquareGrid grid,
+			ContractionHierarchy hierarchy, int numberOfThreads, @Nullable TravelTimeQuantization quantization) {
+		var zones = Zones.create(network, grid);
+		Node[] centralNodes = zones.centralNodes();
+		int zoneCount = centralNodes.length;
+		int[] centralNodeIndices = Arrays.stream(centralNodes).mapToInt(node -> node.getId().index()).toArray();
+		int[] times = new int[zoneCount * zoneCount];
+
+		int blockSize = (zoneCount + numberOfThreads - 1) / numberOfThreads;
+		var executorService = new ExecutorServiceWithResource<>(IntStream.range(0, numberOfThreads)
+				.mapToObj(i -> new ManyToManyQuery(hierarchy))
+				.collect(toList()));
+		executorService.submitRunnablesAndWait(IntStream.range(0, numberOfThreads).mapToObj(block -> query -> {
+			int firstZone = Math.min(block * blockSize, zoneCount);
+			int[] fromNodeIndices = Arrays.copyOfRange(centralNodeIndices, firstZone,
+					Math.min(firstZone + blockSize, zoneCount));
+			query.calcTravelTimes(fromNodeIndices, centralNodeIndices, (row, i) -> {
+				int offset = (firstZone + i) * zoneCount;
+				for (int toZone = 0; toZone < zoneCount; toZone++) {
+					times[offset + toZone] = row[toZone] < Double.POSITIVE_INFINITY ?
+							(int)Math.round(row[toZone]) :
+							UNREACHABLE;
+				}
+			});
+		}));
+		executorService.shutdown();
+
+		return new ZonalTravelTimeMatrix(IntBuffer.wrap(zones.zoneByNodeIndex()), centralNodes,
+				TravelTimeStorage.of(times, quantization));
+	}
+
+	private record Zones(Node[] centralNodes, int[] zoneByNodeIndex) {
+		private static Zones create(Network network, SquareGrid grid) {
+			Collection<? extends Node> nodes = network.getNodes().values();
+
+			// the most central node of each cell is the one closest to the cell centroid
+			Node[] centralNodeByCell = new Node[grid.getCellCount()];
+			for (Node node : nodes) {
+				int cell = grid.getCellIndex(node);
+				Node current = centralNodeByCell[cell];
+				if (current == null || squaredDistanceToCentroid(grid, cell, node) < squaredDistanceToCentroid(grid,
+						cell, current)) {
+					centralNodeByCell[cell] = node;
+				}
+			}
+
+			int[] zoneByCell = new int[grid.getCellCount()];
+			Node[] centralNodes = Arrays.stream(centralNodeByCell).filter(n -> n != null).toArray(Node[]::new);
+			for (int cell = 0, zone = 0; cell < centralNodeByCell.length; cell++) {
+				zoneByCell[cell] = centralNodeByCell[cell] == null ? -1 : zone++;
+			}
+
+			int[] zoneByNodeIndex = new int[Id.getNumberOfIds(Node.class)];
+			Arrays.fill(zoneByNodeIndex, -1);
+			for (Node node : nodes) {
+				zoneByNodeIndex[node.getId().index()] = zoneByCell[grid.getCellIndex(node)];
+			}
+
+			return new Zones(centralNodes, zoneByNodeIndex);
+		}
+	}
+
+	static void computeZonalRow(int fromZone, Node[] centralNodes, double departureTime, Worker worker, int[] times) {
+		var tree = worker.tree;
+		tree.calculate(centralNodes[fromZone].getId().index(), departureTime, NO_STOP);
+		int zoneCount = centralNodes.length;
+		for (int toZone = 0; toZone < zoneCount; toZone++) {
+			OptionalTime time = tree.getTime(centralNodes[toZone].getId().index());
+			times[fromZone * zoneCount + toZone] = time.isDefined() ?
+					(int)Math.round(time.seconds() - departureTime) :
+					UNREACHABLE;
+		}
+	}
+
+	private static double squaredDistanceToCentroid(SquareGrid grid, int cell, Node node) {
+		return DistanceUtils.calculateSquaredDistance(grid.getCellCentroid(cell), node.getCoord());
+	}
+
+	public static SparseTravelTimeMatrix buildSparseMatrix(Network network, double maxNeighborDistance,
+			TravelTime travelTime, double departureTime, int numberOfThreads, @Nullable NodeOrdering nodeOrdering,
+			@Nullable TravelTimeQuantization quantization) {
+		int[][] rows = new int[getRowCount(nodeOrdering)][];// packed: (column, time) pairs sorted by column
+		var workers = createWorkers(network, travelTime, OptionalTime.defined(departureTime), numberOfThreads,
+				nodeOrdering);
+		computeSparseRows(network, maxNeighborDistance, departureTime, workers, nodeOrdering,
+				(row, rowIndex) -> rows[rowIndex] = row);
+		return assembleSparseMatrix(rows, nodeOrdering, quantization);
+	}
+
+	/**
+	 * Same as {@link #buildSparseMatrix}, but the matrix is stored in off-heap (direct) memory, so that a large matrix
+	 * neither occupies the heap nor adds to the GC work. Travel times are stored as ints.
+	 * <p>
+	 * The rows are computed twice: first only to count their entries, so that the matrix is allocated with its exact
+	 * size, then to write them directly into it. This doubles the (bounded) searches, but keeps the peak off-heap
+	 * memory at the size of the matrix.
+	 */
+	public static SparseTravelTimeMatrix buildOffHeapSparseMatrix(Network network, double maxNeighborDistance,
+			TravelTime travelTime, double departureTime, int numberOfThreads, @Nullable NodeOrdering nodeOrdering) {
+		var workers = createWorkers(network, travelTime, OptionalTime.defined(departureTime), numberOfThreads,
+				nodeOrdering);
+		int[] rowEntryCounts = new int[getRowCount(nodeOrdering)];
+		computeSparseRows(network, maxNeighborDistance, departureTime, workers, nodeOrdering,
+				(row, rowIndex) -> rowEntryCounts[rowIndex] = row.length / 2);
+
+		var rows = new OffHeapSparseRows(rowEntryCounts);
+		computeSparseRows(network, maxNeighborDistance, departureTime, workers, nodeOrdering,
+				(row, rowIndex) -> rows.put(rowIndex, row));
+		return rows.toMatrix(nodeOrdering);
+	}
+
+	private static int getRowCount(@Nullable NodeOrdering nodeOrdering) {
+		return nodeOrdering == null ? Id.getNumberOfIds(Node.class) : nodeOrdering.getNodeCount();
+	}
+
+	private static void computeSparseRows(Network network, double maxNeighborDistance, double departureTime,
+			List<Worker> workers, @Nullable NodeOrdering nodeOrdering, ObjIntConsumer<int[]> rowConsumer) {
+		StopCriterion stopCriterion = (nodeIndex, arrivalTime, travelCost, distance,
+				departureTime1) -> distance >= maxNeighborDistance;
+		// origins in the same cell have overlapping trees, so they are processed one after another by the same worker
+		var chunks = new SquareGrid(network.getNodes().values(), maxNeighborDistance).groupByCell(
+				network.getNodes().values());
+		var executor = new WorkStealingExecutorWithResource<>(workers);
+		executor.processChunksAndWait(chunks, (Worker worker, Node node) -> {
+			int fromIndex = node.getId().index();
+			int row = nodeOrdering == null ? fromIndex : nodeOrdering.getPosition(fromIndex);
+			rowConsumer.accept(computeSparseRow(fromIndex, departureTime, maxNeighborDistance, stopCriterion, worker,
+					nodeOrdering), row);
+		});
+		executor.shutdown();
+	}
+
+	static int[] computeSparseRow(int fromIndex, double departureTime, double maxNeighborDistance,
+			StopCriterion stopCriterion, Worker worker, @Nullable NodeOrdering nodeOrdering) {
+		var tree = worker.tree;
+		var settledNodes = worker.settledNodes;
+		settledNodes.calculate(tree, fromIndex, departureTime, stopCriterion);
+
+		// (column << 32 | time), so that sorting orders entries by column
+		long[] entries = new long[settledNodes.size()];
+		int size = 0;
+		for (int i = 0; i < settledNodes.size(); i++) {
+			int toIndex = settledNodes.getNodeIndex(i);
+			if (tree.getDistance(toIndex) < maxNeighborDistance) {
+				int time = (int)Math.round(tree.getTime(toIndex).seconds() - departureTime);
+				int column = nodeOrdering == null ? toIndex : nodeOrdering.getPosition(toIndex);
+				entries[size++] = ((long)column << 32) | time;
+			}
+		}
+		Arrays.sort(entries, 0, size);
+
+		int[] row = new int[2 * size];
+		for (int i = 0; i < size; i++) {
+			row[2 * i] = (int)(entries[i] >>> 32);
+			row[2 * i + 1] = (int)entries[i];
+		}
+		return row;
+	}
+
+	static SparseTravelTimeMatrix assembleSparseMatrix(int[][] rows, @Nullable NodeOrdering nodeOrdering,
+			@Nullable TravelTimeQuantization quantization) {
+		int[] rowStarts = new int[rows.length + 1];
+		for (int i = 0; i < rows.length; i++) {
+			rowStarts[i + 1] = rowStarts[i] + (rows[i] == null ? 0 : rows[i].length / 2);
+		}
+
+		int[] columns = new int[rowStarts[rows.length]];
+		int[] times = new int[columns.length];
+		for (int i = 0; i < rows.length; i++) {
+			int[] row = rows[i];
+			if (row != null) {
+				for (int j = 0, idx = rowStarts[i]; j < row.length; j += 2, idx++) {
+					columns[idx] = row[j];
+					times[idx] = row[j + 1];
+				}
+			}
+		}
+		return new SparseTravelTimeMatrix(IntBuffer.wrap(rowStarts), IntBuffer.wrap(columns),
+				TravelTimeStorage.of(times, quantization), nodeOrdering);
+	}
+
+	record Worker(ShortestPathTree tree, SettledNodes settledNodes) {
+	}
+
+	static ExecutorServiceWithResource<Worker> createExecutorService(Network network, TravelTime travelTime,
+			OptionalTime fixedDepartureTime, int numberOfThreads, @Nullable NodeOrdering nodeOrdering) {
+		return new ExecutorServiceWithResource<>(
+				createWorkers(network, travelTime, fixedDepartureTime, numberOfThreads, nodeOrdering));
+	}
+
+	static List<Worker> createWorkers(Network network, TravelTime travelTime, OptionalTime fixedDepartureTime,
+			int numberOfThreads, @Nullable NodeOrdering nodeOrdering) {
+		Supplier<ShortestPathTree> treeFactory = createTreeFactory(network, travelTime, fixedDepartureTime,
+				nodeOrdering);
+		return IntStream.range(0, numberOfThreads)
+				.mapToObj(i -> new Worker(treeFactory.get(), new SettledNodes()))
+				.collect(toList());
+	}
+
+	/**
+	 * @param fixedDepartureTime departure time of all trees, or undefined if trees may start at any time
+	 */
+	public static Supplier<ShortestPathTree> createTreeFactory(Network network, TravelTime travelTime,
+			OptionalTime fixedDepartureTime, @Nullable NodeOrdering nodeOrdering) {
+		var travelDisutility = new TimeAsTravelDisutility(travelTime);
+		// Dial's tree evaluates link costs once, so they must not depend on the time of day
+		if (fixedDepartureTime.isDefined()
+				&& !isTimeVariant(network)
+				&& travelTime instanceof QSimFreeSpeedTravelTime) {
+			// trees identify nodes by Id.index(), so their internal node order need not match the matrix ordering
+			var graph = new CompactGraph(network,
+					nodeOrdering != null ? nodeOrdering : NodeOrdering.byIdIndex(network));
+			if (DialLeastCostPathTree.hasIntegralCosts(graph, travelDisutility)) {
+				return () -> new DialLeastCostPathTree(graph, travelTime, travelDisutility);
+			}
+		}
+		if (nodeOrdering == null) {
+			var graph = new SpeedyGraph(network);
+			return () -> ShortestPathTree.of(new LeastCostPathTree(graph, travelTime, travelDisutility));
+		}
+		var graph = new CompactGraph(network, nodeOrdering);
+		return () -> new CompactLeastCostPathTree(graph, travelTime, travelDisutility);
+	}
+
+	static boolean isTimeVariant(Network network) {
+		return network instanceof TimeDependentNetwork timeDependentNetwork
+				&& !timeDependentNetwork.getNetworkChangeEvents().isEmpty();
+	}
+}
@@ -0,0 +1,345 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.contrib.zone.skims.DvrpTravelTimeMatrixParams;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Persists free-speed {@link HybridTravelTimeMatrix}es in a cache directory. Files are named after a fingerprint of
+ * the network (nodes, links, free speeds) and the matrix params, so a matrix is computed once and then reused by all
+ * runs on the same network, e.g. in a sweep.
+ * <p>
+ * The travel time arrays are memory-mapped (read-only), which takes milliseconds, and the pages are shared by all
+ * JVMs on the same machine. Node indices ({@link Id#index()}) depend on the order in which ids were created in a JVM.
+ * If they do not match those used when the file was written, the matrix is read into heap buffers (the sparse part
+ * into off-heap buffers) with translated node indices instead of being mapped.
+ * <p>
+ * File layout (big-endian): header, int sections (zoneByNodeIndex, central node indices, zonal times, row starts,
+ * columns, sparse times) and the node ids by index.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class TravelTimeMatrixCache {
+	private static final int MAGIC = 0x54544d43;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 64;
+
+	public static HybridTravelTimeMatrix loadOrCreateFreeSpeedMatrix(Path cacheDirectory, Network network,
+			DvrpTravelTimeMatrixParams params, int numberOfThreads, double qSimTimeStepSize) {
+		String fingerprint = fingerprint(network, params, qSimTimeStepSize);
+		Path file = cacheDirectory.resolve("freeSpeedMatrix_" + fingerprint + ".bin");
+		if (Files.exists(file)) {
+			System.out.println("Loading travel time matrix from " + file);
+			return read(file, network, fingerprint);
+		}
+
+		var matrix = TravelTimeMatrixBuilder.buildHybridMatrix(network, params.getCellSize(),
+				params.getMaxNeighborDistance(), new QSimFreeSpeedTravelTime(qSimTimeStepSize), 0, numberOfThreads);
+		System.out.println("Writing travel time matrix to " + file);
+		write(file, matrix, network, fingerprint);
+		return matrix;
+	}
+
+	/**
+	 * Sparse matrix only: built off-heap ({@link TravelTimeMatrixBuilder#buildOffHeapSparseMatrix}) and persisted in
+	 * the same file layout (with no zones), so it never occupies the heap.
+	 */
+	public static SparseTravelTimeMatrix loadOrCreateFreeSpeedSparseMatrix(Path cacheDirectory, Network network,
+			double maxNeighborDistance, int numberOfThreads, double qSimTimeStepSize) {
+		String fingerprint = fingerprint(network, VERSION, 0, maxNeighborDistance, qSimTimeStepSize);
+		Path file = cacheDirectory.resolve("freeSpeedSparseMatrix_" + fingerprint + ".bin");
+		if (Files.exists(file)) {
+			System.out.println("Loading sparse travel time matrix from " + file);
+			return read(file, network, fingerprint).getSparseMatrix();
+		}
+
+		var sparseMatrix = TravelTimeMatrixBuilder.buildOffHeapSparseMatrix(network, maxNeighborDistance,
+				new QSimFreeSpeedTravelTime(qSimTimeStepSize), 0, numberOfThreads, null);
+		int[] noZones = new int[sparseMatrix.getRowCount()];
+		Arrays.fill(noZones, -1);
+		var emptyZonalMatrix = new ZonalTravelTimeMatrix(IntBuffer.wrap(noZones), new Node[0],
+				new IntTravelTimeStorage(IntBuffer.allocate(0)));
+		System.out.println("Writing sparse travel time matrix to " + file);
+		write(file, new HybridTravelTimeMatrix(emptyZonalMatrix, sparseMatrix), network, fingerprint);
+		return sparseMatrix;
+	}
+
+	/**
+	 * SHA-256 of the matrix params and of everything in the network that affects free-speed travel times.
+	 */
+	static String fingerprint(Network network, DvrpTravelTimeMatrixParams params, double qSimTimeStepSize) {
+		return fingerprint(network, VERSION, params.getCellSize(), params.getMaxNeighborDistance(), qSimTimeStepSize);
+	}
+
+	static String fingerprint(Network network, int version, double... params) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+
+		try (var out = new DataOutputStream(
+				new BufferedOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest)))) {
+			out.writeInt(version);
+			for (double param : params) {
+				out.writeDouble(param);
+			}
+
+			List<? extends Node> nodes = network.getNodes()
+					.values()
+					.stream()
+					.sorted(Comparator.comparing(node -> node.getId().toString()))
+					.toList();
+			out.writeInt(nodes.size());
+			for (Node node : nodes) {
+				out.writeUTF(node.getId().toString());
+				out.writeDouble(node.getCoord().getX());
+				out.writeDouble(node.getCoord().getY());
+			}
+
+			List<? extends Link> links = network.getLinks()
+					.values()
+					.stream()
+					.sorted(Comparator.comparing(link -> link.getId().toString()))
+					.toList();
+			out.writeInt(links.size());
+			for (Link link : links) {
+				out.writeUTF(link.getId().toString());
+				out.writeUTF(link.getFromNode().getId().toString());
+				out.writeUTF(link.getToNode().getId().toString());
+				out.writeDouble(link.getLength());
+				out.writeDouble(link.getFreespeed(0));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return HexFormat.of().formatHex(digest.digest(), 0, 16);
+	}
+
+	static void write(Path file, HybridTravelTimeMatrix matrix, Network network, String fingerprint) {
+		var zonal = matrix.getZonalMatrix();
+		var sparse = matrix.getSparseMatrix();
+		int nodeIndexCount = zonal.getZoneByNodeIndexBuffer().capacity();
+		Preconditions.checkArgument(sparse.getNodeOrdering() == null, "Node renumbering is not supported");
+
+		// write to a temporary file first, so that other JVMs never see an incomplete matrix
+		Path tmpFile = file.resolveSibling(file.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+		try {
+			Files.createDirectories(file.toAbsolutePath().getParent());
+			try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(fingerprint);// 2 + 32 bytes
+				out.writeInt(nodeIndexCount);
+				out.writeInt(zonal.getZoneCount());
+				out.writeInt(sparse.getEntryCount());
+				out.write(new byte[HEADER_BYTES - out.size()]);
+
+				writeInts(out, zonal.getZoneByNodeIndexBuffer());
+				for (int zone = 0; zone < zonal.getZoneCount(); zone++) {
+					out.writeInt(zonal.getCentralNode(zone).getId().index());
+				}
+				writeInts(out, zonal.getTimes());
+				writeInts(out, sparse.getRowStartsBuffer());
+				writeInts(out, sparse.getColumnsBuffer());
+				writeInts(out, sparse.getTimes());
+
+				for (int i = 0; i < nodeIndexCount; i++) {
+					// ids of non-network nodes are not needed (their rows are empty)
+					Id<Node> nodeId = Id.get(i, Node.class);
+					out.writeUTF(network.getNodes().containsKey(nodeId) ? nodeId.toString() : "");
+				}
+			}
+			Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void writeInts(DataOutputStream out, IntBuffer buffer) throws IOException {
+		for (int i = 0; i < buffer.capacity(); i++) {
+			out.writeInt(buffer.get(i));
+		}
+	}
+
+	// quantized times are written (and later mapped) as ints
+	private static void writeInts(DataOutputStream out, TravelTimeStorage times) throws IOException {
+		for (int i = 0; i < times.size(); i++) {
+			out.writeInt(times.get(i));
+		}
+	}
+
+	static HybridTravelTimeMatrix read(Path file, Network network, String fingerprint) {
+		try (var channel = FileChannel.open(file)) {
+			var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+			Preconditions.checkState(header.getInt() == MAGIC && header.getInt() == VERSION,
+					"Not a travel time matrix file: %s", file);
+			byte[] fingerprintBytes = new byte[header.getShort()];
+			header.get(fingerprintBytes);
+			Preconditions.checkState(fingerprint.equals(new String(fingerprintBytes)),
+					"Travel time matrix %s was created for a different network/params", file);
+			int nodeIndexCount = header.getInt();
+			int zoneCount = header.getInt();
+			int entryCount = header.getInt();
+
+			// each section is mapped separately (a single mapping is limited to 2 GB)
+			var sections = new SectionMapper(channel, HEADER_BYTES);
+			IntBuffer zoneByNodeIndex = sections.map(nodeIndexCount);
+			IntBuffer centralNodeIndices = sections.map(zoneCount);
+			IntBuffer zonalTimes = sections.map((long)zoneCount * zoneCount);
+			IntBuffer rowStarts = sections.map(nodeIndexCount + 1);
+			IntBuffer columns = sections.map(entryCount);
+			IntBuffer sparseTimes = sections.map(entryCount);
+
+			int[] nodeIndexByFileIndex = readNodeIndices(file, sections.offset, nodeIndexCount, network);
+			Node[] centralNodes = new Node[zoneCount];
+			for (int zone = 0; zone < zoneCount; zone++) {
+				int nodeIndex = nodeIndexByFileIndex[centralNodeIndices.get(zone)];
+				centralNodes[zone] = network.getNodes().get(Id.get(nodeIndex, Node.class));
+			}
+
+			boolean sameNodeIndices = true;
+			for (int i = 0; i < nodeIndexCount; i++) {
+				sameNodeIndices &= nodeIndexByFileIndex[i] < 0 || nodeIndexByFileIndex[i] == i;
+			}
+			if (!sameNodeIndices) {
+				System.out.println("Node indices differ from those in " + file + ". Translating the matrix");
+				return translateNodeIndices(nodeIndexByFileIndex, zoneByNodeIndex, centralNodes, zonalTimes,
+						rowStarts, columns, sparseTimes);
+			}
+
+			return new HybridTravelTimeMatrix(
+					new ZonalTravelTimeMatrix(zoneByNodeIndex, centralNodes, new IntTravelTimeStorage(zonalTimes)),
+					new SparseTravelTimeMatrix(rowStarts, columns, new IntTravelTimeStorage(sparseTimes)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// -1 for non-network nodes
+	private static int[] readNodeIndices(Path file, long offset, int nodeIndexCount, Network network)
+			throws IOException {
+		int[] nodeIndexByFileIndex = new int[nodeIndexCount];
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			in.skipNBytes(offset);
+			for (int i = 0; i < nodeIndexCount; i++) {
+				String nodeId = in.readUTF();
+				if (nodeId.isEmpty()) {
+					nodeIndexByFileIndex[i] = -1;
+				} else {
+					Node node = network.getNodes().get(Id.createNodeId(nodeId));
+					Preconditions.checkState(node != null, "Node %s not found in the network", nodeId);
+					nodeIndexByFileIndex[i] = node.getId().index();
+				}
+			}
+		}
+		return nodeIndexByFileIndex;
+	}
+
+	private static HybridTravelTimeMatrix translateNodeIndices(int[] nodeIndexByFileIndex, IntBuffer zoneByFileIndex,
+			Node[] centralNodes, IntBuffer zonalTimes, IntBuffer fileRowStarts, IntBuffer fileColumns,
+			IntBuffer fileTimes) {
+		int nodeIndexCount = Id.getNumberOfIds(Node.class);
+		int[] zoneByNodeIndex = new int[nodeIndexCount];
+		Arrays.fill(zoneByNodeIndex, -1);
+		int[] rowEntryCounts = new int[nodeIndexCount];
+		for (int i = 0; i < nodeIndexByFileIndex.length; i++) {
+			if (nodeIndexByFileIndex[i] >= 0) {
+				rowEntryCounts[nodeIndexByFileIndex[i]] = fileRowStarts.get(i + 1) - fileRowStarts.get(i);
+			}
+		}
+		var rows = new OffHeapSparseRows(rowEntryCounts);
+		for (int i = 0; i < nodeIndexByFileIndex.length; i++) {
+			int nodeIndex = nodeIndexByFileIndex[i];
+			if (nodeIndex < 0) {
+				continue;
+			}
+			zoneByNodeIndex[nodeIndex] = zoneByFileIndex.get(i);
+
+			// (column << 32 | time), so that sorting orders entries by column
+			int start = fileRowStarts.get(i);
+			long[] entries = new long[fileRowStarts.get(i + 1) - start];
+			for (int j = 0; j < entries.length; j++) {
+				entries[j] = ((long)nodeIndexByFileIndex[fileColumns.get(start + j)] << 32) | fileTimes.get(start + j);
+			}
+			Arrays.sort(entries);
+			int[] row = new int[2 * entries.length];
+			for (int j = 0; j < entries.length; j++) {
+				row[2 * j] = (int)(entries[j] >>> 32);
+				row[2 * j + 1] = (int)entries[j];
+			}
+			rows.put(nodeIndex, row);
+		}
+
+		int[] times = new int[zonalTimes.capacity()];
+		zonalTimes.get(0, times);
+		return new HybridTravelTimeMatrix(
+				new ZonalTravelTimeMatrix(IntBuffer.wrap(zoneByNodeIndex), centralNodes,
+						new IntTravelTimeStorage(IntBuffer.wrap(times))),
+				rows.toMatrix(null));
+	}
+
+	private static class SectionMapper {
+		private final FileChannel channel;
+		private long offset;
+
+		private SectionMapper(FileChannel channel, long offset) {
+			this.channel = channel;
+			this.offset = offset;
+		}
+
+		private IntBuffer map(long intCount) throws IOException {
+			Preconditions.checkState(intCount <= Integer.MAX_VALUE / 4, "Section too large to be mapped");
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, 4 * intCount);
+			offset += 4 * intCount;
+			return buffer.asIntBuffer();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import java.nio.file.Path;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.router.DvrpGlobalRoutingNetworkProvider;
+import org.matsim.contrib.dvrp.run.DvrpConfigGroup;
+import org.matsim.contrib.zone.skims.TravelTimeMatrix;
+import org.matsim.core.controler.AbstractModule;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+/**
+ * Binds {@link TravelTimeMatrix} to the free-speed {@link HybridTravelTimeMatrix} of the DVRP routing network, taken
+ * from {@link TravelTimeMatrixCache} (computed and written only if not yet cached). Use as an overriding module.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public class TravelTimeMatrixCacheModule extends AbstractModule {
+	private final Path cacheDirectory;
+
+	public TravelTimeMatrixCacheModule(Path cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	@Override
+	public void install() {
+		var matrixParams = DvrpConfigGroup.get(getConfig()).getTravelTimeMatrixParams();
+		int numberOfThreads = getConfig().global().getNumberOfThreads();
+		double qSimTimeStepSize = getConfig().qsim().getTimeStepSize();
+		bind(TravelTimeMatrix.class).toProvider(new Provider<>() {
+			@Inject
+			@Named(DvrpGlobalRoutingNetworkProvider.DVRP_ROUTING)
+			private Network network;
+
+			@Override
+			public TravelTimeMatrix get() {
+				return TravelTimeMatrixCache.loadOrCreateFreeSpeedMatrix(cacheDirectory, network, matrixParams,
+						numberOfThreads, qSimTimeStepSize);
+			}
+		}).in(Singleton.class);
+	}
+}
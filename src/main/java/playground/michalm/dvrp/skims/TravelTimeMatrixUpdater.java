@@ -0,0 +1,325 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import static java.util.stream.Collectors.toList;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.util.ExecutorServiceWithResource;
+import org.matsim.core.network.NetworkChangeEvent;
+import org.matsim.core.router.speedy.LeastCostPathTree.StopCriterion;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.utils.misc.OptionalTime;
+import org.matsim.vehicles.Vehicle;
+
+import playground.michalm.dvrp.router.CompactGraph;
+import playground.michalm.dvrp.router.CompactLeastCostPathTree;
+import playground.michalm.dvrp.router.NodeOrdering;
+import playground.michalm.dvrp.router.SettledNodes;
+
+/**
+ * Keeps a {@link HybridTravelTimeMatrix} up to date with link travel time changes (e.g. after
+ * {@link NetworkChangeEvent}s have been added to a time-variant network), recomputing only the rows whose shortest
+ * paths can use a changed link:
+ * <ul>
+ * <li>sparse rows of nodes within {@code maxNeighborDistance} (network length) of the from-node of a changed link,
+ * since the bounded search of other rows stops before relaxing the link,</li>
+ * <li>zonal rows of central nodes {@code c} with {@code T(c, u) + min(oldTT, newTT) <= T(c, v)} for a changed link
+ * {@code (u, v)}, i.e. the link is on (or, after speeding up, may enter) the shortest path tree of {@code c}.
+ * {@code T(c, u)} and {@code T(c, v)} come from two backward searches (from {@code u} and {@code v}) per changed link
+ * with the previous link travel times, or, if there are at least half as many changed links as zones, from one
+ * forward search per central node (so the analysis never takes more searches than recomputing all zonal rows).</li>
+ * </ul>
+ * Travel times are evaluated at the departure time of the matrix, as done by {@link TravelTimeMatrixBuilder}. The
+ * analysis (its searches use fixed link times) assumes time-independent travel times around this time.
+ * <p>
+ * Each update creates a new (on-heap) matrix; the previous one stays valid for concurrent readers. Unchanged sparse
+ * rows are copied range by range from the previous matrix. The search graphs and worker threads are kept between
+ * updates, so {@link #shutdown()} must be called once the updater is no longer needed.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class TravelTimeMatrixUpdater {
+	public record UpdateStats(int changedLinkCount, int zonalRowCount, int sparseRowCount, double seconds) {
+	}
+
+	private static final double TIME_EPSILON = 1e-6;
+
+	private final Network network;
+	private final double maxNeighborDistance;
+	private final double departureTime;
+	private final int numberOfThreads;
+	@Nullable
+	private final TravelTimeQuantization quantization;
+
+	private final double[] linkTimes;// by link index; the ones used for computing the current matrix
+	private HybridTravelTimeMatrix matrix;
+
+	// link travel times after the changes; read by the trees of matrixExecutor
+	private TravelTime currentTravelTime;
+	private final ExecutorServiceWithResource<TravelTimeMatrixBuilder.Worker> matrixExecutor;
+	private final ExecutorServiceWithResource<AnalysisWorker> analysisExecutor;
+
+	public TravelTimeMatrixUpdater(Network network, HybridTravelTimeMatrix matrix, TravelTime travelTime,
+			double maxNeighborDistance, double departureTime, int numberOfThreads,
+			@Nullable TravelTimeQuantization quantization) {
+		this.network = network;
+		this.matrix = matrix;
+		this.maxNeighborDistance = maxNeighborDistance;
+		this.departureTime = departureTime;
+		this.numberOfThreads = numberOfThreads;
+		this.quantization = quantization;
+		this.currentTravelTime = travelTime;
+
+		linkTimes = new double[Id.getNumberOfIds(Link.class)];
+		for (Link link : network.getLinks().values()) {
+			linkTimes[link.getId().index()] = getLinkTime(travelTime, link);
+		}
+
+		// link times differ between updates (and may be time-dependent), so Dial's tree is never used
+		NodeOrdering nodeOrdering = matrix.getSparseMatrix().getNodeOrdering();
+		TravelTime updatedTravelTime = (link, time, person, vehicle) -> currentTravelTime.getLinkTravelTime(link,
+				time, person, vehicle);
+		matrixExecutor = TravelTimeMatrixBuilder.createExecutorService(network, updatedTravelTime,
+				OptionalTime.undefined(), numberOfThreads, nodeOrdering);
+		analysisExecutor = new ExecutorServiceWithResource<>(createAnalysisWorkers(
+				nodeOrdering != null ? nodeOrdering : NodeOrdering.byIdIndex(network)));
+	}
+
+	private List<AnalysisWorker> createAnalysisWorkers(NodeOrdering nodeOrdering) {
+		var graph = new CompactGraph(network, nodeOrdering);
+		var reverseGraph = CompactGraph.createReverseGraph(network, nodeOrdering);
+
+		// previous link times (as used by the current matrix) and link lengths
+		TravelTime previousTravelTime = (link, time, person, vehicle) -> linkTimes[link.getId().index()];
+		TravelDisutility lengthDisutility = new TravelDisutility() {
+			@Override
+			public double getLinkTravelDisutility(Link link, double time, Person person, Vehicle vehicle) {
+				return link.getLength();
+			}
+
+			@Override
+			public double getLinkMinimumTravelDisutility(Link link) {
+				return link.getLength();
+			}
+		};
+		var timeDisutility = new TimeAsTravelDisutility(previousTravelTime);
+
+		return IntStream.range(0, numberOfThreads)
+				.mapToObj(i -> new AnalysisWorker(
+						new CompactLeastCostPathTree(reverseGraph, previousTravelTime, timeDisutility),
+						new CompactLeastCostPathTree(reverseGraph, previousTravelTime, timeDisutility),
+						new CompactLeastCostPathTree(graph, previousTravelTime, timeDisutility),
+						new CompactLeastCostPathTree(reverseGraph, previousTravelTime, lengthDisutility),
+						new SettledNodes()))
+				.collect(toList());
+	}
+
+	private double getLinkTime(TravelTime travelTime, Link link) {
+		return travelTime.getLinkTravelTime(link, departureTime, null, null);
+	}
+
+	public HybridTravelTimeMatrix getMatrix() {
+		return matrix;
+	}
+
+	/**
+	 * @param travelTime link travel times after the changes
+	 */
+	public UpdateStats update(Collection<NetworkChangeEvent> events, TravelTime travelTime) {
+		long t0 = System.nanoTime();
+
+		// only links whose travel time has actually changed
+		Set<Link> candidateLinks = new LinkedHashSet<>();
+		events.forEach(event -> candidateLinks.addAll(event.getLinks()));
+		List<Link> changedLinks = candidateLinks.stream()
+				.filter(link -> getLinkTime(travelTime, link) != linkTimes[link.getId().index()])
+				.collect(toList());
+		if (changedLinks.isEmpty()) {
+			return new UpdateStats(0, 0, 0, (System.nanoTime() - t0) / 1e9);
+		}
+
+		var zonal = matrix.getZonalMatrix();
+		var sparse = matrix.getSparseMatrix();
+		boolean[] affectedZones = new boolean[zonal.getZoneCount()];
+		boolean[] affectedRows = new boolean[sparse.getRowCount()];
+		findAffectedRows(changedLinks, travelTime, affectedZones, affectedRows);
+
+		// link times used by the new matrix
+		for (Link link : changedLinks) {
+			linkTimes[link.getId().index()] = getLinkTime(travelTime, link);
+		}
+		currentTravelTime = travelTime;
+
+		Node[] centralNodes = IntStream.range(0, zonal.getZoneCount())
+				.mapToObj(zonal::getCentralNode)
+				.toArray(Node[]::new);
+		int[] zonalTimes = new int[zonal.getTimes().size()];
+		for (int i = 0; i < zonalTimes.length; i++) {
+			zonalTimes[i] = zonal.getTimes().get(i);
+		}
+		int[] zonesToUpdate = IntStream.range(0, affectedZones.length).filter(z -> affectedZones[z]).toArray();
+		matrixExecutor.submitRunnablesAndWait(Arrays.stream(zonesToUpdate)
+				.mapToObj(zone -> worker -> TravelTimeMatrixBuilder.computeZonalRow(zone, centralNodes,
+						departureTime, worker, zonalTimes)));
+
+		int[][] updatedRows = new int[sparse.getRowCount()][];// null: unchanged
+		int[] rowsToUpdate = IntStream.range(0, affectedRows.length).filter(r -> affectedRows[r]).toArray();
+		StopCriterion stopCriterion = (nodeIndex, arrivalTime, travelCost, distance,
+				departureTime1) -> distance >= maxNeighborDistance;
+		NodeOrdering nodeOrdering = sparse.getNodeOrdering();
+		matrixExecutor.submitRunnablesAndWait(Arrays.stream(rowsToUpdate).mapToObj(row -> worker -> {
+			int fromIndex = nodeOrdering == null ? row : nodeOrdering.getNodeIndex(row);
+			updatedRows[row] = TravelTimeMatrixBuilder.computeSparseRow(fromIndex, departureTime,
+					maxNeighborDistance, stopCriterion, worker, nodeOrdering);
+		}));
+
+		matrix = new HybridTravelTimeMatrix(
+				new ZonalTravelTimeMatrix(zonal.getZoneByNodeIndexBuffer(), centralNodes,
+						TravelTimeStorage.of(zonalTimes, quantization)),
+				updateSparseMatrix(sparse, updatedRows));
+
+		return new UpdateStats(changedLinks.size(), zonesToUpdate.length, rowsToUpdate.length,
+				(System.nanoTime() - t0) / 1e9);
+	}
+
+	// the runs of consecutive unchanged rows are contiguous in both matrices, so they are copied in bulk
+	private SparseTravelTimeMatrix updateSparseMatrix(SparseTravelTimeMatrix sparse, int[][] updatedRows) {
+		int rowCount = updatedRows.length;
+		int[] rowStarts = new int[rowCount + 1];
+		for (int row = 0; row < rowCount; row++) {
+			int rowLength = updatedRows[row] != null ?
+					updatedRows[row].length / 2 :
+					sparse.getRowEnd(row) - sparse.getRowStart(row);
+			rowStarts[row + 1] = rowStarts[row] + rowLength;
+		}
+
+		int[] columns = new int[rowStarts[rowCount]];
+		int[] times = new int[columns.length];
+		IntBuffer oldColumns = sparse.getColumnsBuffer();
+		for (int row = 0; row < rowCount; ) {
+			int[] updatedRow = updatedRows[row];
+			if (updatedRow != null) {
+				for (int j = 0, idx = rowStarts[row]; j < updatedRow.length; j += 2, idx++) {
+					columns[idx] = updatedRow[j];
+					times[idx] = updatedRow[j + 1];
+				}
+				row++;
+			} else {
+				int end = row + 1;
+				while (end < rowCount && updatedRows[end] == null) {
+					end++;
+				}
+				int oldStart = sparse.getRowStart(row);
+				int length = sparse.getRowStart(end) - oldStart;
+				oldColumns.get(oldStart, columns, rowStarts[row], length);
+				sparse.getTimes().copyTo(oldStart, times, rowStarts[row], length);
+				row = end;
+			}
+		}
+		return new SparseTravelTimeMatrix(IntBuffer.wrap(rowStarts), IntBuffer.wrap(columns),
+				TravelTimeStorage.of(times, quantization), sparse.getNodeOrdering());
+	}
+
+	private void findAffectedRows(List<Link> changedLinks, TravelTime travelTime, boolean[] affectedZones,
+			boolean[] affectedRows) {
+		var zonal = matrix.getZonalMatrix();
+		var sparse = matrix.getSparseMatrix();
+		int[] centralNodeIndices = IntStream.range(0, zonal.getZoneCount())
+				.map(zone -> zonal.getCentralNode(zone).getId().index())
+				.toArray();
+		double[] minLinkTimes = changedLinks.stream()
+				.mapToDouble(link -> Math.min(linkTimes[link.getId().index()], getLinkTime(travelTime, link)))
+				.toArray();
+		StopCriterion noStop = (nodeIndex, arrivalTime, travelCost, distance, departureTime1) -> false;
+		StopCriterion lengthStop = (nodeIndex, arrivalTime, travelCost, distance,
+				departureTime1) -> travelCost >= maxNeighborDistance;
+
+		// sparse rows: nodes within maxNeighborDistance from u (concurrent writes of "true" are harmless)
+		analysisExecutor.submitRunnablesAndWait(changedLinks.stream().map(link -> worker -> {
+			worker.settledNodes.calculate(worker.lengthTree, link.getFromNode().getId().index(), 0, lengthStop);
+			for (int i = 0; i < worker.settledNodes.size(); i++) {
+				affectedRows[sparse.toRowOrColumn(worker.settledNodes.getNodeIndex(i))] = true;
+			}
+		}));
+
+		// zonal rows: central nodes whose shortest path tree contains (or may contain) a changed link
+		if (2 * changedLinks.size() < centralNodeIndices.length) {
+			analysisExecutor.submitRunnablesAndWait(IntStream.range(0, changedLinks.size()).mapToObj(l -> worker -> {
+				Link link = changedLinks.get(l);
+				worker.timeTreeToU.calculate(link.getFromNode().getId().index(), 0, noStop);
+				worker.timeTreeToV.calculate(link.getToNode().getId().index(), 0, noStop);
+				for (int zone = 0; zone < centralNodeIndices.length; zone++) {
+					if (isLinkInTree(worker.timeTreeToU.getCost(centralNodeIndices[zone]),
+							worker.timeTreeToV.getCost(centralNodeIndices[zone]), minLinkTimes[l])) {
+						affectedZones[zone] = true;
+					}
+				}
+			}));
+		} else {
+			analysisExecutor.submitRunnablesAndWait(IntStream.range(0, centralNodeIndices.length)
+					.mapToObj(zone -> worker -> {
+						var tree = worker.timeTreeFromCentralNode;
+						tree.calculate(centralNodeIndices[zone], 0, noStop);
+						for (int l = 0; l < changedLinks.size(); l++) {
+							Link link = changedLinks.get(l);
+							if (isLinkInTree(tree.getCost(link.getFromNode().getId().index()),
+									tree.getCost(link.getToNode().getId().index()), minLinkTimes[l])) {
+								affectedZones[zone] = true;
+								return;
+							}
+						}
+					}));
+		}
+	}
+
+	private static boolean isLinkInTree(double timeToU, double timeToV, double minLinkTime) {
+		return timeToU < Double.POSITIVE_INFINITY && timeToU + minLinkTime <= timeToV + TIME_EPSILON;
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown() {
+		matrixExecutor.shutdown();
+		analysisExecutor.shutdown();
+	}
+
+	private record AnalysisWorker(CompactLeastCostPathTree timeTreeToU, CompactLeastCostPathTree timeTreeToV,
+								  CompactLeastCostPathTree timeTreeFromCentralNode, CompactLeastCostPathTree lengthTree,
+								  SettledNodes settledNodes) {
+	}
+}
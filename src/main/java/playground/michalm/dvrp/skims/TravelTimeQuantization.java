@@ -0,0 +1,37 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Opt-in compact storage of travel times: each time is rounded to a multiple of {@code resolution} seconds and stored
+ * as an unsigned short (2 bytes instead of 4), which covers times up to {@code 65534 * resolution} seconds (about 18
+ * hours for 1-second resolution). Longer (incl. unreachable) times are kept exactly in a small overflow table.
+ *
+ * @param resolution [s]
+ * @author Michal Maciejewski (michalm)
+ */
+public record TravelTimeQuantization(int resolution) {
+	public TravelTimeQuantization {
+		Preconditions.checkArgument(resolution >= 1, "Resolution must be at least 1 s");
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import java.nio.IntBuffer;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Travel times [s] of the entries of a matrix, stored either as ints (on-heap or mapped) or quantized
+ * ({@link TravelTimeQuantization}).
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public sealed interface TravelTimeStorage permits IntTravelTimeStorage, QuantizedTravelTimeStorage {
+	static TravelTimeStorage of(int[] times, @Nullable TravelTimeQuantization quantization) {
+		return quantization == null ?
+				new IntTravelTimeStorage(IntBuffer.wrap(times)) :
+				new QuantizedTravelTimeStorage(times, quantization.resolution());
+	}
+
+	int get(int index);
+
+	int size();
+
+	/**
+	 * Copies {@code length} times starting at {@code index} to {@code dst} (starting at {@code dstIndex}).
+	 */
+	void copyTo(int index, int[] dst, int dstIndex, int length);
+
+	long getMemoryBytes();
+
+	boolean isOffHeap();
+}
@@ -0,0 +1,84 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import java.nio.IntBuffer;
+
+import org.matsim.api.core.v01.network.Node;
+
+/**
+ * Travel times between the central nodes of {@link SquareGrid} cells. Each node is mapped to the zone (non-empty cell)
+ * it lies in, so this estimator never returns NaN.
+ * <p>
+ * The data is held in {@link IntBuffer}s, so the matrix can be either on-heap or mapped from a file (see
+ * {@link TravelTimeMatrixCache}). Travel times can also be quantized ({@link TravelTimeQuantization}).
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class ZonalTravelTimeMatrix implements TravelTimeEstimator {
+	private final IntBuffer zoneByNodeIndex;// -1 for nodes not in the network
+	private final Node[] centralNodes;// by zone
+	private final TravelTimeStorage times;// zone-major
+
+	ZonalTravelTimeMatrix(IntBuffer zoneByNodeIndex, Node[] centralNodes, TravelTimeStorage times) {
+		this.zoneByNodeIndex = zoneByNodeIndex;
+		this.centralNodes = centralNodes;
+		this.times = times;
+	}
+
+	public int getZone(int nodeIndex) {
+		return zoneByNodeIndex.get(nodeIndex);
+	}
+
+	public int getZone(Node node) {
+		return zoneByNodeIndex.get(node.getId().index());
+	}
+
+	public int getZoneCount() {
+		return centralNodes.length;
+	}
+
+	public Node getCentralNode(int zone) {
+		return centralNodes[zone];
+	}
+
+	public int getTravelTime(int fromZone, int toZone) {
+		return times.get(fromZone * centralNodes.length + toZone);
+	}
+
+	@Override
+	public double getTravelTime(Node fromNode, Node toNode) {
+		return getTravelTime(getZone(fromNode), getZone(toNode));
+	}
+
+	@Override
+	public long getMemoryBytes() {
+		return 4L * zoneByNodeIndex.capacity() + times.getMemoryBytes() + 8L * centralNodes.length;
+	}
+
+	IntBuffer getZoneByNodeIndexBuffer() {
+		return zoneByNodeIndex;
+	}
+
+	TravelTimeStorage getTimes() {
+		return times;
+	}
+}
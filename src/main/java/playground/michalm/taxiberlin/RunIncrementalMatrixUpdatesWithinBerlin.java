@@ -0,0 +1,99 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.taxiberlin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkChangeEvent;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.core.network.io.NetworkChangeEventsParser;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.scenario.ScenarioUtils;
+
+import playground.michalm.dvrp.skims.TravelTimeMatrixBuilder;
+import playground.michalm.dvrp.skims.TravelTimeMatrixUpdater;
+
+/**
+ * Follows the Berlin network state over the day: the travel time matrix is built for the initial (free-speed) state
+ * and then updated incrementally after each batch of network change events (events with the same start time).
+ * Prints how many zonal/sparse rows each update recomputed and how long it took.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public class RunIncrementalMatrixUpdatesWithinBerlin {
+	private static final String DIR = "d:/svn-vsp/sustainability-w-michal-and-dlr/data/network/";
+	private static final String ONLY_BERLIN_NET_FILE = DIR + "only_berlin.xml.gz";
+	private static final String ONLY_BERLIN_CHANGE_EVENTS_FILE = DIR + "only_berlin_changeevents.xml.gz";
+
+	public static void main(String[] args) {
+		double cellSize = 200;
+		double maxNeighborDistance = 1000;
+		int numberOfThreads = 12;
+
+		Config config = ConfigUtils.createConfig();
+		config.network().setTimeVariantNetwork(true);
+		Scenario scenario = ScenarioUtils.createScenario(config);
+		Network network = scenario.getNetwork();
+		new MatsimNetworkReader(network).readFile(ONLY_BERLIN_NET_FILE);
+
+		List<NetworkChangeEvent> events = new ArrayList<>();
+		new NetworkChangeEventsParser(network, events).readFile(ONLY_BERLIN_CHANGE_EVENTS_FILE);
+		NetworkUtils.setNetworkChangeEvents(network, events);
+
+		// batches: events with the same start time
+		Map<Double, List<NetworkChangeEvent>> batches = new TreeMap<>();
+		events.forEach(e -> batches.computeIfAbsent(e.getStartTime(), t -> new ArrayList<>()).add(e));
+
+		var qSimTravelTime = new QSimFreeSpeedTravelTime(1);
+		var initialTravelTime = travelTimeAt(qSimTravelTime, 0);
+		long t0 = System.nanoTime();
+		var matrix = TravelTimeMatrixBuilder.buildHybridMatrix(network, cellSize, maxNeighborDistance,
+				initialTravelTime, 0, numberOfThreads);
+		System.out.printf("Full build: %.3f s%n", (System.nanoTime() - t0) / 1e9);
+
+		var updater = new TravelTimeMatrixUpdater(network, matrix, initialTravelTime, maxNeighborDistance, 0,
+				numberOfThreads, null);
+		int zoneCount = matrix.getZonalMatrix().getZoneCount();
+		int nodeCount = network.getNodes().size();
+		System.out.println("time\tevents\tchangedLinks\tzonalRows/" + zoneCount + "\tsparseRows/" + nodeCount
+				+ "\tseconds");
+		for (var batch : batches.entrySet()) {
+			var stats = updater.update(batch.getValue(), travelTimeAt(qSimTravelTime, batch.getKey()));
+			System.out.printf("%.0f\t%d\t%d\t%d\t%d\t%.3f%n", batch.getKey(), batch.getValue().size(),
+					stats.changedLinkCount(), stats.zonalRowCount(), stats.sparseRowCount(), stats.seconds());
+		}
+		updater.shutdown();
+	}
+
+	// link travel times as of the given time of day (the matrix itself is computed for departure time 0)
+	private static TravelTime travelTimeAt(TravelTime travelTime, double timeOfDay) {
+		return (link, time, person, vehicle) -> travelTime.getLinkTravelTime(link, timeOfDay, person, vehicle);
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads (Java 21+) from code compiled for Java 17. The executor is obtained reflectively, so the
+ * same build runs on both; on older runtimes, {@link #isSupported()} returns false.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class VirtualThreads {
+	public static boolean isSupported() {
+		return Runtime.version().feature() >= 21;
+	}
+
+	/**
+	 * @return {@code Executors.newVirtualThreadPerTaskExecutor()}
+	 * @throws IllegalStateException if the runtime does not support virtual threads
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		if (!isSupported()) {
+			throw new IllegalStateException("Virtual threads require Java 21+, current runtime: " + Runtime.version());
+		}
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
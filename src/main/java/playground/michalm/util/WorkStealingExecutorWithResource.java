@@ -0,0 +1,114 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.util;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Alternative to {@link org.matsim.contrib.util.ExecutorServiceWithResource} for many small jobs (e.g. one tree per
+ * node) that benefit from locality. Jobs are grouped into chunks (e.g. nodes of a grid cell) and the chunks, given in
+ * a spatially coherent order, are split into contiguous ranges, one per worker (thread with its own resource). Each
+ * worker takes chunks from the front of its range; an idle worker steals chunks from the back of the other ranges.
+ * <p>
+ * So consecutive jobs of a worker are neighbours (warm caches), and there is one queue operation per chunk instead
+ * of one per job.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class WorkStealingExecutorWithResource<R> {
+	private final List<R> resources;
+	private final ExecutorService executorService;
+	private final LongAdder stolenChunkCount = new LongAdder();
+
+	public WorkStealingExecutorWithResource(List<R> resources) {
+		this.resources = List.copyOf(resources);
+		executorService = Executors.newFixedThreadPool(resources.size());
+	}
+
+	public <T> void processChunksAndWait(List<? extends List<? extends T>> chunks, BiConsumer<? super R, T> job) {
+		int workerCount = resources.size();
+		List<Deque<List<? extends T>>> workerChunks = new ArrayList<>(workerCount);
+		for (int w = 0; w < workerCount; w++) {
+			workerChunks.add(new ConcurrentLinkedDeque<>(
+					chunks.subList(w * chunks.size() / workerCount, (w + 1) * chunks.size() / workerCount)));
+		}
+
+		List<Future<?>> futures = new ArrayList<>(workerCount);
+		for (int w = 0; w < workerCount; w++) {
+			int worker = w;
+			futures.add(executorService.submit(() -> runWorker(worker, workerChunks, job)));
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private <T> void runWorker(int worker, List<Deque<List<? extends T>>> workerChunks,
+			BiConsumer<? super R, T> job) {
+		R resource = resources.get(worker);
+		Deque<List<? extends T>> ownChunks = workerChunks.get(worker);
+		while (true) {
+			List<? extends T> chunk = ownChunks.pollFirst();
+			if (chunk == null && (chunk = steal(worker, workerChunks)) == null) {
+				return;
+			}
+			for (T item : chunk) {
+				job.accept(resource, item);
+			}
+		}
+	}
+
+	// chunks are never added while processing, so if all ranges are empty, the worker is done
+	private <T> List<? extends T> steal(int worker, List<Deque<List<? extends T>>> workerChunks) {
+		for (int i = 1; i < workerChunks.size(); i++) {
+			List<? extends T> chunk = workerChunks.get((worker + i) % workerChunks.size()).pollLast();
+			if (chunk != null) {
+				stolenChunkCount.increment();
+				return chunk;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return number of chunks stolen since the executor was created
+	 */
+	public long getStolenChunkCount() {
+		return stolenChunkCount.sum();
+	}
+
+	public void shutdown() {
+		executorService.shutdown();
+	}
+}
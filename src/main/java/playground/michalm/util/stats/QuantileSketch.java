@@ -0,0 +1,211 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.util.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Fixed-memory, mergeable quantile sketch with logarithmically spaced buckets (as in DDSketch, Masson et al. 2019).
+ * Any quantile of values with {@code minValue <= |x| <= maxValue} is returned with relative error of at most
+ * {@code relativeAccuracy}. Values with {@code |x| < minValue} are counted as 0, values with {@code |x| > maxValue}
+ * are clamped to the outermost bucket.
+ * <p>
+ * Memory depends only on the accuracy and value range, not on the number of samples. The bucket array for negative
+ * values is allocated on the first negative sample.
+ * <p>
+ * Not thread-safe: use one sketch per thread and {@link #merge(QuantileSketch)} them afterwards.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public final class QuantileSketch {
+	private final double relativeAccuracy;
+	private final double minValue;
+	private final double maxValue;
+
+	private final double logGamma;
+	private final int minKey;
+	private final int bucketCount;
+
+	private final long[] positiveCounts;
+	private long[] negativeCounts;
+	private long zeroCount;
+	private long count;
+
+	public QuantileSketch(double relativeAccuracy, double minValue, double maxValue) {
+		Preconditions.checkArgument(relativeAccuracy > 0 && relativeAccuracy < 1);
+		Preconditions.checkArgument(minValue > 0 && minValue < maxValue);
+		this.relativeAccuracy = relativeAccuracy;
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+
+		double gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+		logGamma = Math.log(gamma);
+		minKey = key(minValue);
+		bucketCount = key(maxValue) - minKey + 1;
+		positiveCounts = new long[bucketCount];
+	}
+
+	private int key(double absValue) {
+		return (int)Math.ceil(Math.log(absValue) / logGamma);
+	}
+
+	private int bucket(double absValue) {
+		return Math.min(key(Math.min(absValue, maxValue)) - minKey, bucketCount - 1);
+	}
+
+	// value in the middle of the bucket (in terms of relative error)
+	private double bucketValue(int bucket) {
+		return 2 * Math.exp((bucket + minKey) * logGamma) / (Math.exp(logGamma) + 1);
+	}
+
+	public void add(double value) {
+		if (value >= minValue) {
+			positiveCounts[bucket(value)]++;
+		} else if (value <= -minValue) {
+			if (negativeCounts == null) {
+				negativeCounts = new long[bucketCount];
+			}
+			negativeCounts[bucket(-value)]++;
+		} else {
+			zeroCount++;
+		}
+		count++;
+	}
+
+	public void merge(QuantileSketch other) {
+		Preconditions.checkArgument(relativeAccuracy == other.relativeAccuracy
+				&& minValue == other.minValue
+				&& maxValue == other.maxValue, "Sketches with different parameters");
+
+		for (int i = 0; i < bucketCount; i++) {
+			positiveCounts[i] += other.positiveCounts[i];
+		}
+		if (other.negativeCounts != null) {
+			if (negativeCounts == null) {
+				negativeCounts = new long[bucketCount];
+			}
+			for (int i = 0; i < bucketCount; i++) {
+				negativeCounts[i] += other.negativeCounts[i];
+			}
+		}
+		zeroCount += other.zeroCount;
+		count += other.count;
+	}
+
+	public void clear() {
+		Arrays.fill(positiveCounts, 0);
+		if (negativeCounts != null) {
+			Arrays.fill(negativeCounts, 0);
+		}
+		zeroCount = 0;
+		count = 0;
+	}
+
+	/**
+	 * Writes the sketch in a compact form (only non-empty buckets).
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeDouble(relativeAccuracy);
+		out.writeDouble(minValue);
+		out.writeDouble(maxValue);
+		out.writeLong(zeroCount);
+		out.writeLong(count);
+		writeBuckets(out, positiveCounts);
+		out.writeBoolean(negativeCounts != null);
+		if (negativeCounts != null) {
+			writeBuckets(out, negativeCounts);
+		}
+	}
+
+	private static void writeBuckets(DataOutput out, long[] counts) throws IOException {
+		out.writeInt((int)Arrays.stream(counts).filter(c -> c > 0).count());
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0) {
+				out.writeInt(i);
+				out.writeLong(counts[i]);
+			}
+		}
+	}
+
+	public static QuantileSketch readFrom(DataInput in) throws IOException {
+		var sketch = new QuantileSketch(in.readDouble(), in.readDouble(), in.readDouble());
+		sketch.zeroCount = in.readLong();
+		sketch.count = in.readLong();
+		readBuckets(in, sketch.positiveCounts);
+		if (in.readBoolean()) {
+			sketch.negativeCounts = new long[sketch.bucketCount];
+			readBuckets(in, sketch.negativeCounts);
+		}
+		return sketch;
+	}
+
+	private static void readBuckets(DataInput in, long[] counts) throws IOException {
+		int nonEmpty = in.readInt();
+		for (int i = 0; i < nonEmpty; i++) {
+			counts[in.readInt()] = in.readLong();
+		}
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @param q quantile in [0, 1]
+	 * @return approximate q-quantile (lower rank interpolation), NaN if the sketch is empty
+	 */
+	public double quantile(double q) {
+		Preconditions.checkArgument(q >= 0 && q <= 1);
+		if (count == 0) {
+			return Double.NaN;
+		}
+
+		long rank = (long)(q * (count - 1));
+		long cumulative = 0;
+		if (negativeCounts != null) {
+			// most negative values first
+			for (int i = bucketCount - 1; i >= 0; i--) {
+				cumulative += negativeCounts[i];
+				if (cumulative > rank) {
+					return -bucketValue(i);
+				}
+			}
+		}
+
+		cumulative += zeroCount;
+		if (cumulative > rank) {
+			return 0;
+		}
+
+		for (int i = 0; i < bucketCount; i++) {
+			cumulative += positiveCounts[i];
+			if (cumulative > rank) {
+				return bucketValue(i);
+			}
+		}
+		throw new IllegalStateException("Inconsistent bucket counts");
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.demand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.algorithms.TransportModeNetworkFilter;
+
+/**
+ * @author Michal Maciejewski (michalm)
+ */
+public class LinkSnappingIndexTest {
+	private static final double SIZE = 10_000;
+
+	@Test
+	public void randomNetwork_sameAsNetworkUtils() {
+		Network network = createRandomNetwork("snap_all", new Random(2024));
+		assertSameNearestLinks(network, new LinkSnappingIndex(network), createQueryCoords(network, new Random(1)));
+	}
+
+	@Test
+	public void randomNetwork_modeFiltered_sameAsFilteredNetwork() {
+		Network network = createRandomNetwork("snap_modes", new Random(7));
+		var queryCoords = createQueryCoords(network, new Random(2));
+		for (String mode : List.of("car", "bike")) {
+			Network filteredNetwork = NetworkUtils.createNetwork();
+			new TransportModeNetworkFilter(network).filter(filteredNetwork, Set.of(mode));
+			assertSameNearestLinks(filteredNetwork, new LinkSnappingIndex(network, Set.of(mode)), queryCoords);
+		}
+	}
+
+	@Test
+	public void collinearNodes_sameAsNetworkUtils() {
+		Network network = NetworkUtils.createNetwork();
+		var random = new Random(11);
+		Node previous = null;
+		for (int i = 0; i < 200; i++) {
+			Node node = createNode(network, "snap_line_" + i, random.nextDouble() * SIZE, 500);
+			if (previous != null) {
+				createLink(network, "snap_line_" + i, previous, node, Set.of("car"));
+			}
+			previous = node;
+		}
+		assertSameNearestLinks(network, new LinkSnappingIndex(network), createQueryCoords(network, new Random(3)));
+	}
+
+	@Test
+	public void isolatedNearestNode_noLink() {
+		Network network = NetworkUtils.createNetwork();
+		Node a = createNode(network, "snap_iso_a", 0, 0);
+		Node b = createNode(network, "snap_iso_b", 100, 0);
+		createNode(network, "snap_iso_c", 1000, 1000);// no links
+		createLink(network, "snap_iso_ab", a, b, Set.of("car"));
+
+		var index = new LinkSnappingIndex(network);
+		assertNull(index.getNearestLink(new Coord(1100, 1100)));
+		assertEquals(Id.createLinkId("snap_iso_ab"), index.getNearestLink(new Coord(-50, 10)).getId());
+	}
+
+	private static void assertSameNearestLinks(Network network, LinkSnappingIndex index, List<Coord> queryCoords) {
+		for (Coord coord : queryCoords) {
+			String message = coord.getX() + "," + coord.getY();
+			assertEquals(message, getId(NetworkUtils.getNearestLink(network, coord)),
+					getId(index.getNearestLink(coord)));
+		}
+	}
+
+	private static @Nullable Id<Link> getId(@Nullable Link link) {
+		return link == null ? null : link.getId();
+	}
+
+	// random points within and around the network's bounding box, far away from it, and exactly at nodes
+	private static List<Coord> createQueryCoords(Network network, Random random) {
+		List<Coord> coords = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			coords.add(new Coord((random.nextDouble() * 2 - 0.5) * SIZE, (random.nextDouble() * 2 - 0.5) * SIZE));
+		}
+		for (int i = 0; i < 100; i++) {
+			double angle = random.nextDouble() * 2 * Math.PI;
+			coords.add(new Coord(SIZE / 2 + 100 * SIZE * Math.cos(angle), SIZE / 2 + 100 * SIZE * Math.sin(angle)));
+		}
+		for (Node node : network.getNodes().values()) {
+			coords.add(node.getCoord());
+		}
+		return coords;
+	}
+
+	// nodes with a few links to random other nodes, some one-way; allowed modes: car, bike or both
+	private static Network createRandomNetwork(String prefix, Random random) {
+		Network network = NetworkUtils.createNetwork();
+		List<Node> nodes = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			nodes.add(createNode(network, prefix + "_" + i, random.nextDouble() * SIZE, random.nextDouble() * SIZE));
+		}
+		createNode(network, prefix + "_isolated", SIZE / 2, SIZE / 2);
+
+		List<Set<String>> modes = List.of(Set.of("car"), Set.of("bike"), Set.of("car", "bike"));
+		for (int i = 0; i < nodes.size(); i++) {
+			for (int k = 0; k < 2; k++) {
+				int j = random.nextInt(nodes.size());
+				if (j == i) {
+					continue;
+				}
+				Set<String> linkModes = modes.get(random.nextInt(modes.size()));
+				String id = prefix + "_" + i + "_" + j + "_" + k;
+				createLink(network, id, nodes.get(i), nodes.get(j), linkModes);
+				if (random.nextBoolean()) {
+					createLink(network, id + "_back", nodes.get(j), nodes.get(i), linkModes);
+				}
+			}
+		}
+		return network;
+	}
+
+	private static Node createNode(Network network, String id, double x, double y) {
+		return NetworkUtils.createAndAddNode(network, Id.createNodeId(id), new Coord(x, y));
+	}
+
+	private static void createLink(Network network, String id, Node from, Node to, Set<String> modes) {
+		Link link = NetworkUtils.createAndAddLink(network, Id.createLinkId(id), from, to, 100, 10, 1000, 1);
+		link.setAllowedModes(modes);
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.demand;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.matrices.Matrix;
+
+/**
+ * @author Michal Maciejewski (michalm)
+ */
+public class ODDemandGeneratorTest {
+	@Test
+	public void parallelGeneration_independentOfThreadCount() {
+		List<String> population1 = generate(1);
+		List<String> population4 = generate(4);
+		assertEquals(population1, population4);
+		assertEquals(population1, generate(1));
+	}
+
+	// persons (in the order of adding them to the population) with their activities
+	private static List<String> generate(int threads) {
+		Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		var populationFactory = scenario.getPopulation().getFactory();
+		ODDemandGenerator.ActivityCreator<String> activityCreator = (zone, actType, uniform) -> populationFactory
+				.createActivityFromCoord(actType, new Coord(uniform.nextDouble(0, 1000), uniform.nextDouble(0, 1000)));
+		ODDemandGenerator.PersonCreator<String> personCreator = (plan, fromZone, toZone) -> populationFactory
+				.createPerson(Id.createPersonId(scenario.getPopulation().getPersons().size()
+						+ "_" + fromZone + "_" + toZone));
+		var generator = new ODDemandGenerator<>(scenario, zone -> zone, false, activityCreator, personCreator, 1234,
+				threads);
+
+		var random = new Random(5678);
+		var matrix = new Matrix("od", null);
+		for (int i = 0; i < 20; i++) {
+			for (int j = 0; j < 20; j++) {
+				matrix.createAndAddEntry("z" + i, "z" + j, 3 * random.nextDouble());
+			}
+		}
+		generator.generateMultiplePeriods(matrix, "home", "work", "car", 6 * 3600, 3600, new double[] { 0.5, 1 });
+
+		List<String> persons = new ArrayList<>();
+		for (Person person : scenario.getPopulation().getPersons().values()) {
+			var elements = person.getSelectedPlan().getPlanElements();
+			var from = (Activity)elements.get(0);
+			var to = (Activity)elements.get(2);
+			persons.add(person.getId() + " " + toString(from.getCoord()) + " " + from.getEndTime().seconds() + " "
+					+ toString(to.getCoord()));
+		}
+		return persons;
+	}
+
+	private static String toString(Coord coord) {
+		return coord.getX() + "," + coord.getY();
+	}
+}
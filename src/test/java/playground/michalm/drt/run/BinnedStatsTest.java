@@ -0,0 +1,150 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.drt.run;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import playground.michalm.drt.run.CombineZonalAndBeeLineTTs.Measure;
+
+/**
+ * @author Michal Maciejewski (michalm)
+ */
+public class BinnedStatsTest {
+	@Test
+	public void writeTo_readFrom() throws IOException {
+		var stats = createStats(true, 1234);
+		var readStats = new BinnedStats(6, 900, true);
+		readStats.addSample(new double[Measure.VALUES.length], 0);// overwritten by readFrom()
+		writeAndRead(stats, readStats);
+		assertSameStats(stats, readStats, true);
+	}
+
+	@Test
+	public void writeTo_readFrom_notSketched() throws IOException {
+		var stats = createStats(false, 5678);
+		var readStats = new BinnedStats(6, 900, false);
+		writeAndRead(stats, readStats);
+		assertSameStats(stats, readStats, false);
+	}
+
+	@Test
+	public void combine_sameAsSingleStats() {
+		var all = new BinnedStats(6, 900, true);
+		var part1 = new BinnedStats(6, 900, true);
+		var part2 = new BinnedStats(6, 900, true);
+		var random = new Random(9012);
+		for (int origin = 0; origin < 20; origin++) {
+			var part = origin % 2 == 0 ? part1 : part2;
+			for (int i = 0; i < 100; i++) {
+				double[] sample = randomSample(random);
+				all.addSample(sample, sample[Measure.NETWORK_TT.ordinal()]);
+				part.addSample(sample, sample[Measure.NETWORK_TT.ordinal()]);
+			}
+			all.endOrigin();
+			part.endOrigin();
+		}
+		part1.combine(part2);
+		assertSameStats(all, part1, true);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void readFrom_incompatibleBinning() throws IOException {
+		writeAndRead(createStats(true, 1234), new BinnedStats(6, 900, false));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void quantile_notSketched() {
+		createStats(false, 1234).quantile(0, Measure.NETWORK_TT, 0.5);
+	}
+
+	private static BinnedStats createStats(boolean sketched, long seed) {
+		var stats = new BinnedStats(6, 900, sketched);
+		var random = new Random(seed);
+		for (int origin = 0; origin < 10; origin++) {
+			for (int i = 0; i < 100; i++) {
+				double[] sample = randomSample(random);
+				stats.addSample(sample, sample[Measure.NETWORK_TT.ordinal()]);
+			}
+			stats.endOrigin();
+		}
+		return stats;
+	}
+
+	private static double[] randomSample(Random random) {
+		double networkTT = random.nextDouble() * 300;
+		double zonalTT = networkTT + random.nextGaussian() * 30;
+		double hybridTT = networkTT + random.nextGaussian() * 10;
+		double[] sample = new double[Measure.VALUES.length];
+		sample[Measure.NETWORK_TT.ordinal()] = networkTT;
+		sample[Measure.BEELINE_DISTANCE.ordinal()] = networkTT * 5;
+		sample[Measure.NETWORK_DISTANCE.ordinal()] = networkTT * 7;
+		sample[Measure.ZONAL_TT.ordinal()] = zonalTT;
+		sample[Measure.HYBRID_TT.ordinal()] = hybridTT;
+		sample[Measure.ZONAL_TT_ERROR.ordinal()] = zonalTT - networkTT;
+		sample[Measure.HYBRID_TT_ERROR.ordinal()] = hybridTT - networkTT;
+		return sample;
+	}
+
+	private static void writeAndRead(BinnedStats stats, BinnedStats readStats) throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		try (var out = new DataOutputStream(bytes)) {
+			stats.writeTo(out);
+		}
+		try (var in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			readStats.readFrom(in);
+		}
+	}
+
+	private static void assertSameStats(BinnedStats expected, BinnedStats actual, boolean sketched) {
+		assertEquals(expected.getBinCount(), actual.getBinCount());
+		assertEquals(expected.totalCount(), actual.totalCount());
+		for (int bin = 0; bin < expected.getBinCount(); bin++) {
+			assertEquals(expected.count(bin), actual.count(bin));
+			if (expected.count(bin) == 0) {
+				continue;
+			}
+			for (Measure measure : Measure.VALUES) {
+				assertEquals(expected.mean(bin, measure), actual.mean(bin, measure), 1e-9);
+				assertEquals(expected.populationStandardDeviation(bin, measure),
+						actual.populationStandardDeviation(bin, measure), 1e-9);
+				assertEquals(expected.min(bin, measure), actual.min(bin, measure), 0);
+				assertEquals(expected.max(bin, measure), actual.max(bin, measure), 0);
+				assertEquals(expected.standardError(bin, measure), actual.standardError(bin, measure), 1e-9);
+			}
+			if (sketched) {
+				for (Measure measure : Measure.SKETCHED) {
+					for (double q : new double[] { 0, 0.5, 0.9, 1 }) {
+						assertEquals(expected.quantile(bin, measure, q), actual.quantile(bin, measure, q), 0);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.drt.run;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import playground.michalm.drt.run.CombineZonalAndBeeLineTTs.AllStats;
+import playground.michalm.dvrp.skims.BeelineTravelTimeEstimator;
+
+/**
+ * @author Michal Maciejewski (michalm)
+ */
+public class CheckpointTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void write_readIfExists() {
+		var estimatorStats = new EstimatorStats();
+		estimatorStats.addSample(110, 100);
+		estimatorStats.addSample(Double.NaN, 200);
+		var checkpoint = new Checkpoint("key", new AllStats[] { new AllStats() },
+				new EstimatorStats[] { estimatorStats, new EstimatorStats() });
+		checkpoint.getFinishedOrigins()
+				.addAll(List.of(Id.createNodeId("checkpoint_a"), Id.createNodeId("checkpoint_b")));
+		checkpoint.setBeelineEstimator(new BeelineTravelTimeEstimator(30, 8.5));
+		Path file = folder.getRoot().toPath().resolve("checkpoint.bin.gz");
+		checkpoint.write(file);
+
+		var readCheckpoint = new Checkpoint("key", new AllStats[] { new AllStats() },
+				new EstimatorStats[] { new EstimatorStats(), new EstimatorStats() });
+		assertTrue(readCheckpoint.readIfExists(file));
+		assertEquals(checkpoint.getFinishedOrigins(), readCheckpoint.getFinishedOrigins());
+		assertEquals(30, readCheckpoint.getBeelineEstimator().getIntercept(), 0);
+		assertEquals(8.5, readCheckpoint.getBeelineEstimator().getBeelineSpeed(), 0);
+		EstimatorStatsTest.assertSameStats(estimatorStats, readCheckpoint.getEstimatorStats()[0]);
+		assertEquals(0, readCheckpoint.getEstimatorStats()[1].getCount());
+		assertFalse(file.resolveSibling("checkpoint.bin.gz.tmp").toFile().exists());
+	}
+
+	@Test
+	public void readIfExists_noFile() {
+		var checkpoint = new Checkpoint("key", new AllStats[0], new EstimatorStats[0]);
+		assertFalse(checkpoint.readIfExists(folder.getRoot().toPath().resolve("missing.bin.gz")));
+		assertNull(checkpoint.getBeelineEstimator());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void readIfExists_differentKey() {
+		var checkpoint = new Checkpoint("key", new AllStats[0], new EstimatorStats[0]);
+		checkpoint.setBeelineEstimator(new BeelineTravelTimeEstimator(30, 8.5));
+		Path file = folder.getRoot().toPath().resolve("checkpoint.bin.gz");
+		checkpoint.write(file);
+
+		new Checkpoint("otherKey", new AllStats[0], new EstimatorStats[0]).readIfExists(file);
+	}
+
+	@Test
+	public void networkFingerprint() {
+		var network = NetworkUtils.createNetwork();
+		Node a = NetworkUtils.createAndAddNode(network, Id.createNodeId("fingerprint_a"), new Coord(0, 0));
+		Node b = NetworkUtils.createAndAddNode(network, Id.createNodeId("fingerprint_b"), new Coord(100, 0));
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("fingerprint_ab"), a, b, 100, 10, 1000, 1);
+		String fingerprint = Checkpoint.networkFingerprint(network);
+		assertEquals(fingerprint, Checkpoint.networkFingerprint(network));
+
+		// same number of nodes, but a different link
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("fingerprint_ba"), b, a, 100, 10, 1000, 1);
+		String withExtraLink = Checkpoint.networkFingerprint(network);
+		assertNotEquals(fingerprint, withExtraLink);
+
+		network.getLinks().get(Id.createLinkId("fingerprint_ba")).setLength(150);
+		assertNotEquals(withExtraLink, Checkpoint.networkFingerprint(network));
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.drt.run;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * @author Michal Maciejewski (michalm)
+ */
+public class EstimatorStatsTest {
+	@Test
+	public void addSample() {
+		var stats = createStats();
+		assertEquals(4, stats.getCount());
+		assertEquals(0.75, stats.coverage(), 1e-9);
+		assertEquals((10 - 20 + 40) / 3., stats.meanError(), 1e-9);
+		assertEquals(Math.sqrt((100 + 400 + 1600) / 3.), stats.rootMeanSquareError(), 1e-9);
+		assertEquals((10 + 20 + 40) / 3., stats.meanAbsError(), 1e-9);
+		assertEquals(40, stats.absErrorQuantile(1), 40 * 0.01);
+	}
+
+	@Test
+	public void writeTo_readFrom() throws IOException {
+		var stats = createStats();
+		var bytes = new ByteArrayOutputStream();
+		try (var out = new DataOutputStream(bytes)) {
+			stats.writeTo(out);
+		}
+
+		var readStats = new EstimatorStats();
+		readStats.addSample(1000, 0);// overwritten by readFrom()
+		try (var in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			readStats.readFrom(in);
+		}
+		assertSameStats(stats, readStats);
+	}
+
+	private static EstimatorStats createStats() {
+		var stats = new EstimatorStats();
+		stats.addSample(110, 100);
+		stats.addSample(180, 200);
+		stats.addSample(Double.NaN, 300);
+		stats.addSample(440, 400);
+		return stats;
+	}
+
+	static void assertSameStats(EstimatorStats expected, EstimatorStats actual) {
+		assertEquals(expected.getCount(), actual.getCount());
+		assertEquals(expected.coverage(), actual.coverage(), 0);
+		assertEquals(expected.meanError(), actual.meanError(), 0);
+		assertEquals(expected.rootMeanSquareError(), actual.rootMeanSquareError(), 0);
+		assertEquals(expected.meanAbsError(), actual.meanAbsError(), 0);
+		for (int i = 0; i <= 10; i++) {
+			assertEquals(expected.absErrorQuantile(i / 10.), actual.absErrorQuantile(i / 10.), 0);
+		}
+	}
+}
@@ -21,6 +21,7 @@
 package playground.michalm.dvrp;
 
 import java.net.MalformedURLException;
+import java.nio.file.Paths;
 import java.util.Set;
 
 import org.matsim.api.core.v01.network.Network;
@@ -30,6 +31,8 @@ import org.matsim.core.network.NetworkUtils;
 import org.matsim.core.network.algorithms.TransportModeNetworkFilter;
 import org.matsim.core.network.io.MatsimNetworkReader;
 
+import playground.michalm.dvrp.skims.TravelTimeMatrixCache;
+
 /**
  * @author Michal Maciejewski (michalm)
  */
@@ -71,5 +74,13 @@ public class DvrpTravelTimeMatrixSpeedTest {
 		params.setCellSize(200);
 
 		FreeSpeedTravelTimeMatrix.createFreeSpeedMatrix(carNetwork, params, 12, 1);
+
+		// the first call computes and writes the matrix, the second one only maps the file
+		for (int i = 0; i < 2; i++) {
+			long t0 = System.currentTimeMillis();
+			TravelTimeMatrixCache.loadOrCreateFreeSpeedMatrix(Paths.get("travelTimeMatrixCache"), carNetwork, params,
+					12, 1);
+			System.out.println("Cached matrix [ms]: " + (System.currentTimeMillis() - t0));
+		}
 	}
 }
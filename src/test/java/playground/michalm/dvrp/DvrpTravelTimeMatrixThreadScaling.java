@@ -0,0 +1,140 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.contrib.zone.skims.DvrpTravelTimeMatrixParams;
+import org.matsim.contrib.zone.skims.FreeSpeedTravelTimeMatrix;
+import org.matsim.contrib.zone.skims.TravelTimeMatrices;
+import org.matsim.core.network.NetworkUtils;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import playground.michalm.util.MemoryUtils;
+
+/**
+ * Thread scaling of {@link FreeSpeedTravelTimeMatrix} and {@link TravelTimeMatrices#calculateTravelTimeSparseMatrix}
+ * construction at 1, 2, 4, ..., N threads. For each run: wall time, process CPU time, allocated bytes (sum of the
+ * weights of JFR allocation samples) and retained heap (used heap after GC, with the matrix still referenced).
+ * Prints a CSV with the speedup and efficiency relative to 1 thread.
+ * <p>
+ * Args: [network file] [max number of threads]
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public class DvrpTravelTimeMatrixThreadScaling {
+	private record Result(String matrix, int threads, double wallSeconds, double cpuSeconds, long allocatedBytes,
+						  long retainedBytes) {
+	}
+
+	public static void main(String[] args) throws IOException {
+		String networkFile = args.length > 0 ? args[0] : "scenarios/mielec_2014_02/network.xml";
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		Network network = NetworkUtils.readNetwork(networkFile);
+
+		DvrpTravelTimeMatrixParams params = new DvrpTravelTimeMatrixParams();
+		params.setCellSize(200);
+		params.setMaxNeighborDistance(1000);
+
+		var travelTime = new QSimFreeSpeedTravelTime(1);
+		var travelDisutility = new TimeAsTravelDisutility(travelTime);
+		IntFunction<Object> freeSpeedMatrix = threads -> FreeSpeedTravelTimeMatrix.createFreeSpeedMatrix(network,
+				params, threads, 1);
+		IntFunction<Object> sparseMatrix = threads -> TravelTimeMatrices.calculateTravelTimeSparseMatrix(network,
+				params.getMaxNeighborDistance(), 0, travelTime, travelDisutility, threads);
+
+		List<Integer> threadCounts = new ArrayList<>();
+		for (int threads = 1; threads < maxThreads; threads *= 2) {
+			threadCounts.add(threads);
+		}
+		threadCounts.add(maxThreads);
+
+		// warm-up (JIT)
+		freeSpeedMatrix.apply(maxThreads);
+		sparseMatrix.apply(maxThreads);
+
+		List<Result> results = new ArrayList<>();
+		for (int threads : threadCounts) {
+			results.add(measure("FreeSpeedTravelTimeMatrix", threads, freeSpeedMatrix));
+			results.add(measure("SparseMatrix", threads, sparseMatrix));
+		}
+
+		System.out.println("matrix,threads,wall_s,cpu_s,allocated_MB,allocation_rate_MB_per_s,retained_MB,speedup,"
+				+ "efficiency");
+		for (Result r : results) {
+			double singleThreadWallSeconds = results.stream()
+					.filter(r1 -> r1.matrix.equals(r.matrix) && r1.threads == 1)
+					.findFirst()
+					.orElseThrow().wallSeconds;
+			double speedup = singleThreadWallSeconds / r.wallSeconds;
+			double allocatedMB = r.allocatedBytes / 1e6;
+			System.out.printf("%s,%d,%.3f,%.3f,%.1f,%.1f,%.1f,%.2f,%.3f%n", r.matrix, r.threads, r.wallSeconds,
+					r.cpuSeconds, allocatedMB, allocatedMB / r.wallSeconds, r.retainedBytes / 1e6, speedup,
+					speedup / r.threads);
+		}
+	}
+
+	private static Result measure(String name, int threads, IntFunction<Object> matrixFactory) throws IOException {
+		var osBean = (com.sun.management.OperatingSystemMXBean)ManagementFactory.getOperatingSystemMXBean();
+		long heapBefore = MemoryUtils.usedHeapAfterGc();
+
+		Path jfrFile = Files.createTempFile("matrix_" + name + "_" + threads + "_", ".jfr");
+		Object matrix;
+		long wallNanos;
+		long cpuNanos;
+		try (var recording = new Recording()) {
+			recording.enable("jdk.ObjectAllocationSample").with("throttle", "10000/s");
+			recording.start();
+
+			long cpu0 = osBean.getProcessCpuTime();
+			long t0 = System.nanoTime();
+			matrix = matrixFactory.apply(threads);
+			wallNanos = System.nanoTime() - t0;
+			cpuNanos = osBean.getProcessCpuTime() - cpu0;
+
+			recording.stop();
+			recording.dump(jfrFile);
+		}
+
+		long allocatedBytes = 0;
+		for (RecordedEvent event : RecordingFile.readAllEvents(jfrFile)) {
+			allocatedBytes += event.getLong("weight");
+		}
+		Files.delete(jfrFile);
+
+		long retainedBytes = MemoryUtils.usedHeapAfterGc() - heapBefore;
+		Reference.reachabilityFence(matrix);// the matrix must not be collected before measuring the retained heap
+		return new Result(name, threads, wallNanos / 1e9, cpuNanos / 1e9, allocatedBytes, retainedBytes);
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.speedy.LeastCostPathTree;
+import org.matsim.core.router.speedy.SpeedyGraph;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * @author Michal Maciejewski (michalm)
+ */
+public class AltRouterTest {
+	private static final double DELTA = 1e-9;
+
+	private final TravelTime travelTime = (link, time, person, vehicle) -> link.getLength() / link.getFreespeed();
+
+	@Test
+	public void randomGrid_sameAsLeastCostPathTree() {
+		Network network = createRandomGrid("alt_grid", 15, 0.7, new Random(31));
+		for (int landmarkCount : new int[] { 1, 4, 16 }) {
+			assertSameTravelTimes(network, landmarkCount, new Random(landmarkCount));
+		}
+	}
+
+	@Test
+	public void landmarks_lowerBoundsAreAdmissible() {
+		Network network = createRandomGrid("alt_bounds", 10, 0.8, new Random(77));
+		var graph = new SpeedyGraph(network);
+		var landmarks = Landmarks.create(network, graph, travelTime, 8, 2);
+		assertTrue(landmarks.getLandmarkCount() > 1);
+
+		var tree = new LeastCostPathTree(graph, travelTime, new TimeAsTravelDisutility(travelTime));
+		for (Node from : network.getNodes().values()) {
+			tree.calculate(from.getId().index(), 0, null, null);
+			for (Node to : network.getNodes().values()) {
+				double bound = landmarks.getLowerBound(from.getId().index(), to.getId().index());
+				assertTrue(bound >= 0);
+				assertTrue(bound <= tree.getCost(to.getId().index()) + DELTA);
+			}
+		}
+	}
+
+	private void assertSameTravelTimes(Network network, int landmarkCount, Random random) {
+		var graph = new SpeedyGraph(network);
+		var altRouter = new AltRouter(graph, Landmarks.create(network, graph, travelTime, landmarkCount, 3));
+		var tree = new LeastCostPathTree(graph, travelTime, new TimeAsTravelDisutility(travelTime));
+
+		List<Node> nodes = new ArrayList<>(network.getNodes().values());
+		for (int i = 0; i < 30; i++) {
+			int from = nodes.get(random.nextInt(nodes.size())).getId().index();
+			tree.calculate(from, 0, null, null);
+			for (Node to : nodes) {
+				int toIndex = to.getId().index();
+				assertEquals(tree.getCost(toIndex), altRouter.calcTravelTime(from, toIndex), DELTA);
+			}
+		}
+	}
+
+	// one-way links with random (non-integral) lengths; some nodes end up unreachable or without outgoing links
+	private static Network createRandomGrid(String prefix, int side, double linkProbability, Random random) {
+		Network network = NetworkUtils.createNetwork();
+		Node[][] nodes = new Node[side][side];
+		for (int i = 0; i < side; i++) {
+			for (int j = 0; j < side; j++) {
+				nodes[i][j] = NetworkUtils.createAndAddNode(network, Id.createNodeId(prefix + "_" + i + "_" + j),
+						new Coord(i * 100, j * 100));
+			}
+		}
+		int[][] directions = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } };
+		for (int i = 0; i < side; i++) {
+			for (int j = 0; j < side; j++) {
+				for (int[] direction : directions) {
+					int i2 = i + direction[0];
+					int j2 = j + direction[1];
+					if (i2 >= 0 && j2 >= 0 && i2 < side && j2 < side && random.nextDouble() < linkProbability) {
+						NetworkUtils.createAndAddLink(network,
+								Id.createLinkId(prefix + "_" + i + "_" + j + "_" + i2 + "_" + j2), nodes[i][j],
+								nodes[i2][j2], 50 + 100 * random.nextDouble(), 10, 1000, 1);
+					}
+				}
+			}
+		}
+		return network;
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.LeastCostPathCalculator.Path;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * The only worker of the path service is kept busy (blocked in {@code onDone} of a dummy request), so every path is
+ * computed by the test thread in {@link CoalescingPathCache.Subscription#getPath()} and the cache state is
+ * deterministic.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public class CoalescingPathCacheTest {
+	private static final int SIDE = 4;
+	private static final double TIME_BIN_SIZE = 60;
+
+	private final Network network = NetworkUtils.createNetwork();
+	private final Link[] eastLinks = new Link[SIDE - 1];// eastLinks[i]: (i, 0) -> (i + 1, 0)
+	private final Link[] northLinks = new Link[SIDE - 1];// northLinks[j]: (0, j) -> (0, j + 1)
+	private Link unreachableLink;// starts at a node without in-links
+
+	private final CountDownLatch workerBlocked = new CountDownLatch(1);
+	private final CountDownLatch releaseWorker = new CountDownLatch(1);
+	private SpeculativePathService pathService;
+
+	public CoalescingPathCacheTest() {
+		Node[][] nodes = new Node[SIDE][SIDE];
+		for (int i = 0; i < SIDE; i++) {
+			for (int j = 0; j < SIDE; j++) {
+				nodes[i][j] = createNode("coalescing_" + i + "_" + j, i * 100, j * 100);
+			}
+		}
+		for (int i = 0; i < SIDE; i++) {
+			for (int j = 0; j < SIDE; j++) {
+				if (i + 1 < SIDE) {
+					Link link = createLink(nodes[i][j], nodes[i + 1][j]);
+					createLink(nodes[i + 1][j], nodes[i][j]);
+					if (j == 0) {
+						eastLinks[i] = link;
+					}
+				}
+				if (j + 1 < SIDE) {
+					Link link = createLink(nodes[i][j], nodes[i][j + 1]);
+					createLink(nodes[i][j + 1], nodes[i][j]);
+					if (i == 0) {
+						northLinks[j] = link;
+					}
+				}
+			}
+		}
+		unreachableLink = createLink(createNode("coalescing_source", -100, 0), nodes[0][0]);
+	}
+
+	@Before
+	public void blockWorker() throws InterruptedException {
+		TravelTime travelTime = (link, time, person, vehicle) -> link.getLength() / link.getFreespeed();
+		pathService = new SpeculativePathService(new CompactGraph(network, NodeOrdering.byIdIndex(network)),
+				travelTime, new TimeAsTravelDisutility(travelTime), 1);
+		pathService.submit(eastLinks[0], eastLinks[1], 0, pathFuture -> {
+			workerBlocked.countDown();
+			try {
+				releaseWorker.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		assertTrue(workerBlocked.await(10, TimeUnit.SECONDS));
+	}
+
+	@After
+	public void releaseWorker() {
+		releaseWorker.countDown();
+		pathService.shutdown();
+	}
+
+	@Test
+	public void sharedComputation_cancelledOnlyByLastSubscriber() {
+		var cache = new CoalescingPathCache(pathService, TIME_BIN_SIZE, 10);
+		var first = cache.subscribe(eastLinks[0], eastLinks[2], 10);
+		var second = cache.subscribe(eastLinks[0], eastLinks[2], 50);// same time bin
+		assertEquals(1, cache.getInFlightHitCount());
+
+		assertFalse(first.cancel());
+		assertFalse(second.isDone());// still computed for the second subscriber
+		assertCancelled(first);
+
+		assertTrue(second.cancel());
+		assertTrue(second.isDone());
+		assertCancelled(second);
+		assertEquals(0, cache.getCachedPathCount());
+
+		// a new request for the same path starts a new computation
+		var third = cache.subscribe(eastLinks[0], eastLinks[2], 30);
+		assertEquals(1, cache.getInFlightHitCount());
+		third.getPath();
+		assertEquals(2, pathService.getComputedPathCount());// incl. the one blocking the worker
+	}
+
+	@Test
+	public void sharedComputation_oneSubscriberCancels_otherGetsPath() {
+		var cache = new CoalescingPathCache(pathService, TIME_BIN_SIZE, 10);
+		var first = cache.subscribe(eastLinks[0], eastLinks[2], 10);
+		var second = cache.subscribe(eastLinks[0], eastLinks[2], 20);
+		assertFalse(first.cancel());
+
+		Path path = second.getPath();
+		assertEquals(1, path.links.size());
+		assertEquals(2, pathService.getComputedPathCount());
+		assertCancelled(first);
+		assertEquals(1, cache.getCachedPathCount());
+	}
+
+	@Test
+	public void computedPath_cacheHit() {
+		var cache = new CoalescingPathCache(pathService, TIME_BIN_SIZE, 10);
+		Path path = cache.subscribe(northLinks[0], eastLinks[2], 61).getPath();
+		assertEquals(1, cache.getCachedPathCount());
+
+		var hit = cache.subscribe(northLinks[0], eastLinks[2], 119);// same time bin
+		assertTrue(hit.isDone());
+		assertSame(path, hit.getPath());
+		assertFalse(hit.cancel());// nothing to cancel
+		assertEquals(1, cache.getComputedPathHitCount());
+
+		cache.subscribe(northLinks[0], eastLinks[2], 120).getPath();// next time bin
+		assertEquals(1, cache.getComputedPathHitCount());
+		assertEquals(3, cache.getRequestCount());
+		assertEquals(1. / 3, cache.getHitRate(), 1e-12);
+		assertEquals(3, pathService.getComputedPathCount());
+	}
+
+	@Test
+	public void lruEviction_atMaxCachedPaths() {
+		var cache = new CoalescingPathCache(pathService, TIME_BIN_SIZE, 2);
+		Path path0 = cache.subscribe(eastLinks[0], eastLinks[2], 0).getPath();
+		cache.subscribe(northLinks[0], northLinks[2], 0).getPath();
+		assertSame(path0, cache.subscribe(eastLinks[0], eastLinks[2], 0).getPath());// now the most recently used
+		assertEquals(0, cache.getEvictionCount());
+
+		cache.subscribe(northLinks[0], eastLinks[2], 0).getPath();// evicts the least recently used path
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(2, cache.getCachedPathCount());
+
+		long hits = cache.getComputedPathHitCount();
+		assertSame(path0, cache.subscribe(eastLinks[0], eastLinks[2], 0).getPath());
+		assertEquals(hits + 1, cache.getComputedPathHitCount());
+		cache.subscribe(northLinks[0], northLinks[2], 0).getPath();// evicted, so computed again
+		assertEquals(hits + 1, cache.getComputedPathHitCount());
+		assertEquals(2, cache.getEvictionCount());
+	}
+
+	@Test
+	public void failedComputation_notCached() {
+		var cache = new CoalescingPathCache(pathService, TIME_BIN_SIZE, 10);
+		for (int i = 0; i < 2; i++) {
+			var subscription = cache.subscribe(eastLinks[0], unreachableLink, 0);
+			try {
+				subscription.getPath();
+				throw new AssertionError("Path to an unreachable node returned");
+			} catch (RuntimeException e) {
+				assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+			assertEquals(0, cache.getCachedPathCount());
+		}
+		assertEquals(0, cache.getComputedPathHitCount());
+		assertEquals(0, cache.getInFlightHitCount());
+	}
+
+	private static void assertCancelled(CoalescingPathCache.Subscription subscription) {
+		try {
+			subscription.getPath();
+		} catch (CancellationException e) {
+			return;
+		}
+		throw new AssertionError("Path of a cancelled subscription returned");
+	}
+
+	private Node createNode(String id, double x, double y) {
+		return NetworkUtils.createAndAddNode(network, Id.createNodeId(id), new Coord(x, y));
+	}
+
+	private Link createLink(Node from, Node to) {
+		return NetworkUtils.createAndAddLink(network, Id.createLinkId(from.getId() + "_" + to.getId()), from, to,
+				100, 10, 1000, 1);
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.speedy.LeastCostPathTree;
+import org.matsim.core.router.speedy.LeastCostPathTree.StopCriterion;
+import org.matsim.core.router.speedy.SpeedyGraph;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * @author Michal Maciejewski (michalm)
+ */
+public class DialLeastCostPathTreeTest {
+	private static final StopCriterion NO_STOP = (nodeIndex, arrivalTime, travelCost, distance, departureTime) -> false;
+
+	// integral link times (length / freespeed)
+	private final TravelTime travelTime = (link, time, person, vehicle) -> link.getLength() / link.getFreespeed();
+
+	@Test
+	public void smallNetwork_tiesAndUnreachableNodes() {
+		Network network = NetworkUtils.createNetwork();
+		Node a = createNode(network, "dial_a", 0, 0);
+		Node b = createNode(network, "dial_b", 100, 100);
+		Node c = createNode(network, "dial_c", 100, -100);
+		Node d = createNode(network, "dial_d", 200, 0);
+		Node e = createNode(network, "dial_e", 300, 0);
+		Node f = createNode(network, "dial_f", -100, 0);// only has a link to A
+		Node g = createNode(network, "dial_g", 0, 300);// isolated
+
+		createLink(network, "dial_ab", a, b, 100, 10);
+		createLink(network, "dial_ac", a, c, 50, 5);
+		createLink(network, "dial_bd", b, d, 50, 10);
+		createLink(network, "dial_cd", c, d, 100, 20);// A-B-D and A-C-D: both 15 s
+		createLink(network, "dial_de", d, e, 0, 10);// zero cost
+		createLink(network, "dial_ae", a, e, 300, 10);
+		createLink(network, "dial_fa", f, a, 100, 10);
+
+		var trees = createTrees(network);
+		for (var tree : trees) {
+			tree.calculate(a.getId().index(), 0, NO_STOP);
+		}
+		assertSameCostsAndTimes(network, trees);
+
+		var dial = trees[2];
+		assertEquals(0, dial.getCost(a.getId().index()), 0);
+		assertEquals(15, dial.getCost(d.getId().index()), 0);
+		assertEquals(15, dial.getCost(e.getId().index()), 0);
+		assertEquals(15, dial.getTime(e.getId().index()).seconds(), 0);
+		for (Node unreachable : List.of(f, g)) {
+			assertEquals(Double.POSITIVE_INFINITY, dial.getCost(unreachable.getId().index()), 0);
+			assertTrue(dial.getTime(unreachable.getId().index()).isUndefined());
+		}
+	}
+
+	@Test
+	public void randomGrid_allOrigins() {
+		// small integral link times on a sparse grid: many ties and some unreachable nodes
+		Network network = NetworkUtils.createNetwork();
+		var random = new Random(1234);
+		int side = 12;
+		Node[][] nodes = new Node[side][side];
+		for (int i = 0; i < side; i++) {
+			for (int j = 0; j < side; j++) {
+				nodes[i][j] = createNode(network, "dial_grid_" + i + "_" + j, i * 100, j * 100);
+			}
+		}
+		int[][] directions = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } };
+		for (int i = 0; i < side; i++) {
+			for (int j = 0; j < side; j++) {
+				for (int[] direction : directions) {
+					int i2 = i + direction[0];
+					int j2 = j + direction[1];
+					if (i2 >= 0 && j2 >= 0 && i2 < side && j2 < side && random.nextDouble() < 0.7) {
+						createLink(network, "dial_grid_" + i + "_" + j + "_" + i2 + "_" + j2, nodes[i][j],
+								nodes[i2][j2], 10 * random.nextInt(4), 10);
+					}
+				}
+			}
+		}
+
+		var trees = createTrees(network);
+		for (Node origin : network.getNodes().values()) {
+			for (var tree : trees) {
+				tree.calculate(origin.getId().index(), 0, NO_STOP);
+			}
+			assertSameCostsAndTimes(network, trees);
+		}
+	}
+
+	// MATSim's LeastCostPathTree is the reference; Dial is the last tree
+	private ShortestPathTree[] createTrees(Network network) {
+		var graph = new CompactGraph(network, NodeOrdering.byIdIndex(network));
+		var travelDisutility = new TimeAsTravelDisutility(travelTime);
+		assertTrue(DialLeastCostPathTree.hasIntegralCosts(graph, travelDisutility));
+		return new ShortestPathTree[] {
+				ShortestPathTree.of(new LeastCostPathTree(new SpeedyGraph(network), travelTime, travelDisutility)),
+				new CompactLeastCostPathTree(graph, travelTime, travelDisutility),
+				new DialLeastCostPathTree(graph, travelTime, travelDisutility) };
+	}
+
+	private static void assertSameCostsAndTimes(Network network, ShortestPathTree[] trees) {
+		List<Node> nodes = new ArrayList<>(network.getNodes().values());
+		var expected = trees[0];
+		for (int t = 1; t < trees.length; t++) {
+			var actual = trees[t];
+			for (Node node : nodes) {
+				int index = node.getId().index();
+				assertEquals(expected.getCost(index), actual.getCost(index), 0);
+				assertEquals(expected.getTime(index).isDefined(), actual.getTime(index).isDefined());
+				if (expected.getTime(index).isDefined()) {
+					assertEquals(expected.getTime(index).seconds(), actual.getTime(index).seconds(), 0);
+				}
+			}
+		}
+	}
+
+	private static Node createNode(Network network, String id, double x, double y) {
+		return NetworkUtils.createAndAddNode(network, Id.createNodeId(id), new Coord(x, y));
+	}
+
+	private static void createLink(Network network, String id, Node from, Node to, double length,
+			double freespeed) {
+		NetworkUtils.createAndAddLink(network, Id.createLinkId(id), from, to, length, freespeed, 1000, 1);
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.speedy.LeastCostPathTree.StopCriterion;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * @author Michal Maciejewski (michalm)
+ */
+public class ManyToManyQueryTest {
+	private static final StopCriterion NO_STOP = (nodeIndex, arrivalTime, travelCost, distance, departureTime) -> false;
+	private static final double DELTA = 1e-9;
+
+	private final TravelTime travelTime = (link, time, person, vehicle) -> link.getLength() / link.getFreespeed();
+
+	@Test
+	public void randomGrid_allPairs_sameAsDijkstra() {
+		Network network = createRandomGrid("ch_grid", 15, 0.7, new Random(4321));
+		var hierarchy = ContractionHierarchy.build(network, travelTime);
+		int[] nodeIndices = network.getNodes().values().stream().mapToInt(node -> node.getId().index()).toArray();
+
+		double[][] expected = calcDijkstraTravelTimes(network, nodeIndices, nodeIndices);
+		assertSameTravelTimes(expected, new ManyToManyQuery(hierarchy).calcTravelTimes(nodeIndices, nodeIndices));
+	}
+
+	@Test
+	public void randomGrid_subsetsAndReusedQuery_sameAsDijkstra() {
+		Network network = createRandomGrid("ch_subsets", 12, 0.6, new Random(8765));
+		var query = new ManyToManyQuery(ContractionHierarchy.build(network, travelTime));
+		List<Node> nodes = new ArrayList<>(network.getNodes().values());
+
+		var random = new Random(17);
+		for (int k = 0; k < 5; k++) {
+			int[] from = random.ints(1 + random.nextInt(20), 0, nodes.size())
+					.map(i -> nodes.get(i).getId().index())
+					.toArray();
+			int[] to = random.ints(1 + random.nextInt(20), 0, nodes.size())
+					.map(i -> nodes.get(i).getId().index())
+					.toArray();
+			assertSameTravelTimes(calcDijkstraTravelTimes(network, from, to), query.calcTravelTimes(from, to));
+		}
+	}
+
+	@Test
+	public void links_fromToNodeToFromNode() {
+		Network network = createRandomGrid("ch_links", 8, 0.8, new Random(99));
+		var query = new ManyToManyQuery(ContractionHierarchy.build(network, travelTime));
+		List<Link> links = new ArrayList<>(network.getLinks().values());
+
+		int[] from = links.stream().mapToInt(link -> link.getToNode().getId().index()).toArray();
+		int[] to = links.stream().mapToInt(link -> link.getFromNode().getId().index()).toArray();
+		assertSameTravelTimes(calcDijkstraTravelTimes(network, from, to), query.calcTravelTimes(links, links));
+	}
+
+	@Test
+	public void writeAndRead_sameTravelTimes() throws IOException {
+		Network network = createRandomGrid("ch_io", 10, 0.7, new Random(5));
+		var hierarchy = ContractionHierarchy.build(network, travelTime);
+
+		var bytes = new ByteArrayOutputStream();
+		try (var out = new DataOutputStream(bytes)) {
+			hierarchy.writeTo(out);
+		}
+		ContractionHierarchy read;
+		try (var in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			read = ContractionHierarchy.readFrom(in, network);
+		}
+		assertEquals(hierarchy.getNodeCount(), read.getNodeCount());
+		assertEquals(hierarchy.getEdgeCount(), read.getEdgeCount());
+
+		int[] nodeIndices = network.getNodes().values().stream().mapToInt(node -> node.getId().index()).toArray();
+		assertSameTravelTimes(new ManyToManyQuery(hierarchy).calcTravelTimes(nodeIndices, nodeIndices),
+				new ManyToManyQuery(read).calcTravelTimes(nodeIndices, nodeIndices));
+	}
+
+	private double[][] calcDijkstraTravelTimes(Network network, int[] fromNodeIndices, int[] toNodeIndices) {
+		var graph = new CompactGraph(network, NodeOrdering.byIdIndex(network));
+		var tree = new CompactLeastCostPathTree(graph, travelTime, new TimeAsTravelDisutility(travelTime));
+		double[][] travelTimes = new double[fromNodeIndices.length][toNodeIndices.length];
+		for (int i = 0; i < fromNodeIndices.length; i++) {
+			tree.calculate(fromNodeIndices[i], 0, NO_STOP);
+			for (int j = 0; j < toNodeIndices.length; j++) {
+				travelTimes[i][j] = tree.getCost(toNodeIndices[j]);
+			}
+		}
+		return travelTimes;
+	}
+
+	private static void assertSameTravelTimes(double[][] expected, double[][] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i].length, actual[i].length);
+			for (int j = 0; j < expected[i].length; j++) {
+				assertEquals("[" + i + "][" + j + "]", expected[i][j], actual[i][j], DELTA);
+			}
+		}
+	}
+
+	// one-way links with random (non-integral) lengths; some nodes end up unreachable or without outgoing links
+	private static Network createRandomGrid(String prefix, int side, double linkProbability, Random random) {
+		Network network = NetworkUtils.createNetwork();
+		Node[][] nodes = new Node[side][side];
+		for (int i = 0; i < side; i++) {
+			for (int j = 0; j < side; j++) {
+				nodes[i][j] = NetworkUtils.createAndAddNode(network, Id.createNodeId(prefix + "_" + i + "_" + j),
+						new Coord(i * 100, j * 100));
+			}
+		}
+		int[][] directions = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } };
+		for (int i = 0; i < side; i++) {
+			for (int j = 0; j < side; j++) {
+				for (int[] direction : directions) {
+					int i2 = i + direction[0];
+					int j2 = j + direction[1];
+					if (i2 >= 0 && j2 >= 0 && i2 < side && j2 < side && random.nextDouble() < linkProbability) {
+						NetworkUtils.createAndAddLink(network,
+								Id.createLinkId(prefix + "_" + i + "_" + j + "_" + i2 + "_" + j2), nodes[i][j],
+								nodes[i2][j2], 50 + 100 * random.nextDouble(), 10, 1000, 1);
+					}
+				}
+			}
+		}
+		return network;
+	}
+}
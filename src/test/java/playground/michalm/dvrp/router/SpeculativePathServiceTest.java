@@ -0,0 +1,370 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.LeastCostPathCalculator.Path;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.Vehicle;
+
+import playground.michalm.dvrp.router.SpeculativePathService.ExecutorMode;
+import playground.michalm.dvrp.router.SpeculativePathService.PathFuture;
+import playground.michalm.util.VirtualThreads;
+
+/**
+ * Workers are blocked deterministically, either in {@code onDone} (after the search, with the tree already returned)
+ * or in the travel time (during the search), so that the queue can be filled and inspected before they continue.
+ *
+ * @author Michal Maciejewski (michalm)
+ */
+public class SpeculativePathServiceTest {
+	private static final int SIDE = 5;
+	private static final long TIMEOUT_S = 10;
+
+	private final Network network = NetworkUtils.createNetwork();
+	private final Link[][] eastLinks = new Link[SIDE - 1][SIDE];// eastLinks[i][j]: (i, j) -> (i + 1, j)
+	private final GatedTravelTime travelTime = new GatedTravelTime();
+	private SpeculativePathService service;
+
+	public SpeculativePathServiceTest() {
+		Node[][] nodes = new Node[SIDE][SIDE];
+		for (int i = 0; i < SIDE; i++) {
+			for (int j = 0; j < SIDE; j++) {
+				nodes[i][j] = NetworkUtils.createAndAddNode(network, Id.createNodeId("spec_" + i + "_" + j),
+						new Coord(i * 100, j * 100));
+			}
+		}
+		for (int i = 0; i < SIDE; i++) {
+			for (int j = 0; j < SIDE; j++) {
+				if (i + 1 < SIDE) {
+					eastLinks[i][j] = createLink(nodes[i][j], nodes[i + 1][j]);
+					createLink(nodes[i + 1][j], nodes[i][j]);
+				}
+				if (j + 1 < SIDE) {
+					createLink(nodes[i][j], nodes[i][j + 1]);
+					createLink(nodes[i][j + 1], nodes[i][j]);
+				}
+			}
+		}
+	}
+
+	@After
+	public void shutdown() {
+		travelTime.open();
+		if (service != null) {
+			service.shutdown();
+		}
+	}
+
+	@Test
+	public void queuedRequests_departureTimeOrder_fifoOnTies() throws Exception {
+		service = createService(1);
+		List<PathFuture> completed = new CopyOnWriteArrayList<>();
+		var blocker = new BlockingCallback(completed);
+		PathFuture first = service.submit(eastLinks[0][0], eastLinks[3][4], 0, blocker);
+		blocker.awaitEntered();// the only worker is blocked, all further requests are queued
+
+		var queuedDone = new CountDownLatch(4);
+		Consumer<PathFuture> onDone = pathFuture -> {
+			completed.add(pathFuture);
+			queuedDone.countDown();
+		};
+		PathFuture at30 = service.submit(eastLinks[0][1], eastLinks[3][3], 30, onDone);
+		PathFuture at10a = service.submit(eastLinks[0][2], eastLinks[3][2], 10, onDone);
+		PathFuture at20 = service.submit(eastLinks[0][3], eastLinks[3][1], 20, onDone);
+		PathFuture at10b = service.submit(eastLinks[0][4], eastLinks[3][0], 10, onDone);
+		assertEquals(4, service.getQueueSize());
+
+		blocker.release();
+		assertTrue(queuedDone.await(TIMEOUT_S, TimeUnit.SECONDS));
+		assertEquals(List.of(first, at10a, at10b, at20, at30), completed);
+		assertEquals(5, service.getComputedPathCount());
+		assertEquals(0, service.getNotReadyCount());
+	}
+
+	@Test
+	public void cancelQueuedRequest_skipped() throws Exception {
+		service = createService(1);
+		var blocker = new BlockingCallback(new CopyOnWriteArrayList<>());
+		service.submit(eastLinks[0][0], eastLinks[3][4], 0, blocker);
+		blocker.awaitEntered();
+
+		PathFuture cancelled = service.submit(eastLinks[0][1], eastLinks[3][3], 10);
+		PathFuture computed = service.submit(eastLinks[0][2], eastLinks[3][2], 20);
+		assertTrue(cancelled.cancel(true));
+
+		blocker.release();
+		computed.get(TIMEOUT_S, TimeUnit.SECONDS);
+		assertTrue(cancelled.isCancelled());
+		assertEquals(2, service.getComputedPathCount());
+		assertEquals(0, service.getAbortedSearchCount());// skipped, not started
+		assertCancelled(cancelled);
+	}
+
+	@Test
+	public void cancelRunningSearch_abortedAtNextSettledNode() throws Exception {
+		service = createService(1);
+		travelTime.close();
+		PathFuture running = service.submit(eastLinks[0][0], eastLinks[3][4], 0);
+		travelTime.awaitBlockedThreads(1);// blocked while relaxing the out-links of the start node
+
+		assertTrue(running.cancel(true));
+		int callsBeforeRelease = travelTime.callCount.get();
+		travelTime.open();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_S);
+		while (service.getAbortedSearchCount() == 0) {
+			assertTrue(System.nanoTime() < deadline);
+			Thread.sleep(1);
+		}
+
+		// the search only finishes relaxing the out-links of the start node (2 calls per link: cost and time)
+		assertTrue(travelTime.callCount.get() - callsBeforeRelease <= 2 * 4);
+		assertEquals(0, service.getComputedPathCount());
+		assertCancelled(running);
+
+		PathFuture next = service.submit(eastLinks[0][1], eastLinks[3][3], 10);
+		next.get(TIMEOUT_S, TimeUnit.SECONDS);// the worker is free again
+		assertEquals(1, service.getComputedPathCount());
+		assertEquals(1, service.getAbortedSearchCount());
+	}
+
+	@Test
+	public void getPathOfQueuedRequest_computedByCallingThread() throws Exception {
+		service = createService(1);
+		var blocker = new BlockingCallback(new CopyOnWriteArrayList<>());
+		service.submit(eastLinks[0][0], eastLinks[3][4], 0, blocker);
+		blocker.awaitEntered();// the worker is busy, but its tree is idle again
+
+		List<Thread> completingThreads = new CopyOnWriteArrayList<>();
+		PathFuture queued = service.submit(eastLinks[0][1], eastLinks[3][1], 10,
+				f -> completingThreads.add(Thread.currentThread()));
+		Path path = queued.getPath();
+
+		assertEquals(List.of(Thread.currentThread()), completingThreads);
+		assertEquals(1, service.getNotReadyCount());
+		assertSame(eastLinks[0][1].getToNode(), path.nodes.get(0));
+		assertSame(eastLinks[3][1].getFromNode(), path.nodes.get(path.nodes.size() - 1));
+		assertEquals(2, path.links.size());
+		assertEquals(20, path.travelTime, 1e-9);
+
+		blocker.release();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_S);
+		while (service.getQueueSize() > 0) {// the worker skips the already computed request
+			assertTrue(System.nanoTime() < deadline);
+			Thread.sleep(1);
+		}
+		assertEquals(2, service.getComputedPathCount());
+	}
+
+	@Test
+	public void treePool_boundsConcurrentSearches() throws Exception {
+		int threads = 2;
+		service = createService(threads);
+		travelTime.close();
+		List<PathFuture> running = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			running.add(service.submit(eastLinks[0][i], eastLinks[3][4 - i], 0));
+		}
+		travelTime.awaitBlockedThreads(threads);// all trees in use
+
+		PathFuture queued = service.submit(eastLinks[0][2], eastLinks[3][2], 10);
+		Thread caller = new Thread(queued::getPath);
+		caller.start();
+		while (caller.getState() != Thread.State.WAITING) {// waits for an idle tree, not for a worker
+			assertTrue(caller.isAlive());
+			Thread.sleep(1);
+		}
+		assertEquals(threads, travelTime.blockedThreads.size());
+		assertFalse(travelTime.callingThreads.contains(caller));
+
+		travelTime.open();
+		caller.join(TimeUnit.SECONDS.toMillis(TIMEOUT_S));
+		assertFalse(caller.isAlive());
+		for (PathFuture future : running) {
+			future.get(TIMEOUT_S, TimeUnit.SECONDS);
+		}
+		assertTrue(queued.isDone() && !queued.isCancelled());
+		assertEquals(threads + 1, service.getComputedPathCount());
+		assertTrue(travelTime.maxConcurrentCallers.get() <= threads);
+	}
+
+	@Test
+	public void virtualThreads_finishedRequestThreadsCountedAfterCancellation() throws Exception {
+		Assume.assumeTrue("Virtual threads require Java 21+", VirtualThreads.isSupported());
+		service = new SpeculativePathService(new CompactGraph(network, NodeOrdering.byIdIndex(network)), travelTime,
+				new TimeAsTravelDisutility(travelTime), 1, ExecutorMode.VIRTUAL_THREADS);
+		travelTime.close();
+		PathFuture running = service.submit(eastLinks[0][0], eastLinks[3][4], 0);
+		travelTime.awaitBlockedThreads(1);// holds the only permit, so the next request threads wait for it
+
+		int cancelledCount = 100;
+		List<PathFuture> cancelled = new ArrayList<>();
+		for (int i = 0; i < cancelledCount; i++) {
+			cancelled.add(service.submit(eastLinks[0][1], eastLinks[3][3], 10));
+		}
+		cancelled.forEach(pathFuture -> assertTrue(pathFuture.cancel(true)));
+		assertEquals(cancelledCount + 1, service.getSubmittedRequestCount());
+		assertTrue(service.getFinishedRequestThreadCount() <= cancelledCount);// the running one cannot finish
+
+		travelTime.open();
+		running.get(TIMEOUT_S, TimeUnit.SECONDS);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_S);
+		while (service.getFinishedRequestThreadCount() < service.getSubmittedRequestCount()) {
+			assertTrue(System.nanoTime() < deadline);
+			Thread.sleep(1);
+		}
+		assertEquals(cancelledCount + 1, service.getFinishedRequestThreadCount());
+		assertEquals(0, service.getQueueSize());
+		assertEquals(1, service.getComputedPathCount());
+		cancelled.forEach(SpeculativePathServiceTest::assertCancelled);
+	}
+
+	@Test
+	public void platformThreadPool_noRequestThreadsCounted() throws Exception {
+		service = createService(1);
+		service.submit(eastLinks[0][0], eastLinks[3][4], 0).get(TIMEOUT_S, TimeUnit.SECONDS);
+		assertEquals(1, service.getSubmittedRequestCount());
+		assertEquals(0, service.getFinishedRequestThreadCount());
+	}
+
+	private SpeculativePathService createService(int threads) {
+		return new SpeculativePathService(new CompactGraph(network, NodeOrdering.byIdIndex(network)), travelTime,
+				new TimeAsTravelDisutility(travelTime), threads);
+	}
+
+	private static void assertCancelled(PathFuture future) {
+		try {
+			future.getPath();
+		} catch (CancellationException e) {
+			return;
+		}
+		throw new AssertionError("Path of a cancelled request returned");
+	}
+
+	private Link createLink(Node from, Node to) {
+		return NetworkUtils.createAndAddLink(network,
+				Id.createLinkId(from.getId() + "_" + to.getId()), from, to, 100, 10, 1000, 1);
+	}
+
+	// blocks the completing worker after the search (its tree is already returned to the pool)
+	private static final class BlockingCallback implements Consumer<PathFuture> {
+		private final List<PathFuture> completed;
+		private final CountDownLatch entered = new CountDownLatch(1);
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		private BlockingCallback(List<PathFuture> completed) {
+			this.completed = completed;
+		}
+
+		@Override
+		public void accept(PathFuture pathFuture) {
+			completed.add(pathFuture);
+			entered.countDown();
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private void awaitEntered() throws InterruptedException {
+			assertTrue(entered.await(TIMEOUT_S, TimeUnit.SECONDS));
+		}
+
+		private void release() {
+			released.countDown();
+		}
+	}
+
+	// free-speed travel time that can be closed, i.e. block every search at its first link
+	private static final class GatedTravelTime implements TravelTime {
+		private volatile CountDownLatch gate = new CountDownLatch(0);
+		private final Set<Thread> blockedThreads = ConcurrentHashMap.newKeySet();
+		private final Set<Thread> callers = ConcurrentHashMap.newKeySet();// currently in getLinkTravelTime()
+		private final Set<Thread> callingThreads = ConcurrentHashMap.newKeySet();// ever called
+		private final AtomicInteger maxConcurrentCallers = new AtomicInteger();
+		private final AtomicInteger callCount = new AtomicInteger();
+
+		private void close() {
+			gate = new CountDownLatch(1);
+		}
+
+		private void open() {
+			gate.countDown();
+		}
+
+		private void awaitBlockedThreads(int count) throws InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_S);
+			while (blockedThreads.size() < count) {
+				assertTrue(System.nanoTime() < deadline);
+				Thread.sleep(1);
+			}
+		}
+
+		@Override
+		public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
+			Thread thread = Thread.currentThread();
+			callers.add(thread);
+			callingThreads.add(thread);
+			maxConcurrentCallers.accumulateAndGet(callers.size(), Math::max);
+			callCount.incrementAndGet();
+			try {
+				CountDownLatch currentGate = gate;
+				if (currentGate.getCount() > 0) {
+					blockedThreads.add(thread);
+					currentGate.await();
+					blockedThreads.remove(thread);
+				}
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} finally {
+				callers.remove(thread);
+			}
+			return link.getLength() / link.getFreespeed();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Michal Maciejewski (michalm)
+ */
+public class QuantizedTravelTimeStorageTest {
+	@Test
+	public void exactRange_andOverflow() {
+		// 1-second resolution: times up to 65534 s are exact, longer ones are kept in the overflow table
+		int[] times = { 0, 65_534, 123, TravelTimeMatrixBuilder.UNREACHABLE, 1, 65_535, 100_000 };
+		var storage = new QuantizedTravelTimeStorage(times, 1);
+		for (int i = 0; i < times.length; i++) {
+			assertEquals(times[i], storage.get(i));
+		}
+		assertEquals(2L * times.length + 8L * 3, storage.getMemoryBytes());// UNREACHABLE, 65_535 and 100_000
+	}
+
+	@Test
+	public void randomTimes_roundedToResolution() {
+		var random = new Random(42);
+		for (int resolution : new int[] { 1, 5, 60 }) {
+			int[] times = random.ints(1000, 0, 70_000 * resolution).toArray();
+			times[17] = TravelTimeMatrixBuilder.UNREACHABLE;
+			var storage = new QuantizedTravelTimeStorage(times, resolution);
+			for (int i = 0; i < times.length; i++) {
+				assertTrue(Math.abs((long)storage.get(i) - times[i]) <= resolution / 2);
+				if ((long)times[i] >= 65_535L * resolution) {
+					assertEquals(times[i], storage.get(i));// overflow table
+				}
+			}
+			assertEquals(TravelTimeMatrixBuilder.UNREACHABLE, storage.get(17));
+
+			int[] copy = new int[times.length + 2];
+			storage.copyTo(10, copy, 2, times.length - 10);
+			for (int i = 10; i < times.length; i++) {
+				assertEquals(storage.get(i), copy[i - 8]);
+			}
+		}
+	}
+
+	@Test
+	public void empty() {
+		var storage = new QuantizedTravelTimeStorage(new int[0], 1);
+		assertEquals(0, storage.size());
+		int[] copy = new int[0];
+		storage.copyTo(0, copy, 0, 0);
+		assertArrayEquals(new int[0], copy);
+	}
+}
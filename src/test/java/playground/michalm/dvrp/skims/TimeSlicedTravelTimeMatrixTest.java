@@ -0,0 +1,111 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.TravelTime;
+
+import playground.michalm.dvrp.router.NodeOrdering;
+
+/**
+ * @author Michal Maciejewski (michalm)
+ */
+public class TimeSlicedTravelTimeMatrixTest {
+	private static final double SLICE_DURATION = 3600;
+	private static final int SIDE = 4;
+
+	@Test
+	public void refresh_onlyChangedSlices() {
+		Network network = createGridNetwork();
+		double[] factors = { 1, 1, 1, 1 };// link travel time factor by slice
+		TravelTime travelTime = (link, time, person, vehicle) -> factors[(int)(time / SLICE_DURATION)]
+				* link.getLength() / link.getFreespeed();
+		var matrix = new TimeSlicedTravelTimeMatrix(network, 200, 250, SLICE_DURATION, factors.length, travelTime, 2,
+				NodeOrdering.byIdIndex(network), null);
+
+		Node from = network.getNodes().get(Id.createNodeId("sliced_0_0"));
+		Node to = network.getNodes().get(Id.createNodeId("sliced_1_1"));
+		int freeFlowTime = matrix.getTravelTime(from, to, 0);
+		assertEquals(20, freeFlowTime);// 2 links, 10 s each
+
+		var oldSlices = new HybridTravelTimeMatrix[factors.length];
+		for (int slice = 0; slice < factors.length; slice++) {
+			oldSlices[slice] = matrix.getSliceMatrix(slice);
+		}
+
+		// slice 1: +50%, slice 2: +5% (below the threshold), slice 3: -20%
+		factors[1] = 1.5;
+		factors[2] = 1.05;
+		factors[3] = 0.8;
+		assertEquals(2, matrix.refresh(travelTime, 0.1));
+
+		assertSame(oldSlices[0], matrix.getSliceMatrix(0));
+		assertNotSame(oldSlices[1], matrix.getSliceMatrix(1));
+		assertSame(oldSlices[2], matrix.getSliceMatrix(2));
+		assertNotSame(oldSlices[3], matrix.getSliceMatrix(3));
+
+		assertEquals(freeFlowTime, matrix.getTravelTime(from, to, 0.5 * SLICE_DURATION));
+		assertEquals(30, matrix.getTravelTime(from, to, 1.5 * SLICE_DURATION));
+		assertEquals(freeFlowTime, matrix.getTravelTime(from, to, 2.5 * SLICE_DURATION));
+		assertEquals(16, matrix.getTravelTime(from, to, 3.5 * SLICE_DURATION));
+
+		// nothing changed since the last refresh
+		assertEquals(0, matrix.refresh(travelTime, 0.1));
+	}
+
+	private static Network createGridNetwork() {
+		Network network = NetworkUtils.createNetwork();
+		Node[][] nodes = new Node[SIDE][SIDE];
+		for (int i = 0; i < SIDE; i++) {
+			for (int j = 0; j < SIDE; j++) {
+				nodes[i][j] = NetworkUtils.createAndAddNode(network, Id.createNodeId("sliced_" + i + "_" + j),
+						new Coord(100 * i, 100 * j));
+			}
+		}
+		for (int i = 0; i < SIDE; i++) {
+			for (int j = 0; j < SIDE; j++) {
+				if (i + 1 < SIDE) {
+					createLinks(network, nodes[i][j], nodes[i + 1][j]);
+				}
+				if (j + 1 < SIDE) {
+					createLinks(network, nodes[i][j], nodes[i][j + 1]);
+				}
+			}
+		}
+		return network;
+	}
+
+	private static void createLinks(Network network, Node node1, Node node2) {
+		NetworkUtils.createAndAddLink(network, Id.createLinkId(node1.getId() + "-" + node2.getId()), node1, node2, 100,
+				10, 1000, 1);
+		NetworkUtils.createAndAddLink(network, Id.createLinkId(node2.getId() + "-" + node1.getId()), node2, node1, 100,
+				10, 1000, 1);
+	}
+}
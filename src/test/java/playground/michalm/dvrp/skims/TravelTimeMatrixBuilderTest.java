@@ -0,0 +1,156 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.trafficmonitoring.QSimFreeSpeedTravelTime;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.utils.misc.OptionalTime;
+
+import playground.michalm.dvrp.router.ContractionHierarchy;
+import playground.michalm.dvrp.router.DialLeastCostPathTree;
+import playground.michalm.dvrp.router.NodeOrdering;
+
+/**
+ * @author Michal Maciejewski (michalm)
+ */
+public class TravelTimeMatrixBuilderTest {
+	private static final int SIDE = 10;
+	private static final double MAX_NEIGHBOR_DISTANCE = 350;
+
+	@Test
+	public void buildOffHeapSparseMatrix_sameAsOnHeap() {
+		Network network = createGridNetwork();
+		TravelTime travelTime = (link, time, person, vehicle) -> link.getLength() / link.getFreespeed();
+		for (NodeOrdering nodeOrdering : new NodeOrdering[] { null, NodeOrdering.hilbert(network) }) {
+			var onHeap = TravelTimeMatrixBuilder.buildSparseMatrix(network, MAX_NEIGHBOR_DISTANCE, travelTime, 0, 3,
+					nodeOrdering, null);
+			var offHeap = TravelTimeMatrixBuilder.buildOffHeapSparseMatrix(network, MAX_NEIGHBOR_DISTANCE,
+					travelTime, 0, 3, nodeOrdering);
+			assertFalse(onHeap.isOffHeap());
+			assertTrue(offHeap.isOffHeap());
+			assertEquals(onHeap.getEntryCount(), offHeap.getEntryCount());
+			for (Node from : network.getNodes().values()) {
+				for (Node to : network.getNodes().values()) {
+					assertEquals(onHeap.get(from.getId().index(), to.getId().index()),
+							offHeap.get(from.getId().index(), to.getId().index()));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void buildZonalMatrix_contractionHierarchy_sameAsTrees() {
+		Network network = createGridNetwork();
+		TravelTime travelTime = (link, time, person, vehicle) -> link.getLength() / link.getFreespeed();
+		var grid = new SquareGrid(network.getNodes().values(), 250);
+		var byTrees = TravelTimeMatrixBuilder.buildZonalMatrix(network, grid, travelTime, 0, 3, null, null);
+		var byHierarchy = TravelTimeMatrixBuilder.buildZonalMatrix(network, grid,
+				ContractionHierarchy.build(network, travelTime), 3, null);
+
+		int zoneCount = byTrees.getZoneCount();
+		assertTrue(zoneCount > 3);
+		assertEquals(zoneCount, byHierarchy.getZoneCount());
+		for (int fromZone = 0; fromZone < zoneCount; fromZone++) {
+			assertEquals(byTrees.getCentralNode(fromZone), byHierarchy.getCentralNode(fromZone));
+			for (int toZone = 0; toZone < zoneCount; toZone++) {
+				assertEquals(byTrees.getTravelTime(fromZone, toZone), byHierarchy.getTravelTime(fromZone, toZone));
+			}
+		}
+		for (Node node : network.getNodes().values()) {
+			assertEquals(byTrees.getZone(node), byHierarchy.getZone(node));
+		}
+	}
+
+	@Test
+	public void createTreeFactory_dialWithoutNodeOrdering() {
+		Network network = createGridNetwork();
+		var travelTime = new QSimFreeSpeedTravelTime(1);
+		for (NodeOrdering nodeOrdering : new NodeOrdering[] { null, NodeOrdering.hilbert(network) }) {
+			assertTrue(TravelTimeMatrixBuilder.createTreeFactory(network, travelTime, OptionalTime.defined(0),
+					nodeOrdering).get() instanceof DialLeastCostPathTree);
+			assertFalse(TravelTimeMatrixBuilder.createTreeFactory(network, travelTime, OptionalTime.undefined(),
+					nodeOrdering).get() instanceof DialLeastCostPathTree);
+		}
+
+		// which equal-cost paths are taken (and so which nodes are within maxNeighborDistance) depends on the tree,
+		// but the times of pairs covered by both matrices must be the same
+		var byDial = TravelTimeMatrixBuilder.buildSparseMatrix(network, MAX_NEIGHBOR_DISTANCE, travelTime, 0, 3, null,
+				null);
+		TravelTime otherTravelTime = (link, time, person, vehicle) -> travelTime.getLinkTravelTime(link, time, person,
+				vehicle);
+		var byLeastCostPathTree = TravelTimeMatrixBuilder.buildSparseMatrix(network, MAX_NEIGHBOR_DISTANCE,
+				otherTravelTime, 0, 3, null, null);
+		int commonEntries = 0;
+		for (Node from : network.getNodes().values()) {
+			for (Node to : network.getNodes().values()) {
+				int expected = byLeastCostPathTree.get(from.getId().index(), to.getId().index());
+				int actual = byDial.get(from.getId().index(), to.getId().index());
+				if (expected >= 0 && actual >= 0) {
+					assertEquals(expected, actual);
+					commonEntries++;
+				}
+			}
+		}
+		assertTrue(commonEntries > 0.9 * byLeastCostPathTree.getEntryCount());
+	}
+
+	private static Network createGridNetwork() {
+		var random = new Random(1234);
+		Network network = NetworkUtils.createNetwork();
+		Node[][] nodes = new Node[SIDE][SIDE];
+		for (int i = 0; i < SIDE; i++) {
+			for (int j = 0; j < SIDE; j++) {
+				nodes[i][j] = NetworkUtils.createAndAddNode(network, Id.createNodeId("builder_" + i + "_" + j),
+						new Coord(100 * i, 100 * j));
+			}
+		}
+		for (int i = 0; i < SIDE; i++) {
+			for (int j = 0; j < SIDE; j++) {
+				if (i + 1 < SIDE) {
+					createLink(network, nodes[i][j], nodes[i + 1][j], random);
+					createLink(network, nodes[i + 1][j], nodes[i][j], random);
+				}
+				if (j + 1 < SIDE) {
+					createLink(network, nodes[i][j], nodes[i][j + 1], random);
+					createLink(network, nodes[i][j + 1], nodes[i][j], random);
+				}
+			}
+		}
+		return network;
+	}
+
+	private static void createLink(Network network, Node fromNode, Node toNode, Random random) {
+		NetworkUtils.createAndAddLink(network, Id.createLinkId(fromNode.getId() + "-" + toNode.getId()), fromNode,
+				toNode, 100, 5 + random.nextInt(10), 1000, 1);
+	}
+}
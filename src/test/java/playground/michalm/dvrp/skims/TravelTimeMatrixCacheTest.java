@@ -0,0 +1,155 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+/**
+ * @author Michal Maciejewski (michalm)
+ */
+public class TravelTimeMatrixCacheTest {
+	private static final int NODE_COUNT = 8;
+	private static final String FINGERPRINT = "test";
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void writeAndMap() {
+		Network network = createNetwork("cache_a", false);
+		List<Node> nodes = getNodes(network, "cache_a");
+		var matrix = createMatrix(nodes);
+		Path file = temporaryFolder.getRoot().toPath().resolve("matrix.bin");
+		TravelTimeMatrixCache.write(file, matrix, network, FINGERPRINT);
+
+		var mappedMatrix = TravelTimeMatrixCache.read(file, network, FINGERPRINT);
+		assertTrue(mappedMatrix.getSparseMatrix().isOffHeap());
+		assertSameTravelTimes(matrix, nodes, mappedMatrix, nodes);
+	}
+
+	@Test
+	public void readWithDifferentNodeIndices() throws IOException {
+		Network network = createNetwork("cache_b", false);
+		List<Node> nodes = getNodes(network, "cache_b");
+		var matrix = createMatrix(nodes);
+		Path file = temporaryFolder.getRoot().toPath().resolve("matrix.bin");
+		TravelTimeMatrixCache.write(file, matrix, network, FINGERPRINT);
+
+		// the node ids are stored at the end of the file; renaming them to ids created in the reverse order
+		// simulates reading the file in another JVM, where Id.index() values differ
+		int nodeIndexCount = matrix.getZonalMatrix().getZoneByNodeIndexBuffer().capacity();
+		int nodeIdBytes = IntStream.range(0, nodeIndexCount).map(i -> {
+			Id<Node> nodeId = Id.get(i, Node.class);
+			return 2 + (network.getNodes().containsKey(nodeId) ? nodeId.toString().length() : 0);
+		}).sum();
+		byte[] bytes = Files.readAllBytes(file);
+		byte[] nodeIds = new String(bytes, bytes.length - nodeIdBytes, nodeIdBytes, ISO_8859_1).replace("cache_b",
+				"cache_c").getBytes(ISO_8859_1);
+		System.arraycopy(nodeIds, 0, bytes, bytes.length - nodeIdBytes, nodeIdBytes);
+		Files.write(file, bytes);
+
+		Network otherNetwork = createNetwork("cache_c", true);
+		List<Node> otherNodes = getNodes(otherNetwork, "cache_c");
+		var translatedMatrix = TravelTimeMatrixCache.read(file, otherNetwork, FINGERPRINT);
+		assertSameTravelTimes(matrix, nodes, translatedMatrix, otherNodes);
+		assertTrue(translatedMatrix.getSparseMatrix().isOffHeap());
+		assertEquals(matrix.getSparseMatrix().getEntryCount(), translatedMatrix.getSparseMatrix().getEntryCount());
+		assertEquals(otherNodes.get(0), translatedMatrix.getZonalMatrix().getCentralNode(0));
+		assertEquals(otherNodes.get(1), translatedMatrix.getZonalMatrix().getCentralNode(1));
+	}
+
+	private static Network createNetwork(String prefix, boolean reverseIdOrder) {
+		Network network = NetworkUtils.createNetwork();
+		for (int k = 0; k < NODE_COUNT; k++) {
+			int i = reverseIdOrder ? NODE_COUNT - 1 - k : k;
+			NetworkUtils.createAndAddNode(network, Id.createNodeId(prefix + i), new Coord(100 * i, 0));
+		}
+		return network;
+	}
+
+	private static List<Node> getNodes(Network network, String prefix) {
+		return IntStream.range(0, NODE_COUNT)
+				.mapToObj(i -> network.getNodes().get(Id.createNodeId(prefix + i)))
+				.map(Node.class::cast)
+				.toList();
+	}
+
+	// two zones (even and odd nodes); sparse entries between nodes at most 2 positions apart; random times
+	private static HybridTravelTimeMatrix createMatrix(List<Node> nodes) {
+		var random = new Random(1234);
+		int nodeIndexCount = Id.getNumberOfIds(Node.class);
+		int[] zoneByNodeIndex = new int[nodeIndexCount];
+		Arrays.fill(zoneByNodeIndex, -1);
+		for (int i = 0; i < NODE_COUNT; i++) {
+			zoneByNodeIndex[nodes.get(i).getId().index()] = i % 2;
+		}
+		int[] zonalTimes = random.ints(4, 0, 1000).toArray();
+		var zonalMatrix = new ZonalTravelTimeMatrix(IntBuffer.wrap(zoneByNodeIndex),
+				new Node[] { nodes.get(0), nodes.get(1) }, TravelTimeStorage.of(zonalTimes, null));
+
+		int[][] rows = new int[nodeIndexCount][];
+		for (int i = 0; i < NODE_COUNT; i++) {
+			int from = i;
+			rows[nodes.get(i).getId().index()] = IntStream.range(0, NODE_COUNT)
+					.filter(j -> Math.abs(j - from) <= 2)
+					.map(j -> nodes.get(j).getId().index())
+					.sorted()
+					.flatMap(column -> IntStream.of(column, random.nextInt(1000)))
+					.toArray();
+		}
+		var sparseMatrix = TravelTimeMatrixBuilder.assembleSparseMatrix(rows, null, null);
+		return new HybridTravelTimeMatrix(zonalMatrix, sparseMatrix);
+	}
+
+	private static void assertSameTravelTimes(HybridTravelTimeMatrix expected, List<Node> expectedNodes,
+			HybridTravelTimeMatrix actual, List<Node> actualNodes) {
+		for (int i = 0; i < NODE_COUNT; i++) {
+			for (int j = 0; j < NODE_COUNT; j++) {
+				assertEquals(expected.getTravelTime(expectedNodes.get(i), expectedNodes.get(j), 0),
+						actual.getTravelTime(actualNodes.get(i), actualNodes.get(j), 0));
+				assertEquals(expected.getSparseMatrix().get(expectedNodes.get(i).getId().index(),
+								expectedNodes.get(j).getId().index()),
+						actual.getSparseMatrix().get(actualNodes.get(i).getId().index(),
+								actualNodes.get(j).getId().index()));
+			}
+		}
+	}
+}
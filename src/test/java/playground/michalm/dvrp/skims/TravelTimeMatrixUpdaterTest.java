@@ -0,0 +1,139 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.dvrp.skims;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkChangeEvent;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.TravelTime;
+
+import playground.michalm.dvrp.router.NodeOrdering;
+
+/**
+ * @author Michal Maciejewski (michalm)
+ */
+public class TravelTimeMatrixUpdaterTest {
+	private static final int SIDE = 8;
+	private static final double CELL_SIZE = 200;// 16 zones
+	private static final double MAX_NEIGHBOR_DISTANCE = 250;
+
+	@Test
+	public void update_fewChangedLinks() {
+		// 2 changed links: backward searches from the link ends
+		assertUpdateEqualsRebuild("updater_few_", 2);
+	}
+
+	@Test
+	public void update_manyChangedLinks() {
+		// 12 changed links: forward searches from the central nodes
+		assertUpdateEqualsRebuild("updater_many_", 12);
+	}
+
+	private static void assertUpdateEqualsRebuild(String prefix, int changedLinkCount) {
+		Network network = createGridNetwork(prefix);
+		var nodeOrdering = NodeOrdering.byIdIndex(network);
+		double[] factors = new double[Id.getNumberOfIds(Link.class)];// link travel time factor by link index
+		Arrays.fill(factors, 1);
+		TravelTime travelTime = (link, time, person, vehicle) -> factors[link.getId().index()] * link.getLength()
+				/ link.getFreespeed();
+
+		var matrix = TravelTimeMatrixBuilder.buildHybridMatrix(network, CELL_SIZE, MAX_NEIGHBOR_DISTANCE, travelTime,
+				0, 2, nodeOrdering, null);
+		var updater = new TravelTimeMatrixUpdater(network, matrix, travelTime, MAX_NEIGHBOR_DISTANCE, 0, 2, null);
+
+		var random = new Random(1234);
+		List<Link> links = List.copyOf(network.getLinks().values());
+		for (int update = 0; update < 3; update++) {
+			var event = new NetworkChangeEvent(0);
+			for (int i = 0; i < changedLinkCount; i++) {
+				Link link = links.get(random.nextInt(links.size()));
+				factors[link.getId().index()] = random.nextBoolean() ? 0.5 : 3;// speeding up or slowing down
+				event.addLink(link);
+			}
+
+			var stats = updater.update(List.of(event), travelTime);
+			var rebuiltMatrix = TravelTimeMatrixBuilder.buildHybridMatrix(network, CELL_SIZE, MAX_NEIGHBOR_DISTANCE,
+					travelTime, 0, 2, nodeOrdering, null);
+			assertSameMatrix(network, rebuiltMatrix, updater.getMatrix());
+			assertEquals(rebuiltMatrix.getSparseMatrix().getEntryCount(),
+					updater.getMatrix().getSparseMatrix().getEntryCount());
+			assertTrue(stats.changedLinkCount() <= changedLinkCount);
+		}
+
+		// no actual change
+		assertEquals(0, updater.update(List.of(new NetworkChangeEvent(0)), travelTime).changedLinkCount());
+		updater.shutdown();
+	}
+
+	private static void assertSameMatrix(Network network, HybridTravelTimeMatrix expected,
+			HybridTravelTimeMatrix actual) {
+		for (Node from : network.getNodes().values()) {
+			for (Node to : network.getNodes().values()) {
+				String pair = from.getId() + " -> " + to.getId();
+				assertEquals(pair, expected.getZonalMatrix().getTravelTime(from, to),
+						actual.getZonalMatrix().getTravelTime(from, to), 0);
+				assertEquals(pair, expected.getSparseMatrix().getTravelTime(from, to),
+						actual.getSparseMatrix().getTravelTime(from, to), 0);
+			}
+		}
+	}
+
+	private static Network createGridNetwork(String prefix) {
+		Network network = NetworkUtils.createNetwork();
+		Node[][] nodes = new Node[SIDE][SIDE];
+		for (int i = 0; i < SIDE; i++) {
+			for (int j = 0; j < SIDE; j++) {
+				nodes[i][j] = NetworkUtils.createAndAddNode(network, Id.createNodeId(prefix + i + "_" + j),
+						new Coord(100 * i, 100 * j));
+			}
+		}
+		for (int i = 0; i < SIDE; i++) {
+			for (int j = 0; j < SIDE; j++) {
+				if (i + 1 < SIDE) {
+					createLinks(network, nodes[i][j], nodes[i + 1][j]);
+				}
+				if (j + 1 < SIDE) {
+					createLinks(network, nodes[i][j], nodes[i][j + 1]);
+				}
+			}
+		}
+		return network;
+	}
+
+	private static void createLinks(Network network, Node node1, Node node2) {
+		NetworkUtils.createAndAddLink(network, Id.createLinkId(node1.getId() + "-" + node2.getId()), node1, node2, 100,
+				10, 1000, 1);
+		NetworkUtils.createAndAddLink(network, Id.createLinkId(node2.getId() + "-" + node1.getId()), node2, node1, 100,
+				10, 1000, 1);
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2022 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** *
+ */
+
+package playground.michalm.util.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Michal Maciejewski (michalm)
+ */
+public class QuantileSketchTest {
+	private static final double[] QUANTILES = { 0, 0.01, 0.25, 0.5, 0.9, 0.99, 1 };
+
+	@Test
+	public void quantile_withinRelativeAccuracy() {
+		var random = new Random(1234);
+		var sketch = new QuantileSketch(0.01, 1, 100_000);
+		double[] values = new double[10_000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = Math.exp(random.nextDouble() * Math.log(100_000));
+			sketch.add(values[i]);
+		}
+		Arrays.sort(values);
+
+		for (double q : QUANTILES) {
+			double exact = values[(int)(q * (values.length - 1))];
+			assertEquals("q=" + q, exact, sketch.quantile(q), exact * 0.01);
+		}
+	}
+
+	@Test
+	public void quantile_negativeAndZeroValues() {
+		var sketch = new QuantileSketch(0.01, 1, 100_000);
+		for (double value : new double[] { -1000, -10, -0.5, 0, 0.5, 10, 1000 }) {
+			sketch.add(value);
+		}
+		assertEquals(-1000, sketch.quantile(0), 10);
+		assertEquals(-10, sketch.quantile(1. / 6), 0.1);
+		assertEquals(0, sketch.quantile(0.5), 0);// |x| < minValue are counted as 0
+		assertEquals(1000, sketch.quantile(1), 10);
+		assertTrue(Double.isNaN(new QuantileSketch(0.01, 1, 100_000).quantile(0.5)));
+	}
+
+	@Test
+	public void merge_sameAsSingleSketch() {
+		var random = new Random(5678);
+		var all = new QuantileSketch(0.01, 1, 100_000);
+		var part1 = new QuantileSketch(0.01, 1, 100_000);
+		var part2 = new QuantileSketch(0.01, 1, 100_000);
+		for (int i = 0; i < 1000; i++) {
+			double value = random.nextGaussian() * 100;
+			all.add(value);
+			(i % 2 == 0 ? part1 : part2).add(value);
+		}
+		part1.merge(part2);
+		assertSameQuantiles(all, part1);
+	}
+
+	@Test
+	public void writeTo_readFrom() throws IOException {
+		var random = new Random(9012);
+		var sketch = new QuantileSketch(0.02, 0.5, 1000);
+		for (int i = 0; i < 1000; i++) {
+			sketch.add(random.nextGaussian() * 200);
+		}
+		assertSameQuantiles(sketch, writeAndRead(sketch));
+
+		// without negative values
+		var positiveSketch = new QuantileSketch(0.02, 0.5, 1000);
+		positiveSketch.add(0);
+		positiveSketch.add(20);
+		positiveSketch.add(5000);
+		assertSameQuantiles(positiveSketch, writeAndRead(positiveSketch));
+		assertSameQuantiles(new QuantileSketch(0.02, 0.5, 1000), writeAndRead(new QuantileSketch(0.02, 0.5, 1000)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void merge_differentParameters() {
+		new QuantileSketch(0.01, 1, 100_000).merge(new QuantileSketch(0.02, 1, 100_000));
+	}
+
+	private static QuantileSketch writeAndRead(QuantileSketch sketch) throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		try (var out = new DataOutputStream(bytes)) {
+			sketch.writeTo(out);
+		}
+		try (var in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			return QuantileSketch.readFrom(in);
+		}
+	}
+
+	private static void assertSameQuantiles(QuantileSketch expected, QuantileSketch actual) {
+		assertEquals(expected.getCount(), actual.getCount());
+		for (int i = 0; i <= 100; i++) {
+			assertEquals(expected.quantile(i / 100.), actual.quantile(i / 100.), 0);
+		}
+	}
+}